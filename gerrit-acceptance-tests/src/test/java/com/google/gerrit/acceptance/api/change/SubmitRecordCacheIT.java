@@ -0,0 +1,104 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.api.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.acceptance.PushOneCommit;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.LabelInfo;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.git.MetaDataUpdate;
+import com.google.gerrit.server.git.VersionedMetaData;
+
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Map;
+
+@NoHttpd
+public class SubmitRecordCacheIT extends AbstractDaemonTest {
+  private static final String REQUIRE_BLOCKED_LABEL =
+      "submit_filter(In, Out) :-"
+      + " In =.. [submit | L],"
+      + " Out =.. [submit, label('Blocked', need(_)) | L].";
+
+  private static class RulesPl extends VersionedMetaData {
+    private static final String FILENAME = "rules.pl";
+
+    private String rule;
+
+    @Override
+    protected String getRefName() {
+      return RefNames.REFS_CONFIG;
+    }
+
+    @Override
+    protected void onLoad() throws IOException, ConfigInvalidException {
+      rule = readUTF8(FILENAME);
+    }
+
+    @Override
+    protected boolean onSave(CommitBuilder commit)
+        throws IOException, ConfigInvalidException {
+      saveUTF8(FILENAME, rule);
+      return true;
+    }
+  }
+
+  @Test
+  public void changeUpdateMissesCache() throws Exception {
+    PushOneCommit.Result r = createChange();
+    assertThat(labels(r).get("Code-Review").approved).isNull();
+
+    approve(r.getChangeId());
+    assertThat(labels(r).get("Code-Review").approved).isNotNull();
+  }
+
+  @Test
+  public void parentRulesUpdateMissesCache() throws Exception {
+    PushOneCommit.Result r = createChange();
+    approve(r.getChangeId());
+    assertThat(labels(r)).doesNotContainKey("Blocked");
+
+    setRulesPl(REQUIRE_BLOCKED_LABEL);
+    assertThat(labels(r)).containsKey("Blocked");
+
+    exception.expect(ResourceConflictException.class);
+    gApi.changes().id(r.getChangeId()).current().submit();
+  }
+
+  private Map<String, LabelInfo> labels(PushOneCommit.Result r)
+      throws Exception {
+    return gApi.changes().id(r.getChangeId())
+        .get(EnumSet.of(ListChangesOption.LABELS)).labels;
+  }
+
+  private void setRulesPl(String rule) throws Exception {
+    try (MetaDataUpdate md = metaDataUpdateFactory.create(allProjects)) {
+      RulesPl r = new RulesPl();
+      r.load(md);
+      r.rule = rule;
+      r.commit(md);
+    }
+    projectCache.evict(allProjects);
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.GitUtil.pushHead;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.GerritConfig;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.server.events.CommitReceivedEvent;
+import com.google.gerrit.server.git.validators.CommitValidationException;
+import com.google.gerrit.server.git.validators.CommitValidationListener;
+import com.google.gerrit.server.git.validators.CommitValidationMessage;
+import com.google.inject.Inject;
+
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.RemoteRefUpdate.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@NoHttpd
+public class ParallelCommitValidationIT extends AbstractDaemonTest {
+  @Inject
+  private DynamicSet<CommitValidationListener> validators;
+
+  private final List<String> validated =
+      Collections.synchronizedList(new ArrayList<String>());
+  private RegistrationHandle validatorRegistration;
+
+  @Before
+  public void setUp() {
+    validatorRegistration = validators.add(new CommitValidationListener() {
+      @Override
+      public List<CommitValidationMessage> onCommitReceived(
+          CommitReceivedEvent receiveEvent) throws CommitValidationException {
+        if (!receiveEvent.getProjectNameKey().equals(project)) {
+          return Collections.emptyList();
+        }
+        String subject = receiveEvent.commit.getShortMessage();
+        validated.add(subject);
+        if (subject.startsWith("reject")) {
+          throw new CommitValidationException("rejected " + subject);
+        }
+        return Collections.singletonList(
+            new CommitValidationMessage("validated " + subject, false));
+      }
+    });
+  }
+
+  @After
+  public void cleanup() {
+    validatorRegistration.remove();
+  }
+
+  @Test
+  @GerritConfig(name = "receive.commitValidationThreads", value = "4")
+  public void firstRejectionWins() throws Exception {
+    commitBuilder().message("accept 1").create();
+    commitBuilder().message("reject 2").create();
+    commitBuilder().message("accept 3").create();
+    commitBuilder().message("reject 4").create();
+    commitBuilder().message("accept 5").create();
+
+    PushResult r = pushHead(testRepo, "refs/for/master", false);
+    RemoteRefUpdate refUpdate = r.getRemoteUpdate("refs/for/master");
+    assertThat(refUpdate.getStatus()).isEqualTo(Status.REJECTED_OTHER_REASON);
+    assertThat(refUpdate.getMessage()).isEqualTo("rejected reject 2");
+    assertThat(r.getMessages()).contains("validated accept 1");
+    // Commits validated concurrently with the rejected one are not reported.
+    assertThat(r.getMessages()).doesNotContain("validated accept 3");
+    assertThat(r.getMessages()).doesNotContain("validated accept 5");
+    assertThat(validated).containsAllOf("accept 1", "reject 2");
+  }
+
+  @Test
+  @GerritConfig(name = "receive.commitValidationThreads", value = "4")
+  public void acceptedCommitsAreNotValidatedAgain() throws Exception {
+    commitBuilder().message("accept 1").create();
+    pushHead(testRepo, "refs/for/master", false);
+
+    validated.clear();
+    amendBuilder().message("accept 1 v2").create();
+    commitBuilder().message("accept 2").create();
+    PushResult r = pushHead(testRepo, "refs/for/master", false);
+    assertThat(r.getRemoteUpdate("refs/for/master").getStatus())
+        .isEqualTo(Status.OK);
+
+    // The replacement was accepted by the pipeline and is not validated
+    // again when its new patch set is checked.
+    assertThat(validated).containsExactly("accept 1 v2", "accept 2");
+    assertThat(r.getMessages()).contains("validated accept 1 v2");
+    assertThat(r.getMessages()).contains("validated accept 2");
+  }
+}
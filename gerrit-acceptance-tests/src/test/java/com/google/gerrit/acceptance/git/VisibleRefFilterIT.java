@@ -19,6 +19,8 @@ import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS
 
 import com.google.gerrit.acceptance.AbstractDaemonTest;
 import com.google.gerrit.acceptance.AcceptanceTestRequestScope;
+import com.google.gerrit.acceptance.GerritConfig;
+import com.google.gerrit.acceptance.GerritConfigs;
 import com.google.gerrit.acceptance.NoHttpd;
 import com.google.gerrit.acceptance.PushOneCommit;
 import com.google.gerrit.common.Nullable;
@@ -302,6 +304,39 @@ public class VisibleRefFilterIT extends AbstractDaemonTest {
         "refs/tags/master-tag");
   }
 
+  @Test
+  @GerritConfigs({
+    @GerritConfig(name = "cache.changes.memoryLimit", value = "1024"),
+    @GerritConfig(name = "cache.changes_visible.memoryLimit", value = "1024")
+  })
+  public void visibleChangesRefreshedAfterChangeRefUpdate() throws Exception {
+    allow(Permission.READ, REGISTERED_USERS, "refs/heads/master");
+    deny(Permission.READ, REGISTERED_USERS, "refs/heads/branch");
+
+    setApiUser(user);
+    assertRefs(
+        "HEAD",
+        r1 + "1",
+        r1 + "meta",
+        "refs/heads/master",
+        "refs/tags/master-tag");
+
+    PushOneCommit.Result mr = pushFactory.create(db, admin.getIdent(), testRepo)
+        .to("refs/for/master");
+    mr.assertOkStatus();
+    String r3 = changeRefPrefix(mr.getChange().getId());
+
+    setApiUser(user);
+    assertRefs(
+        "HEAD",
+        r1 + "1",
+        r1 + "meta",
+        r3 + "1",
+        r3 + "meta",
+        "refs/heads/master",
+        "refs/tags/master-tag");
+  }
+
   @Test
   public void noSearchingChangeCacheImpl() throws Exception {
     allow(Permission.READ, REGISTERED_USERS, "refs/heads/*");
@@ -0,0 +1,117 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.TruthJUnit.assume;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.ChangeMessage;
+import com.google.gerrit.reviewdb.server.ChangeMessageAccess;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.reviewdb.server.ReviewDbWrapper;
+import com.google.gerrit.server.change.ChangeJson;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gwtorm.server.OrmException;
+import com.google.gwtorm.server.ResultSet;
+import com.google.inject.Inject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+
+@NoHttpd
+public class ChangeJsonIT extends AbstractDaemonTest {
+  @Inject
+  private ChangeJson.Factory changeJsonFactory;
+
+  @Test
+  public void messagesOfAllChangesLoadedInOneBatch() throws Exception {
+    assume().that(notesMigration.readChanges()).isFalse();
+    List<Change.Id> ids = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      ids.add(createChange().getChange().getId());
+    }
+
+    List<String> events = new ArrayList<>();
+    ReviewDb recordingDb = new MessageRecordingDb(db, events);
+    List<ChangeData> cds = new ArrayList<>();
+    for (Change.Id id : ids) {
+      cds.add(changeDataFactory.create(recordingDb, project, id));
+    }
+    List<ChangeInfo> infos = changeJsonFactory
+        .create(EnumSet.of(ListChangesOption.MESSAGES))
+        .formatChangeDatas(cds);
+
+    // All reads are started before the first result is used.
+    assertThat(events).containsExactly(
+        "read " + ids.get(0),
+        "read " + ids.get(1),
+        "read " + ids.get(2),
+        "use " + ids.get(0),
+        "use " + ids.get(1),
+        "use " + ids.get(2))
+        .inOrder();
+    for (ChangeInfo info : infos) {
+      assertThat(info.messages).hasSize(1);
+    }
+  }
+
+  private static class MessageRecordingDb extends ReviewDbWrapper {
+    private final List<String> events;
+
+    MessageRecordingDb(ReviewDb delegate, List<String> events) {
+      super(delegate);
+      this.events = events;
+    }
+
+    @Override
+    public ChangeMessageAccess changeMessages() {
+      return new ChangeMessageAccessWrapper(delegate.changeMessages()) {
+        @Override
+        public ResultSet<ChangeMessage> byChange(final Change.Id id)
+            throws OrmException {
+          events.add("read " + id);
+          final ResultSet<ChangeMessage> rs = delegate.byChange(id);
+          return new ResultSet<ChangeMessage>() {
+            @Override
+            public Iterator<ChangeMessage> iterator() {
+              events.add("use " + id);
+              return rs.iterator();
+            }
+
+            @Override
+            public List<ChangeMessage> toList() {
+              events.add("use " + id);
+              return rs.toList();
+            }
+
+            @Override
+            public void close() {
+              rs.close();
+            }
+          };
+        }
+      };
+    }
+  }
+}
@@ -18,17 +18,26 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.acceptance.GitUtil.getChangeId;
 import static com.google.gerrit.acceptance.GitUtil.pushHead;
 
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.GerritConfig;
 import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.acceptance.PushOneCommit;
+import com.google.gerrit.acceptance.UseLocalDisk;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.extensions.common.DiffInfo;
 import com.google.gerrit.reviewdb.client.Patch;
 import com.google.gerrit.reviewdb.client.Patch.ChangeType;
+import com.google.gerrit.server.patch.PatchList;
 import com.google.gerrit.server.patch.PatchListCache;
 import com.google.gerrit.server.patch.PatchListEntry;
 import com.google.gerrit.server.patch.PatchListKey;
 import com.google.inject.Inject;
 
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.Test;
 
@@ -212,6 +221,47 @@ public class PatchListCacheIT extends AbstractDaemonTest {
     assertDeleted(FILE_C, entriesReverse.get(1));
   }
 
+  @Test
+  @UseLocalDisk
+  @GerritConfig(name = "change.cacheAutomerge", value = "cache")
+  public void autoMergePrunedByGcIsCreatedAgain() throws Exception {
+    PushOneCommit.Result base = pushFactory.create(db, admin.getIdent(),
+        testRepo, SUBJECT_1, FILE_A, "1").to("refs/heads/master");
+    PushOneCommit.Result feature = pushFactory.create(db, admin.getIdent(),
+        testRepo, SUBJECT_2, FILE_B, "2").to("refs/heads/feature");
+    testRepo.reset(base.getCommit());
+    PushOneCommit push = pushFactory.create(db, admin.getIdent(), testRepo,
+        SUBJECT_3, FILE_C, "3");
+    push.setParents(ImmutableList.of(base.getCommit(), feature.getCommit()));
+    PushOneCommit.Result merge = push.to("refs/for/master");
+
+    PatchList list = patchListCache.get(
+        getKey(null, merge.getCommit()), project);
+    ObjectId autoMerge = list.getOldId();
+    assertThat(list.isAgainstParent()).isFalse();
+
+    try (Repository repo = repoManager.openRepository(project)) {
+      assertThat(repo.hasObject(autoMerge)).isTrue();
+      GC gc = new GC((FileRepository) repo);
+      gc.setExpireAgeMillis(0);
+      gc.setPackExpireAgeMillis(0);
+      gc.gc();
+      assertThat(repo.hasObject(autoMerge)).isFalse();
+
+      // The diff is still cached, but its auto-merge is created again.
+      list = patchListCache.get(getKey(null, merge.getCommit()), project);
+      assertThat(list.getOldId()).isEqualTo(autoMerge);
+      assertThat(repo.hasObject(autoMerge)).isTrue();
+    }
+
+    DiffInfo diff = gApi.changes()
+        .id(merge.getChangeId())
+        .current()
+        .file(FILE_C)
+        .diff();
+    assertThat(diff.metaB.name).isEqualTo(FILE_C);
+  }
+
   private static void assertAdded(String expectedNewName, PatchListEntry e) {
     assertName(expectedNewName, e);
     assertThat(e.getChangeType()).isEqualTo(ChangeType.ADDED);
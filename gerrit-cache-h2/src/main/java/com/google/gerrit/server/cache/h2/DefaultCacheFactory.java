@@ -43,6 +43,7 @@ public class DefaultCacheFactory implements MemoryCacheFactory {
       bind(MemoryCacheFactory.class).to(DefaultCacheFactory.class);
       bind(PersistentCacheFactory.class).to(H2CacheFactory.class);
       listener().to(H2CacheFactory.class);
+      listener().to(MmapCacheFactory.class);
     }
   }
 
@@ -20,10 +20,17 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.cache.CacheBinding;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.plugins.Plugin;
@@ -39,6 +46,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +61,7 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
       LoggerFactory.getLogger(H2CacheFactory.class);
 
   private final DefaultCacheFactory defaultFactory;
+  private final MmapCacheFactory mmapFactory;
   private final Config config;
   private final Path cacheDir;
   private final List<H2CacheImpl<?, ?>> caches;
@@ -60,20 +69,52 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   private final ExecutorService executor;
   private final ScheduledExecutorService cleanup;
   private final long h2CacheSize;
+  private final long flushInterval;
+  private final Timer1<String> flushLatency;
 
   @Inject
   H2CacheFactory(
       DefaultCacheFactory defaultCacheFactory,
+      MmapCacheFactory mmapCacheFactory,
       @GerritServerConfig Config cfg,
       SitePaths site,
-      DynamicMap<Cache<?, ?>> cacheMap) {
+      DynamicMap<Cache<?, ?>> cacheMap,
+      MetricMaker metrics) {
     defaultFactory = defaultCacheFactory;
+    mmapFactory = mmapCacheFactory;
     config = cfg;
     cacheDir = getCacheDir(site, cfg.getString("cache", null, "directory"));
     h2CacheSize = cfg.getLong("cache", null, "h2CacheSize", -1);
+    flushInterval = ConfigUtil.getTimeUnit(cfg, "cache", null,
+        "h2FlushInterval", 1000, TimeUnit.MILLISECONDS);
     caches = new LinkedList<>();
     this.cacheMap = cacheMap;
 
+    Field<String> F_NAME = Field.ofString("cache_name");
+    flushLatency = metrics.newTimer(
+        "caches/disk_flush_latency",
+        new Description("Latency of writing queued entries to disk")
+            .setCumulative()
+            .setUnit(Units.MILLISECONDS),
+        F_NAME);
+    final CallbackMetric1<String, Long> queued =
+        metrics.newCallbackMetric("caches/disk_write_queue", Long.class,
+            new Description("Entries waiting to be written to disk")
+                .setGauge()
+                .setUnit("entries"),
+            F_NAME);
+    metrics.newTrigger(queued, new Runnable() {
+      @Override
+      public void run() {
+        synchronized (caches) {
+          for (H2CacheImpl<?, ?> cache : caches) {
+            queued.set(cache.name(), (long) cache.pendingWrites());
+          }
+        }
+        queued.prune();
+      }
+    });
+
     if (cacheDir != null) {
       executor = Executors.newFixedThreadPool(
           1,
@@ -116,8 +157,16 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   @Override
   public void start() {
     if (executor != null) {
+      int threads = Math.min(caches.size(),
+          Runtime.getRuntime().availableProcessors());
+      ExecutorService open = Executors.newFixedThreadPool(
+          Math.max(threads, 1),
+          new ThreadFactoryBuilder()
+            .setNameFormat("DiskCache-Open-%d")
+            .setDaemon(true)
+            .build());
       for (final H2CacheImpl<?, ?> cache : caches) {
-        executor.execute(new Runnable() {
+        open.execute(new Runnable() {
           @Override
           public void run() {
             cache.start();
@@ -131,6 +180,26 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
           }
         }, 30, TimeUnit.SECONDS);
       }
+
+      if (flushInterval > 0) {
+        cleanup.scheduleWithFixedDelay(new Runnable() {
+          @Override
+          public void run() {
+            flushAll();
+          }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+      }
+      open.shutdown();
+    }
+  }
+
+  private void flushAll() {
+    List<H2CacheImpl<?, ?>> toFlush;
+    synchronized (caches) {
+      toFlush = new ArrayList<>(caches);
+    }
+    for (H2CacheImpl<?, ?> cache : toFlush) {
+      cache.flush();
     }
   }
 
@@ -165,6 +234,9 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   @SuppressWarnings({"unchecked"})
   @Override
   public <K, V> Cache<K, V> build(CacheBinding<K, V> def) {
+    if (mmapFactory.isEnabled(def.name())) {
+      return mmapFactory.build(def);
+    }
     long limit = config.getLong("cache", def.name(), "diskLimit", 128 << 20);
 
     if (cacheDir == null || limit <= 0) {
@@ -187,6 +259,9 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   public <K, V> LoadingCache<K, V> build(
       CacheBinding<K, V> def,
       CacheLoader<K, V> loader) {
+    if (mmapFactory.isEnabled(def.name())) {
+      return mmapFactory.build(def, loader);
+    }
     long limit = config.getLong("cache", def.name(), "diskLimit", 128 << 20);
 
     if (cacheDir == null || limit <= 0) {
@@ -201,12 +276,15 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
               executor, store, loader));
     H2CacheImpl<K, V> cache = new H2CacheImpl<>(
         executor, store, def.keyType(), mem);
-    caches.add(cache);
+    synchronized (caches) {
+      caches.add(cache);
+    }
     return cache;
   }
 
   @Override
   public void onStop(Plugin plugin) {
+    mmapFactory.onStop(plugin);
     synchronized (caches) {
       for (Map.Entry<String, Provider<Cache<?, ?>>> entry :
           cacheMap.byPlugin(plugin.getName()).entrySet()) {
@@ -230,7 +308,9 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
       // H2 CACHE_SIZE is always given in KB
       url.append(h2CacheSize / 1024);
     }
-    return new SqlStore<>(url.toString(), keyType, maxSize,
-        expireAfterWrite == null ? 0 : expireAfterWrite.longValue());
+    return new SqlStore<>(name, url.toString(), executor,
+        cacheDir.resolve(name + ".bloom"), keyType, maxSize,
+        expireAfterWrite == null ? 0 : expireAfterWrite.longValue(),
+        flushLatency);
   }
 }
@@ -19,11 +19,16 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Sets;
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnel;
 import com.google.common.hash.Funnels;
 import com.google.common.hash.PrimitiveSink;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.cache.PersistentCache;
 import com.google.inject.TypeLiteral;
 
@@ -31,10 +36,17 @@ import org.h2.jdbc.JdbcSQLException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InvalidClassException;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -43,14 +55,22 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -65,13 +85,25 @@ import java.util.concurrent.atomic.AtomicLong;
  * <p>
  * Cache stores and invalidations are performed on a background thread, hiding
  * the latency associated with serializing the key and value pairs and writing
- * them to the database log.
+ * them to the database log. Stores and access time updates are queued and
+ * written in JDBC batches, either periodically or once enough entries are
+ * pending, so reading an entry from the database never waits for a write.
  * <p>
  * A BloomFilter is used around the database to reduce the number of SELECTs
  * issued against the database for new cache items that have not been seen
  * before, a common operation for the PatchListCache. The BloomFilter is sized
  * when the cache starts to be 64,000 entries or double the number of items
- * currently in the database table.
+ * currently in the database table. It is saved next to the database when the
+ * cache is closed, and loaded again on the next start if the number of entries
+ * in the table did not change, instead of reading all keys from the table. A
+ * filter that holds more keys than it was sized for is built again instead,
+ * at the size for the current table.
+ * <p>
+ * The disk space used by the entries is tracked as entries are written and
+ * removed, so pruning only has to read the least recently accessed entries it
+ * removes, in batches, through an index on the access time. The tracked space
+ * is saved in the database when the cache is closed and read back on the next
+ * start; after a crash it is summed from the table again.
  * <p>
  * This cache does not export its items as a ConcurrentMap.
  *
@@ -186,6 +218,18 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
     store.open();
   }
 
+  void flush() {
+    store.flush();
+  }
+
+  String name() {
+    return store.name;
+  }
+
+  int pendingWrites() {
+    return store.pendingWrites();
+  }
+
   void stop() {
     for (Map.Entry<K, ValueHolder<V>> e : mem.asMap().entrySet()) {
       ValueHolder<V> h = e.getValue();
@@ -301,6 +345,11 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
       ps.setObject(col, value, Types.JAVA_OBJECT);
     }
 
+    /** @return space the key uses on disk, as by {@code OCTET_LENGTH(k)}. */
+    long sizeOf(K key) {
+      return 2L * serializedSize(key);
+    }
+
     Funnel<K> funnel() {
       return new Funnel<K>() {
         private static final long serialVersionUID = 1L;
@@ -344,6 +393,11 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
         ps.setString(col, value);
       }
 
+      @Override
+      long sizeOf(String key) {
+        return 2L * key.length();
+      }
+
       @SuppressWarnings("unchecked")
       @Override
       Funnel<String> funnel() {
@@ -353,23 +407,87 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
     };
   }
 
+  /** @return the Java serialization of the object, as read back by H2. */
+  private static byte[] serialize(Object o) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+      out.writeObject(o);
+    }
+    return buf.toByteArray();
+  }
+
+  /**
+   * @return {@code OCTET_LENGTH} of the bytes in an {@code OTHER} column, the
+   *     unit disk space is measured in; H2 counts two per byte.
+   */
+  private static long octetLength(byte[] b) {
+    return 2L * b.length;
+  }
+
+  /** @return length of the Java serialization of the object. */
+  private static long serializedSize(Object o) {
+    CountingOutputStream cnt =
+        new CountingOutputStream(ByteStreams.nullOutputStream());
+    try (ObjectOutputStream out = new ObjectOutputStream(cnt)) {
+      out.writeObject(o);
+    } catch (IOException e) {
+      return 0;
+    }
+    return cnt.getCount();
+  }
+
   static class SqlStore<K, V> {
+    /**
+     * Number of pending stores and access time updates that makes {@link #put}
+     * or {@link #getIfPresent} schedule a flush on the background executor.
+     */
+    static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * False positive probability above which a saved BloomFilter is built
+     * again from the table instead of being loaded.
+     */
+    static final double MAX_BLOOM_FILTER_FPP = 0.1;
+
+    /** Number of entries read per batch while pruning. */
+    static final int PRUNE_BATCH_SIZE = 1000;
+
+    private final String name;
     private final String url;
+    private final Executor executor;
     private final KeyType<K> keyType;
     private final long maxSize;
     private final long expireAfterWrite;
     private final BlockingQueue<SqlHandle> handles;
     private final AtomicLong hitCount = new AtomicLong();
     private final AtomicLong missCount = new AtomicLong();
+    private final Timer1<String> flushLatency;
+    private final ConcurrentMap<K, ValueHolder<V>> pendingPuts =
+        new ConcurrentHashMap<>();
+    private final Set<K> pendingTouches = Sets.newConcurrentHashSet();
+    /** Pending stores whose key may already be on disk. */
+    private final Set<K> pendingReplaces = Sets.newConcurrentHashSet();
+    private final Object flushLock = new Object();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    /** Bytes used by keys and values on disk, or -1 if not yet known. */
+    private final AtomicLong space = new AtomicLong(-1);
+    @Nullable private final Path bloomFilterFile;
     private volatile BloomFilter<K> bloomFilter;
+    /** Number of keys {@link #bloomFilter} was sized for. */
+    private volatile int bloomFilterCapacity;
     private int estimatedSize;
 
-    SqlStore(String jdbcUrl, TypeLiteral<K> keyType, long maxSize,
-        long expireAfterWrite) {
+    SqlStore(String name, String jdbcUrl, Executor executor,
+        @Nullable Path bloomFilterFile, TypeLiteral<K> keyType, long maxSize,
+        long expireAfterWrite, Timer1<String> flushLatency) {
+      this.name = name;
       this.url = jdbcUrl;
+      this.executor = executor;
+      this.bloomFilterFile = bloomFilterFile;
       this.keyType = KeyType.create(keyType);
       this.maxSize = maxSize;
       this.expireAfterWrite = expireAfterWrite;
+      this.flushLatency = flushLatency;
 
       int cores = Runtime.getRuntime().availableProcessors();
       int keep = Math.min(cores, 16);
@@ -380,9 +498,13 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
       if (bloomFilter == null) {
         bloomFilter = buildBloomFilter();
       }
+      loadSpace();
     }
 
     void close() {
+      flush();
+      saveBloomFilter();
+      saveSpace();
       SqlHandle h;
       while ((h = handles.poll()) != null) {
         h.close();
@@ -414,7 +536,12 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
             }
           }
 
-          BloomFilter<K> b = newBloomFilter();
+          BloomFilter<K> b = loadBloomFilter(estimatedSize);
+          if (b != null) {
+            return b;
+          }
+
+          b = newBloomFilter();
           try (ResultSet r = s.executeQuery("SELECT k FROM data")) {
             while (r.next()) {
               b.put(keyType.get(r, 1));
@@ -440,7 +567,137 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
       }
     }
 
+    /**
+     * Read the BloomFilter saved by {@link #saveBloomFilter()}.
+     * <p>
+     * The file is deleted once read, so a filter is never used again after a
+     * crash that may have left entries out of it. A filter holding more keys
+     * than it was sized for is not used either, so it is resized by building
+     * it again.
+     *
+     * @param rows number of entries currently in the table.
+     * @return the filter, or null if there is none matching the table.
+     */
+    @Nullable
+    private BloomFilter<K> loadBloomFilter(int rows) {
+      if (bloomFilterFile == null) {
+        return null;
+      }
+      try (InputStream in = Files.newInputStream(bloomFilterFile)) {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != rows) {
+          return null;
+        }
+        int capacity = data.readInt();
+        BloomFilter<K> b = BloomFilter.readFrom(data, keyType.funnel());
+        if (capacity < rows || b.expectedFpp() > MAX_BLOOM_FILTER_FPP) {
+          return null;
+        }
+        bloomFilterCapacity = capacity;
+        return b;
+      } catch (NoSuchFileException e) {
+        return null;
+      } catch (IOException | RuntimeException e) {
+        log.warn("Cannot read BloomFilter for " + url + ": " + e.getMessage());
+        return null;
+      } finally {
+        deleteBloomFilter();
+      }
+    }
+
+    private void saveBloomFilter() {
+      BloomFilter<K> b = bloomFilter;
+      if (bloomFilterFile == null || b == null) {
+        return;
+      }
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        int rows;
+        try (Statement s = c.conn.createStatement();
+            ResultSet r = s.executeQuery("SELECT COUNT(*) FROM data")) {
+          rows = r.next() ? r.getInt(1) : 0;
+        }
+        try (OutputStream out = Files.newOutputStream(bloomFilterFile)) {
+          DataOutputStream data = new DataOutputStream(out);
+          data.writeInt(rows);
+          data.writeInt(bloomFilterCapacity);
+          b.writeTo(data);
+          data.flush();
+        }
+      } catch (SQLException | IOException e) {
+        log.warn("Cannot save BloomFilter for " + url + ": " + e.getMessage());
+        c = close(c);
+        deleteBloomFilter();
+      } finally {
+        release(c);
+      }
+    }
+
+    /**
+     * Read the space saved by {@link #saveSpace()}.
+     * <p>
+     * Must run before any entries are written. Like the BloomFilter, the saved
+     * value is deleted once read, so it is never used after a crash.
+     */
+    private void loadSpace() {
+      if (space.get() >= 0) {
+        return;
+      }
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        try (Statement s = c.conn.createStatement()) {
+          try (ResultSet r = s.executeQuery("SELECT v FROM space")) {
+            if (r.next()) {
+              space.compareAndSet(-1, r.getLong(1));
+            }
+          }
+          s.executeUpdate("DELETE FROM space");
+        }
+      } catch (SQLException e) {
+        log.warn("Cannot read disk space of " + url + ": " + e.getMessage());
+        c = close(c);
+      } finally {
+        release(c);
+      }
+    }
+
+    private void saveSpace() {
+      long used = space.get();
+      if (used < 0) {
+        return;
+      }
+      SqlHandle c = null;
+      try {
+        c = acquire();
+        try (Statement s = c.conn.createStatement()) {
+          s.executeUpdate("DELETE FROM space");
+          s.executeUpdate("INSERT INTO space VALUES(" + used + ")");
+        }
+      } catch (SQLException e) {
+        log.warn("Cannot save disk space of " + url + ": " + e.getMessage());
+        c = close(c);
+      } finally {
+        release(c);
+      }
+    }
+
+    private void deleteBloomFilter() {
+      try {
+        Files.deleteIfExists(bloomFilterFile);
+      } catch (IOException e) {
+        log.warn("Cannot delete " + bloomFilterFile, e);
+      }
+    }
+
     ValueHolder<V> getIfPresent(K key) {
+      ValueHolder<V> pending = pendingPuts.get(key);
+      if (pending != null) {
+        hitCount.incrementAndGet();
+        return pending;
+      }
+
       SqlHandle c = null;
       try {
         c = acquire();
@@ -466,7 +723,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
           ValueHolder<V> h = new ValueHolder<>(val);
           h.clean = true;
           hitCount.incrementAndGet();
-          touch(c, key);
+          pendingTouches.add(key);
           return h;
         } finally {
           c.get.clearParameters();
@@ -477,6 +734,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
         return null;
       } finally {
         release(c);
+        flushIfFull();
       }
     }
 
@@ -507,45 +765,211 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
       }
 
       BloomFilter<K> b = bloomFilter;
+      if (b == null || b.mightContain(key)) {
+        pendingReplaces.add(key);
+      }
       if (b != null) {
         b.put(key);
         bloomFilter = b;
       }
 
-      SqlHandle c = null;
+      pendingPuts.put(key, holder);
+      pendingTouches.remove(key);
+      flushIfFull();
+    }
+
+    private void flushIfFull() {
+      if (pendingWrites() < MAX_BATCH_SIZE
+          || !flushScheduled.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            flushScheduled.set(false);
+            flush();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // Shutting down; pending writes are flushed by close().
+        flushScheduled.set(false);
+      }
+    }
+
+    int pendingWrites() {
+      return pendingPuts.size() + pendingTouches.size();
+    }
+
+    /** Write all pending stores and access time updates to the database. */
+    void flush() {
+      if (pendingPuts.isEmpty() && pendingTouches.isEmpty()) {
+        return;
+      }
+
+      synchronized (flushLock) {
+        try (Timer1.Context ctx = flushLatency.start(name)) {
+          SqlHandle c = null;
+          try {
+            c = acquire();
+            flushPuts(c);
+            flushTouches(c);
+          } catch (SQLException e) {
+            log.warn("Cannot flush cache " + url, e);
+            c = close(c);
+          } finally {
+            release(c);
+          }
+        }
+      }
+    }
+
+    private void flushPuts(SqlHandle c) throws SQLException {
+      if (pendingPuts.isEmpty()) {
+        return;
+      }
+
+      // Entries stay visible to readers until they have been written.
+      Map<K, ValueHolder<V>> batch = new HashMap<>(pendingPuts);
       try {
-        c = acquire();
         if (c.put == null) {
           c.put = c.conn.prepareStatement("MERGE INTO data VALUES(?,?,?,?)");
         }
+        // Values are serialized here rather than by H2, so their size is
+        // known. Only keys the BloomFilter does not rule out can replace a
+        // row whose size has to be read.
+        Map<K, byte[]> values = new HashMap<>();
+        Set<K> replacing = new HashSet<>();
+        long added = 0;
+        for (Map.Entry<K, ValueHolder<V>> e : batch.entrySet()) {
+          byte[] v;
+          try {
+            v = serialize(e.getValue().value);
+          } catch (IOException err) {
+            log.warn("Cannot serialize entry of " + url, err);
+            continue;
+          }
+          values.put(e.getKey(), v);
+          if (pendingReplaces.remove(e.getKey())) {
+            replacing.add(e.getKey());
+          }
+          added += keyType.sizeOf(e.getKey()) + octetLength(v);
+        }
+        long replaced = sizeOf(c, replacing);
+        Timestamp now = TimeUtil.nowTs();
         try {
-          keyType.set(c.put, 1, key);
-          c.put.setObject(2, holder.value, Types.JAVA_OBJECT);
-          c.put.setTimestamp(3, new Timestamp(holder.created));
-          c.put.setTimestamp(4, TimeUtil.nowTs());
-          c.put.executeUpdate();
-          holder.clean = true;
+          for (Map.Entry<K, byte[]> e : values.entrySet()) {
+            ValueHolder<V> h = batch.get(e.getKey());
+            keyType.set(c.put, 1, e.getKey());
+            c.put.setBytes(2, e.getValue());
+            c.put.setTimestamp(3, new Timestamp(h.created));
+            c.put.setTimestamp(4, now);
+            c.put.addBatch();
+          }
+          c.put.executeBatch();
+          for (K key : values.keySet()) {
+            batch.get(key).clean = true;
+          }
         } finally {
+          c.put.clearBatch();
           c.put.clearParameters();
         }
-      } catch (SQLException e) {
-        log.warn("Cannot put into cache " + url, e);
-        c = close(c);
+        addSpace(added - replaced);
       } finally {
-        release(c);
+        // Entries that failed to write are dropped, not retried.
+        for (Map.Entry<K, ValueHolder<V>> e : batch.entrySet()) {
+          pendingPuts.remove(e.getKey(), e.getValue());
+        }
       }
     }
 
-    void invalidate(K key) {
-      SqlHandle c = null;
+    /** Total size of the given entries on disk, using the primary key. */
+    private long sizeOf(SqlHandle c, Iterable<K> keys) throws SQLException {
+      if (c.size == null) {
+        c.size = c.conn.prepareStatement(
+            "SELECT OCTET_LENGTH(k) + OCTET_LENGTH(v) FROM data WHERE k=?");
+      }
+      long size = 0;
       try {
-        c = acquire();
-        invalidate(c, key);
-      } catch (SQLException e) {
-        log.warn("Cannot invalidate cache " + url, e);
-        c = close(c);
+        for (K key : keys) {
+          keyType.set(c.size, 1, key);
+          try (ResultSet r = c.size.executeQuery()) {
+            if (r.next()) {
+              size += r.getLong(1);
+            }
+          }
+        }
       } finally {
-        release(c);
+        c.size.clearParameters();
+      }
+      return size;
+    }
+
+    private void addSpace(long delta) {
+      long s;
+      do {
+        s = space.get();
+      } while (s >= 0 && !space.compareAndSet(s, s + delta));
+    }
+
+    /** Get the bytes used on disk, summing all entries on first use. */
+    private long space(SqlHandle c) throws SQLException {
+      long s = space.get();
+      if (s < 0) {
+        synchronized (flushLock) {
+          try (Statement st = c.conn.createStatement();
+              ResultSet r = st.executeQuery("SELECT"
+                  + " SUM(OCTET_LENGTH(k) + OCTET_LENGTH(v))"
+                  + " FROM data")) {
+            s = r.next() ? r.getLong(1) : 0;
+          }
+          space.set(s);
+        }
+      }
+      return s;
+    }
+
+    private void flushTouches(SqlHandle c) throws SQLException {
+      if (pendingTouches.isEmpty()) {
+        return;
+      }
+
+      Set<K> batch = new HashSet<>(pendingTouches);
+      pendingTouches.removeAll(batch);
+      if (c.touch == null) {
+        c.touch = c.conn.prepareStatement("UPDATE data SET accessed=? WHERE k=?");
+      }
+      Timestamp now = TimeUtil.nowTs();
+      try {
+        for (K key : batch) {
+          c.touch.setTimestamp(1, now);
+          keyType.set(c.touch, 2, key);
+          c.touch.addBatch();
+        }
+        c.touch.executeBatch();
+      } finally {
+        c.touch.clearBatch();
+        c.touch.clearParameters();
+      }
+    }
+
+    void invalidate(K key) {
+      synchronized (flushLock) {
+        pendingPuts.remove(key);
+        pendingTouches.remove(key);
+        pendingReplaces.remove(key);
+        SqlHandle c = null;
+        try {
+          c = acquire();
+          long size = sizeOf(c, Collections.singleton(key));
+          invalidate(c, key);
+          addSpace(-size);
+        } catch (SQLException e) {
+          log.warn("Cannot invalidate cache " + url, e);
+          c = close(c);
+        } finally {
+          release(c);
+        }
       }
     }
 
@@ -562,59 +986,90 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
     }
 
     void invalidateAll() {
+      synchronized (flushLock) {
+        pendingPuts.clear();
+        pendingTouches.clear();
+        pendingReplaces.clear();
+        SqlHandle c = null;
+        try {
+          c = acquire();
+          try (Statement s = c.conn.createStatement()) {
+            s.executeUpdate("DELETE FROM data");
+          }
+          space.set(0);
+          bloomFilter = newBloomFilter();
+        } catch (SQLException e) {
+          log.warn("Cannot invalidate cache " + url, e);
+          c = close(c);
+        } finally {
+          release(c);
+        }
+      }
+    }
+
+    void prune(Cache<K, ?> mem) {
       SqlHandle c = null;
       try {
         c = acquire();
-        try (Statement s = c.conn.createStatement()) {
-          s.executeUpdate("DELETE FROM data");
+        flush();
+        Set<K> kept = new HashSet<>();
+        boolean more = true;
+        while (more && maxSize < space(c)) {
+          more = pruneBatch(c, mem, kept);
         }
-        bloomFilter = newBloomFilter();
       } catch (SQLException e) {
-        log.warn("Cannot invalidate cache " + url, e);
+        log.warn("Cannot prune cache " + url, e);
         c = close(c);
       } finally {
         release(c);
       }
     }
 
-    void prune(Cache<K, ?> mem) {
-      SqlHandle c = null;
-      try {
-        c = acquire();
-        try (Statement s = c.conn.createStatement()) {
-          long used = 0;
-          try (ResultSet r = s.executeQuery("SELECT"
-              + " SUM(OCTET_LENGTH(k) + OCTET_LENGTH(v))"
-              + " FROM data")) {
-            used = r.next() ? r.getLong(1) : 0;
-          }
-          if (used <= maxSize) {
-            return;
-          }
-
-          try (ResultSet r = s.executeQuery("SELECT"
-              + " k"
-              + ",OCTET_LENGTH(k) + OCTET_LENGTH(v)"
-              + ",created"
-              + " FROM data"
-              + " ORDER BY accessed")) {
-            while (maxSize < used && r.next()) {
-              K key = keyType.get(r, 1);
-              Timestamp created = r.getTimestamp(3);
-              if (mem.getIfPresent(key) != null && !expired(created)) {
-                touch(c, key);
-              } else {
-                invalidate(c, key);
-                used -= r.getLong(2);
+    /**
+     * Remove one batch of the least recently accessed entries.
+     * <p>
+     * Entries still held in memory are touched instead, moving them to the end
+     * of the access order. Seeing such an entry again means all entries have
+     * been considered.
+     *
+     * @return true if pruning should continue with another batch.
+     */
+    private boolean pruneBatch(SqlHandle c, Cache<K, ?> mem, Set<K> kept)
+        throws SQLException {
+      if (c.prune == null) {
+        c.prune = c.conn.prepareStatement("SELECT"
+            + " k"
+            + ",OCTET_LENGTH(k) + OCTET_LENGTH(v)"
+            + ",created"
+            + " FROM data"
+            + " ORDER BY accessed"
+            + " LIMIT ?");
+      }
+      long used = space(c);
+      c.prune.setInt(1, PRUNE_BATCH_SIZE);
+      synchronized (flushLock) {
+        int rows = 0;
+        try (ResultSet r = c.prune.executeQuery()) {
+          while (maxSize < used && r.next()) {
+            rows++;
+            K key = keyType.get(r, 1);
+            Timestamp created = r.getTimestamp(3);
+            if (mem.getIfPresent(key) != null && !expired(created)) {
+              if (!kept.add(key)) {
+                return false;
               }
+              touch(c, key);
+            } else {
+              invalidate(c, key);
+              long size = r.getLong(2);
+              addSpace(-size);
+              used -= size;
             }
           }
+        } finally {
+          c.prune.clearParameters();
         }
-      } catch (SQLException e) {
-        log.warn("Cannot prune cache " + url, e);
-        c = close(c);
-      } finally {
-        release(c);
+        return rows == PRUNE_BATCH_SIZE;
       }
     }
 
@@ -625,15 +1080,12 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
       try {
         c = acquire();
         try (Statement s = c.conn.createStatement();
-            ResultSet r = s.executeQuery("SELECT"
-                + " COUNT(*)"
-                + ",SUM(OCTET_LENGTH(k) + OCTET_LENGTH(v))"
-                + " FROM data")) {
+            ResultSet r = s.executeQuery("SELECT COUNT(*) FROM data")) {
           if (r.next()) {
             size = r.getLong(1);
-            space = r.getLong(2);
           }
         }
+        space = space(c);
       } catch (SQLException e) {
         log.warn("Cannot get DiskStats for " + url, e);
         c = close(c);
@@ -663,6 +1115,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
 
     private BloomFilter<K> newBloomFilter() {
       int cnt = Math.max(64 * 1024, 2 * estimatedSize);
+      bloomFilterCapacity = cnt;
       return BloomFilter.create(keyType.funnel(), cnt);
     }
   }
@@ -674,6 +1127,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
     PreparedStatement put;
     PreparedStatement touch;
     PreparedStatement invalidate;
+    PreparedStatement size;
+    PreparedStatement prune;
 
     SqlHandle(String url, KeyType<?> type) throws SQLException {
       this.url = url;
@@ -685,6 +1140,10 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
           + ",created TIMESTAMP NOT NULL"
           + ",accessed TIMESTAMP NOT NULL"
           + ")");
+        stmt.execute("CREATE INDEX IF NOT EXISTS data_accessed"
+          + " ON data(accessed)");
+        stmt.execute("CREATE TABLE IF NOT EXISTS space"
+          + "(v BIGINT NOT NULL)");
       }
     }
 
@@ -693,6 +1152,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
       put = closeStatement(put);
       touch = closeStatement(touch);
       invalidate = closeStatement(invalidate);
+      size = closeStatement(size);
+      prune = closeStatement(prune);
 
       if (conn != null) {
         try {
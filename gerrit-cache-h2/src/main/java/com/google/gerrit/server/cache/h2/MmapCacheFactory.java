@@ -0,0 +1,188 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.cache.CacheBinding;
+import com.google.gerrit.server.cache.PersistentCacheFactory;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.h2.MmapCacheImpl.SegmentStore;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.plugins.Plugin;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent caches stored in memory-mapped segment files.
+ * <p>
+ * Used instead of H2 for caches configured with
+ * {@code cache.<name>.backend = mmap}, see {@link H2CacheFactory}.
+ */
+@Singleton
+class MmapCacheFactory implements PersistentCacheFactory, LifecycleListener {
+  private static final Logger log =
+      LoggerFactory.getLogger(MmapCacheFactory.class);
+
+  static final String BACKEND = "mmap";
+
+  private final DefaultCacheFactory defaultFactory;
+  private final Config config;
+  private final Path cacheDir;
+  private final List<MmapCacheImpl<?, ?>> caches;
+  private final DynamicMap<Cache<?, ?>> cacheMap;
+  private final ExecutorService executor;
+
+  @Inject
+  MmapCacheFactory(
+      DefaultCacheFactory defaultCacheFactory,
+      @GerritServerConfig Config cfg,
+      SitePaths site,
+      DynamicMap<Cache<?, ?>> cacheMap) {
+    defaultFactory = defaultCacheFactory;
+    config = cfg;
+    String dir = cfg.getString("cache", null, "directory");
+    cacheDir = dir != null ? site.resolve(dir) : null;
+    caches = new LinkedList<>();
+    this.cacheMap = cacheMap;
+    executor = Executors.newFixedThreadPool(
+        1,
+        new ThreadFactoryBuilder()
+          .setNameFormat("MmapCache-Store-%d")
+          .build());
+  }
+
+  boolean isEnabled(String name) {
+    return BACKEND.equalsIgnoreCase(config.getString("cache", name, "backend"));
+  }
+
+  @Override
+  public void start() {
+    for (final MmapCacheImpl<?, ?> cache : caches) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          cache.start();
+        }
+      });
+    }
+  }
+
+  @Override
+  public void stop() {
+    try {
+      List<Runnable> pending = executor.shutdownNow();
+      if (executor.awaitTermination(15, TimeUnit.MINUTES)) {
+        if (pending != null && !pending.isEmpty()) {
+          log.info(String.format("Finishing %d mmap cache updates",
+              pending.size()));
+          for (Runnable update : pending) {
+            update.run();
+          }
+        }
+      } else {
+        log.info("Timeout waiting for mmap cache to close");
+      }
+    } catch (InterruptedException e) {
+      log.warn("Interrupted waiting for mmap cache to shutdown");
+    }
+    synchronized (caches) {
+      for (MmapCacheImpl<?, ?> cache : caches) {
+        cache.stop();
+      }
+    }
+  }
+
+  @SuppressWarnings({"unchecked"})
+  @Override
+  public <K, V> Cache<K, V> build(CacheBinding<K, V> def) {
+    long limit = config.getLong("cache", def.name(), "diskLimit", 128 << 20);
+
+    if (cacheDir == null || limit <= 0) {
+      return defaultFactory.build(def);
+    }
+
+    SegmentStore<K, V> store = newStore(def, limit);
+    MmapCacheImpl<K, V> cache = new MmapCacheImpl<>(
+        executor, store, def.keyType(),
+        (Cache<K, ValueHolder<V>>) defaultFactory.create(def, true).build());
+    synchronized (caches) {
+      caches.add(cache);
+    }
+    return cache;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <K, V> LoadingCache<K, V> build(
+      CacheBinding<K, V> def,
+      CacheLoader<K, V> loader) {
+    long limit = config.getLong("cache", def.name(), "diskLimit", 128 << 20);
+
+    if (cacheDir == null || limit <= 0) {
+      return defaultFactory.build(def, loader);
+    }
+
+    SegmentStore<K, V> store = newStore(def, limit);
+    Cache<K, ValueHolder<V>> mem = (Cache<K, ValueHolder<V>>)
+        defaultFactory.create(def, true)
+        .build((CacheLoader<K, V>) new MmapCacheImpl.Loader<>(
+              executor, store, loader));
+    MmapCacheImpl<K, V> cache = new MmapCacheImpl<>(
+        executor, store, def.keyType(), mem);
+    synchronized (caches) {
+      caches.add(cache);
+    }
+    return cache;
+  }
+
+  @Override
+  public void onStop(Plugin plugin) {
+    synchronized (caches) {
+      for (Map.Entry<String, Provider<Cache<?, ?>>> entry :
+          cacheMap.byPlugin(plugin.getName()).entrySet()) {
+        Cache<?, ?> cache = entry.getValue().get();
+        if (caches.remove(cache)) {
+          ((MmapCacheImpl<?, ?>) cache).stop();
+        }
+      }
+    }
+  }
+
+  private <K, V> SegmentStore<K, V> newStore(CacheBinding<K, V> def,
+      long maxSize) {
+    Long expireAfterWrite = def.expireAfterWrite(TimeUnit.SECONDS);
+    return new SegmentStore<>(cacheDir.resolve(def.name() + ".mmap"), maxSize,
+        expireAfterWrite == null ? 0 : expireAfterWrite.longValue());
+  }
+}
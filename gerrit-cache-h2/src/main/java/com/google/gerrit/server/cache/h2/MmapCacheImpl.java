@@ -0,0 +1,644 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Sets;
+import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.server.cache.PersistentCache;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.inject.TypeLiteral;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hybrid in-memory and memory-mapped file backed cache.
+ * <p>
+ * Works like {@link H2CacheImpl}, but stores serialized entries in
+ * append-only segment files that are mapped into memory. An in-memory index
+ * from key to record location is rebuilt from the segments when the cache
+ * starts, so a lookup is a hash table probe followed by deserializing the
+ * value directly from the mapped segment, without JDBC or SQL overhead.
+ * <p>
+ * Invalidated and replaced entries stay in their segment, but are marked as
+ * dead in place so they are not indexed again when the cache restarts. Once
+ * the segments exceed the disk limit of the cache the least recently used
+ * segment is deleted as a whole, together with all entries it contains. The
+ * last access time of a segment is saved as the modification time of its
+ * file when the cache is closed, so the order survives restarts.
+ *
+ * @see MmapCacheFactory
+ */
+public class MmapCacheImpl<K, V> extends AbstractLoadingCache<K, V> implements
+    PersistentCache {
+  private static final Logger log =
+      LoggerFactory.getLogger(MmapCacheImpl.class);
+
+  private final Executor executor;
+  private final SegmentStore<K, V> store;
+  private final TypeLiteral<K> keyType;
+  private final Cache<K, ValueHolder<V>> mem;
+
+  MmapCacheImpl(Executor executor,
+      SegmentStore<K, V> store,
+      TypeLiteral<K> keyType,
+      Cache<K, ValueHolder<V>> mem) {
+    this.executor = executor;
+    this.store = store;
+    this.keyType = keyType;
+    this.mem = mem;
+  }
+
+  @Override
+  public V getIfPresent(Object objKey) {
+    if (!keyType.getRawType().isInstance(objKey)) {
+      return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    K key = (K) objKey;
+
+    ValueHolder<V> h = mem.getIfPresent(key);
+    if (h != null) {
+      return h.value;
+    }
+
+    h = store.getIfPresent(key);
+    if (h != null) {
+      mem.put(key, h);
+      return h.value;
+    }
+    return null;
+  }
+
+  @Override
+  public V get(K key) throws ExecutionException {
+    if (mem instanceof LoadingCache) {
+      return ((LoadingCache<K, ValueHolder<V>>) mem).get(key).value;
+    }
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public V get(K key, Callable<? extends V> valueLoader)
+      throws ExecutionException {
+    return mem.get(key, new LoadingCallable(key, valueLoader)).value;
+  }
+
+  @Override
+  public void put(final K key, V val) {
+    final ValueHolder<V> h = new ValueHolder<>(val);
+    h.created = TimeUtil.nowMs();
+    mem.put(key, h);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        store.put(key, h);
+      }
+    });
+  }
+
+  @Override
+  public void invalidate(Object key) {
+    if (keyType.getRawType().isInstance(key)) {
+      store.invalidate(key);
+    }
+    mem.invalidate(key);
+  }
+
+  @Override
+  public void invalidateAll() {
+    store.invalidateAll();
+    mem.invalidateAll();
+  }
+
+  @Override
+  public long size() {
+    return mem.size();
+  }
+
+  @Override
+  public CacheStats stats() {
+    return mem.stats();
+  }
+
+  @Override
+  public DiskStats diskStats() {
+    return store.diskStats();
+  }
+
+  void start() {
+    store.open();
+  }
+
+  void stop() {
+    for (Map.Entry<K, ValueHolder<V>> e : mem.asMap().entrySet()) {
+      ValueHolder<V> h = e.getValue();
+      if (!h.clean) {
+        store.put(e.getKey(), h);
+      }
+    }
+    store.close();
+  }
+
+  static class Loader<K, V> extends CacheLoader<K, ValueHolder<V>> {
+    private final Executor executor;
+    private final SegmentStore<K, V> store;
+    private final CacheLoader<K, V> loader;
+
+    Loader(Executor executor, SegmentStore<K, V> store,
+        CacheLoader<K, V> loader) {
+      this.executor = executor;
+      this.store = store;
+      this.loader = loader;
+    }
+
+    @Override
+    public ValueHolder<V> load(final K key) throws Exception {
+      ValueHolder<V> h = store.getIfPresent(key);
+      if (h != null) {
+        return h;
+      }
+
+      final ValueHolder<V> n = new ValueHolder<>(loader.load(key));
+      n.created = TimeUtil.nowMs();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          store.put(key, n);
+        }
+      });
+      return n;
+    }
+  }
+
+  private class LoadingCallable implements Callable<ValueHolder<V>> {
+    private final K key;
+    private final Callable<? extends V> loader;
+
+    LoadingCallable(K key, Callable<? extends V> loader) {
+      this.key = key;
+      this.loader = loader;
+    }
+
+    @Override
+    public ValueHolder<V> call() throws Exception {
+      ValueHolder<V> h = store.getIfPresent(key);
+      if (h != null) {
+        return h;
+      }
+
+      final ValueHolder<V> n = new ValueHolder<V>(loader.call());
+      n.created = TimeUtil.nowMs();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          store.put(key, n);
+        }
+      });
+      return n;
+    }
+  }
+
+  /** Location of a record within a segment. */
+  private static class Location {
+    final Segment segment;
+    final int offset;
+    final int keyLength;
+    final int valueLength;
+    final long created;
+
+    Location(Segment segment, int offset, int keyLength, int valueLength,
+        long created) {
+      this.segment = segment;
+      this.offset = offset;
+      this.keyLength = keyLength;
+      this.valueLength = valueLength;
+      this.created = created;
+    }
+
+    int valueOffset() {
+      return offset + Segment.HEADER_SIZE + keyLength;
+    }
+  }
+
+  /**
+   * Append-only file mapped into memory.
+   * <p>
+   * Each record is a header of key length, value length and creation time,
+   * followed by the serialized key and value. The lengths are written last,
+   * so a record that was only partially written before a crash reads as the
+   * zero filled end of the segment. The value length of a dead record is
+   * negated.
+   */
+  private static class Segment {
+    static final int HEADER_SIZE = 4 + 4 + 8;
+
+    final int id;
+    final Path path;
+    final MappedByteBuffer buf;
+    /** Keys indexed to this segment; may include keys moved elsewhere. */
+    final Set<Object> keys = Sets.newConcurrentHashSet();
+    volatile int used;
+    volatile long accessed;
+
+    Segment(int id, Path path, int size, long accessed) throws IOException {
+      this.id = id;
+      this.path = path;
+      try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+      this.accessed = accessed;
+    }
+
+    int capacity() {
+      return buf.capacity();
+    }
+
+    /** Append a record; returns its offset, or -1 if it does not fit. */
+    synchronized int append(byte[] key, byte[] value, long created) {
+      int len = HEADER_SIZE + key.length + value.length;
+      if (capacity() - used < len + 8) {
+        return -1;
+      }
+      int offset = used;
+      ByteBuffer b = buf.duplicate();
+      b.position(offset + 8);
+      b.putLong(created);
+      b.put(key);
+      b.put(value);
+      b.putInt(offset + 4, value.length);
+      b.putInt(offset, key.length);
+      used = offset + len;
+      return offset;
+    }
+
+    /** Mark the record at the location as invalidated or replaced. */
+    synchronized void kill(Location loc) {
+      buf.putInt(loc.offset + 4, -loc.valueLength);
+    }
+
+    void touch() {
+      accessed = TimeUtil.nowMs();
+    }
+
+    InputStream open(int offset, int length) {
+      ByteBuffer b = buf.duplicate();
+      b.position(offset);
+      b.limit(offset + length);
+      return new ByteBufferInputStream(b.slice());
+    }
+
+    /** Save the access time as modification time, read back by load. */
+    void saveAccessTime() {
+      try {
+        Files.setLastModifiedTime(path, FileTime.fromMillis(accessed));
+      } catch (IOException e) {
+        log.warn("Cannot save access time of cache segment " + path, e);
+      }
+    }
+
+    void delete() {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        log.warn("Cannot delete cache segment " + path, e);
+      }
+    }
+  }
+
+  static class SegmentStore<K, V> {
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long maxSize;
+    private final long expireAfterWrite;
+    private final ConcurrentMap<Object, Location> index =
+        new ConcurrentHashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private Segment active;
+    /** Total capacity of all segments. */
+    private long space;
+
+    SegmentStore(Path dir, long maxSize, long expireAfterWrite) {
+      this.dir = dir;
+      this.maxSize = maxSize;
+      this.expireAfterWrite = expireAfterWrite;
+      this.segmentSize =
+          (int) Math.max(1 << 20, Math.min(maxSize / 8, Integer.MAX_VALUE));
+    }
+
+    synchronized void open() {
+      if (active != null) {
+        return;
+      }
+      try {
+        Files.createDirectories(dir);
+        // Load in order of writing, so the last record of a key wins if a put
+        // was interrupted before the record it replaced was marked dead.
+        TreeMap<Integer, Path> paths = new TreeMap<>();
+        try (DirectoryStream<Path> ds =
+            Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+          for (Path p : ds) {
+            String n = p.getFileName().toString();
+            paths.put(Integer.parseInt(n.substring(0, n.length() - 4)), p);
+          }
+        }
+        for (Map.Entry<Integer, Path> e : paths.entrySet()) {
+          segments.put(e.getKey(), load(e.getKey(), e.getValue()));
+        }
+        if (segments.isEmpty()) {
+          roll();
+        } else {
+          active = segments.lastEntry().getValue();
+        }
+      } catch (IOException | RuntimeException e) {
+        log.warn("Cannot open cache " + dir + ", cache is flushed", e);
+        invalidateAll();
+      }
+    }
+
+    private Segment load(int id, Path p) throws IOException {
+      Segment s = new Segment(id, p, (int) Math.max(Files.size(p), 1),
+          Files.getLastModifiedTime(p).toMillis());
+      space += s.capacity();
+      ByteBuffer b = s.buf.duplicate();
+      int pos = 0;
+      while (pos + Segment.HEADER_SIZE <= b.capacity()) {
+        int keyLength = b.getInt(pos);
+        int valueLength = b.getInt(pos + 4);
+        if (keyLength <= 0 || valueLength == 0) {
+          break;
+        } else if (valueLength < 0) {
+          pos += Segment.HEADER_SIZE + keyLength - valueLength;
+          continue;
+        }
+        long created = b.getLong(pos + 8);
+        try {
+          Object key = deserialize(s.open(pos + Segment.HEADER_SIZE,
+              keyLength));
+          index(key, new Location(s, pos, keyLength, valueLength, created));
+        } catch (IOException | ClassNotFoundException e) {
+          // Entry of an incompatible class, skip it.
+        }
+        pos += Segment.HEADER_SIZE + keyLength + valueLength;
+      }
+      s.used = pos;
+      return s;
+    }
+
+    private void roll() throws IOException {
+      int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+      Segment s = new Segment(id,
+          dir.resolve(String.format("%08d%s", id, SUFFIX)), segmentSize,
+          TimeUtil.nowMs());
+      segments.put(id, s);
+      space += s.capacity();
+      active = s;
+    }
+
+    /**
+     * Point the index at a new location of the key; the caller must hold the
+     * lock of this store.
+     *
+     * @return the previous location of the key, or null.
+     */
+    private Location index(Object key, Location loc) {
+      Location old = index.put(key, loc);
+      loc.segment.keys.add(key);
+      if (old != null && old.segment != loc.segment) {
+        old.segment.keys.remove(key);
+      }
+      return old;
+    }
+
+    ValueHolder<V> getIfPresent(K key) {
+      Location loc = index.get(key);
+      if (loc == null) {
+        missCount.incrementAndGet();
+        return null;
+      }
+      if (expired(loc.created)) {
+        index.remove(key, loc);
+        missCount.incrementAndGet();
+        return null;
+      }
+
+      try {
+        @SuppressWarnings("unchecked")
+        V val = (V) deserialize(
+            loc.segment.open(loc.valueOffset(), loc.valueLength));
+        ValueHolder<V> h = new ValueHolder<>(val);
+        h.created = loc.created;
+        h.clean = true;
+        loc.segment.touch();
+        hitCount.incrementAndGet();
+        return h;
+      } catch (IOException | ClassNotFoundException e) {
+        log.warn("Cannot read cache " + dir + " for " + key, e);
+        index.remove(key, loc);
+        missCount.incrementAndGet();
+        return null;
+      }
+    }
+
+    private boolean expired(long created) {
+      if (expireAfterWrite == 0) {
+        return false;
+      }
+      long age = TimeUtil.nowMs() - created;
+      return 1000 * expireAfterWrite < age;
+    }
+
+    void put(K key, ValueHolder<V> holder) {
+      if (holder.clean) {
+        return;
+      }
+
+      byte[] k;
+      byte[] v;
+      try {
+        k = serialize(key);
+        v = serialize(holder.value);
+      } catch (IOException e) {
+        log.warn("Cannot serialize entry for cache " + dir, e);
+        return;
+      }
+      if (Segment.HEADER_SIZE + k.length + v.length + 8 > segmentSize) {
+        return;
+      }
+
+      synchronized (this) {
+        if (active == null) {
+          return;
+        }
+        try {
+          int offset = active.append(k, v, holder.created);
+          if (offset < 0) {
+            roll();
+            evict();
+            offset = active.append(k, v, holder.created);
+          }
+          Location old = index(key,
+              new Location(active, offset, k.length, v.length, holder.created));
+          if (old != null) {
+            old.segment.kill(old);
+          }
+          holder.clean = true;
+        } catch (IOException e) {
+          log.warn("Cannot put into cache " + dir, e);
+        }
+      }
+    }
+
+    /** Delete least recently used segments until the cache fits its limit. */
+    private void evict() {
+      while (segments.size() > 1 && maxSize < space) {
+        Segment lru = null;
+        for (Segment s : segments.values()) {
+          if (s != active && (lru == null || s.accessed < lru.accessed)) {
+            lru = s;
+          }
+        }
+        segments.remove(lru.id);
+        space -= lru.capacity();
+        for (Object key : lru.keys) {
+          Location loc = index.get(key);
+          if (loc != null && loc.segment == lru) {
+            index.remove(key, loc);
+          }
+        }
+        lru.delete();
+      }
+    }
+
+    synchronized void invalidate(Object key) {
+      Location loc = index.remove(key);
+      if (loc != null) {
+        loc.segment.kill(loc);
+        loc.segment.keys.remove(key);
+      }
+    }
+
+    synchronized void invalidateAll() {
+      index.clear();
+      List<Segment> old = new ArrayList<>(segments.values());
+      segments.clear();
+      space = 0;
+      for (Segment s : old) {
+        s.delete();
+      }
+      try {
+        roll();
+      } catch (IOException e) {
+        log.warn("Cannot create cache segment in " + dir, e);
+        active = null;
+      }
+    }
+
+    synchronized void close() {
+      for (Segment s : segments.values()) {
+        s.buf.force();
+        s.saveAccessTime();
+      }
+    }
+
+    synchronized DiskStats diskStats() {
+      long used = 0;
+      for (Segment s : segments.values()) {
+        used += s.used;
+      }
+      return new DiskStats(index.size(), used, hitCount.get(),
+          missCount.get());
+    }
+
+    private static byte[] serialize(Object o) throws IOException {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+        out.writeObject(o);
+      }
+      return buf.toByteArray();
+    }
+
+    private static Object deserialize(InputStream in)
+        throws IOException, ClassNotFoundException {
+      try (ObjectInputStream ois = new ObjectInputStream(in)) {
+        return ois.readObject();
+      }
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+
+    ByteBufferInputStream(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+      return buf.hasRemaining() ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int p, int n) {
+      if (!buf.hasRemaining()) {
+        return -1;
+      }
+      n = Math.min(n, buf.remaining());
+      buf.get(b, p, n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return buf.remaining();
+    }
+  }
+}
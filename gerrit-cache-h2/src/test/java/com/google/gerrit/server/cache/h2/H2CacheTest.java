@@ -14,42 +14,79 @@
 
 package com.google.gerrit.server.cache.h2;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.Field;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.inject.TypeLiteral;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class H2CacheTest {
   private static int dbCnt;
 
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
   private Cache<String, ValueHolder<Boolean>> mem;
+  private SqlStore<String, Boolean> store;
   private H2CacheImpl<String, Boolean> impl;
 
   @Before
   public void setUp() {
+    setUp(1 << 20);
+  }
+
+  private void setUp(long maxSize) {
     mem = CacheBuilder.newBuilder().build();
+    store = newStore("jdbc:h2:mem:Test_" + (++dbCnt), null, maxSize);
+    impl = new H2CacheImpl<>(MoreExecutors.directExecutor(), store,
+        new TypeLiteral<String>() {}, mem);
+  }
+
+  private static SqlStore<String, Boolean> newStore(String url,
+      Path bloomFilterFile, long maxSize) {
+    return newStore(url, MoreExecutors.directExecutor(), bloomFilterFile,
+        maxSize);
+  }
 
-    TypeLiteral<String> keyType = new TypeLiteral<String>() {};
-    SqlStore<String, Boolean> store = new SqlStore<>(
-        "jdbc:h2:mem:" + "Test_" + (++dbCnt),
-        keyType,
-        1 << 20,
-        0);
-    impl =
-        new H2CacheImpl<>(MoreExecutors.directExecutor(), store, keyType, mem);
+  private static SqlStore<String, Boolean> newStore(String url,
+      Executor executor, Path bloomFilterFile, long maxSize) {
+    return new SqlStore<>(
+        "test",
+        url,
+        executor,
+        bloomFilterFile,
+        new TypeLiteral<String>() {},
+        maxSize,
+        0,
+        new DisabledMetricMaker().newTimer("flush", null,
+            Field.ofString("cache_name")));
   }
 
   @Test
@@ -79,4 +116,172 @@ public class H2CacheTest {
     }));
     assertFalse("did not invoke Callable", called.get());
   }
+
+  @Test
+  public void flush() {
+    impl.put("foo", true);
+    impl.put("bar", false);
+    assertEquals(2, impl.pendingWrites());
+
+    impl.flush();
+    assertEquals(0, impl.pendingWrites());
+    mem.invalidateAll();
+    assertTrue("exists on disk", impl.getIfPresent("foo"));
+    assertFalse("exists on disk", impl.getIfPresent("bar"));
+    assertEquals("touches queued", 2, impl.pendingWrites());
+
+    impl.invalidate("foo");
+    assertNull(impl.getIfPresent("foo"));
+  }
+
+  @Test
+  public void flushWhenTouchesPending() {
+    for (int i = 0; i < SqlStore.MAX_BATCH_SIZE; i++) {
+      impl.put("k" + i, true);
+    }
+    assertEquals("flushed by puts", 0, impl.pendingWrites());
+
+    mem.invalidateAll();
+    for (int i = 0; i < SqlStore.MAX_BATCH_SIZE - 1; i++) {
+      assertTrue(impl.getIfPresent("k" + i));
+    }
+    assertEquals(SqlStore.MAX_BATCH_SIZE - 1, impl.pendingWrites());
+    assertTrue(impl.getIfPresent("k" + (SqlStore.MAX_BATCH_SIZE - 1)));
+    assertEquals("flushed by touches", 0, impl.pendingWrites());
+  }
+
+  @Test
+  public void fullBatchFlushedInBackground() {
+    final List<Runnable> scheduled = new ArrayList<>();
+    SqlStore<String, Boolean> s = newStore(
+        "jdbc:h2:mem:Test_" + (++dbCnt),
+        new Executor() {
+          @Override
+          public void execute(Runnable task) {
+            scheduled.add(task);
+          }
+        },
+        null, 1 << 20);
+    for (int i = 0; i < SqlStore.MAX_BATCH_SIZE + 1; i++) {
+      s.put("k" + i, new ValueHolder<>(true));
+    }
+    assertEquals("not flushed by caller", SqlStore.MAX_BATCH_SIZE + 1,
+        s.pendingWrites());
+    assertEquals("scheduled once", 1, scheduled.size());
+
+    scheduled.get(0).run();
+    assertEquals(0, s.pendingWrites());
+    assertTrue(s.getIfPresent("k0").value);
+  }
+
+  @Test
+  public void prune() {
+    setUp(0);
+    impl.put("foo", true);
+    impl.put("bar", true);
+    impl.flush();
+    assertEquals(2, impl.diskStats().size());
+
+    mem.invalidate("bar");
+    store.prune(mem);
+    assertEquals(1, impl.diskStats().size());
+    assertTrue("kept entry held in memory", impl.getIfPresent("foo"));
+    assertNull(impl.getIfPresent("bar"));
+  }
+
+  @Test
+  public void loadSavedBloomFilter() {
+    Path file = tmp.getRoot().toPath().resolve("test.bloom");
+    String url = "jdbc:h2:mem:Test_" + (++dbCnt) + ";DB_CLOSE_DELAY=-1";
+    SqlStore<String, Boolean> s = newStore(url, file, 1 << 20);
+    s.open();
+    s.put("foo", new ValueHolder<>(true));
+    s.flush();
+    // Only removes the row, the key stays in the BloomFilter.
+    s.invalidate("foo");
+    s.close();
+    assertTrue("saved", Files.exists(file));
+
+    s = newStore(url, file, 1 << 20);
+    s.open();
+    assertFalse("deleted after loading", Files.exists(file));
+    assertTrue("loaded saved filter", s.mightContain("foo"));
+    s.close();
+  }
+
+  @Test
+  public void spaceSavedOnClose() {
+    String url = "jdbc:h2:mem:Test_" + (++dbCnt) + ";DB_CLOSE_DELAY=-1";
+    SqlStore<String, Boolean> s = newStore(url, null, 1 << 20);
+    s.open();
+    s.put("foo", new ValueHolder<>(true));
+    s.flush();
+    assertTrue(s.diskStats().space() > 0);
+    s.put("bar", new ValueHolder<>(false));
+    s.flush();
+    long space = s.diskStats().space();
+    s.close();
+
+    // Not opened, so the space is summed from the table.
+    assertEquals(space, newStore(url, null, 1 << 20).diskStats().space());
+
+    s = newStore(url, null, 1 << 20);
+    s.open();
+    assertEquals(space, s.diskStats().space());
+    s.put("baz", new ValueHolder<>(true));
+    s.flush();
+    space = s.diskStats().space();
+    assertEquals(space, newStore(url, null, 1 << 20).diskStats().space());
+    s.close();
+  }
+
+  @Test
+  public void rebuildSaturatedBloomFilter() throws Exception {
+    Path file = tmp.getRoot().toPath().resolve("test.bloom");
+    String url = "jdbc:h2:mem:Test_" + (++dbCnt) + ";DB_CLOSE_DELAY=-1";
+    SqlStore<String, Boolean> s = newStore(url, file, 1 << 20);
+    s.open();
+    s.put("foo", new ValueHolder<>(true));
+    s.close();
+    assertEquals(64 * 1024, savedCapacity(file));
+
+    // Saved for the right number of rows, but holding more keys than it was
+    // sized for.
+    BloomFilter<CharSequence> saturated =
+        BloomFilter.create(Funnels.unencodedCharsFunnel(), 10);
+    for (int i = 0; i < 1000; i++) {
+      saturated.put("k" + i);
+    }
+    writeBloomFilter(file, 1, 10, saturated);
+    s = newStore(url, file, 1 << 20);
+    s.open();
+    s.close();
+    assertEquals("rebuilt", 64 * 1024, savedCapacity(file));
+
+    // Sized for fewer keys than there are rows.
+    writeBloomFilter(file, 1, 0,
+        BloomFilter.create(Funnels.unencodedCharsFunnel(), 10));
+    s = newStore(url, file, 1 << 20);
+    s.open();
+    assertTrue("rebuilt", s.mightContain("foo"));
+    s.close();
+    assertEquals("rebuilt", 64 * 1024, savedCapacity(file));
+  }
+
+  private static void writeBloomFilter(Path file, int rows, int capacity,
+      BloomFilter<CharSequence> b) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(Files.newOutputStream(file))) {
+      out.writeInt(rows);
+      out.writeInt(capacity);
+      b.writeTo(out);
+    }
+  }
+
+  private static int savedCapacity(Path file) throws IOException {
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+      in.readInt();
+      return in.readInt();
+    }
+  }
 }
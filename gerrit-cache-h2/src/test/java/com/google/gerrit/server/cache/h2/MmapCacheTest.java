@@ -0,0 +1,158 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.h2.MmapCacheImpl.SegmentStore;
+import com.google.inject.TypeLiteral;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MmapCacheTest {
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Cache<String, ValueHolder<String>> mem;
+
+  private MmapCacheImpl<String, String> open(Path dir, long maxSize) {
+    mem = CacheBuilder.newBuilder().build();
+    MmapCacheImpl<String, String> impl = new MmapCacheImpl<>(
+        MoreExecutors.directExecutor(),
+        new SegmentStore<String, String>(dir, maxSize, 0),
+        new TypeLiteral<String>() {},
+        mem);
+    impl.start();
+    return impl;
+  }
+
+  @Test
+  public void get() throws Exception {
+    MmapCacheImpl<String, String> impl =
+        open(tmp.getRoot().toPath(), 1 << 20);
+    assertNull(impl.getIfPresent("foo"));
+
+    final AtomicBoolean called = new AtomicBoolean();
+    Callable<String> loader = new Callable<String>() {
+      @Override
+      public String call() {
+        called.set(true);
+        return "bar";
+      }
+    };
+    assertEquals("bar", impl.get("foo", loader));
+    assertTrue("used Callable", called.get());
+    mem.invalidate("foo");
+    assertEquals("exists on disk", "bar", impl.getIfPresent("foo"));
+
+    called.set(false);
+    assertEquals("bar", impl.get("foo", loader));
+    assertFalse("did not invoke Callable", called.get());
+
+    impl.invalidate("foo");
+    assertNull(impl.getIfPresent("foo"));
+  }
+
+  @Test
+  public void reopen() {
+    Path dir = tmp.getRoot().toPath();
+    MmapCacheImpl<String, String> impl = open(dir, 1 << 20);
+    impl.put("foo", "bar");
+    impl.put("foo", "baz");
+    impl.stop();
+
+    impl = open(dir, 1 << 20);
+    assertEquals("baz", impl.getIfPresent("foo"));
+    assertEquals(1, impl.diskStats().size());
+  }
+
+  @Test
+  public void invalidateAndReopen() {
+    Path dir = tmp.getRoot().toPath();
+    MmapCacheImpl<String, String> impl = open(dir, 1 << 20);
+    impl.put("foo", "bar");
+    impl.put("foo", "baz");
+    impl.put("other", "value");
+    impl.invalidate("foo");
+    impl.stop();
+
+    impl = open(dir, 1 << 20);
+    assertNull("invalidated", impl.getIfPresent("foo"));
+    assertEquals("value", impl.getIfPresent("other"));
+    assertEquals(1, impl.diskStats().size());
+
+    impl.put("foo", "qux");
+    impl.stop();
+    impl = open(dir, 1 << 20);
+    assertEquals("qux", impl.getIfPresent("foo"));
+  }
+
+  @Test
+  public void evictLeastRecentlyUsedSegment() {
+    // 1 MiB segments with a 1 MiB limit keep a single full segment.
+    MmapCacheImpl<String, String> impl =
+        open(tmp.getRoot().toPath(), 1 << 20);
+    String value = new String(new char[64 << 10]).replace('\0', 'x');
+    for (int i = 0; i < 32; i++) {
+      impl.put("key" + i, value);
+    }
+    mem.invalidateAll();
+    assertNull(impl.getIfPresent("key0"));
+    assertEquals(value, impl.getIfPresent("key31"));
+  }
+
+  @Test
+  public void evictionOrderSurvivesReopen() throws Exception {
+    // 1 MiB segments with a 2 MiB limit keep two full segments.
+    Path dir = tmp.getRoot().toPath();
+    MmapCacheImpl<String, String> impl = open(dir, 2 << 20);
+    String value = new String(new char[64 << 10]).replace('\0', 'x');
+    for (int i = 0; i < 15; i++) {
+      impl.put("a" + i, value);
+    }
+    for (int i = 0; i < 15; i++) {
+      impl.put("b" + i, value);
+    }
+    impl.stop();
+
+    // The first segment was used more recently than the second.
+    long now = System.currentTimeMillis();
+    Files.setLastModifiedTime(dir.resolve("00000001.seg"),
+        FileTime.fromMillis(now));
+    Files.setLastModifiedTime(dir.resolve("00000002.seg"),
+        FileTime.fromMillis(now - 3600 * 1000));
+
+    impl = open(dir, 2 << 20);
+    impl.put("c0", value);
+    assertEquals(value, impl.getIfPresent("a0"));
+    assertNull(impl.getIfPresent("b0"));
+    assertEquals(value, impl.getIfPresent("c0"));
+  }
+}
@@ -68,6 +68,7 @@ public interface Changes {
     private String query;
     private int limit;
     private int start;
+    private String searchAfter;
     private EnumSet<ListChangesOption> options = EnumSet.noneOf(ListChangesOption.class);
 
     public abstract List<ChangeInfo> get() throws RestApiException;
@@ -87,6 +88,17 @@ public interface Changes {
       return this;
     }
 
+    /**
+     * Continue after the last change of a previous page.
+     *
+     * @param token value of {@code _continue} on the last change of the
+     *     previous page.
+     */
+    public QueryRequest withSearchAfter(String token) {
+      this.searchAfter = token;
+      return this;
+    }
+
     public QueryRequest withOption(ListChangesOption options) {
       this.options.add(options);
       return this;
@@ -114,6 +126,10 @@ public interface Changes {
       return start;
     }
 
+    public String getSearchAfter() {
+      return searchAfter;
+    }
+
     public EnumSet<ListChangesOption> getOptions() {
       return options;
     }
@@ -129,6 +145,9 @@ public interface Changes {
       if (start != 0) {
         sb.append(", start=").append(start);
       }
+      if (searchAfter != null) {
+        sb.append(", searchAfter=").append(searchAfter);
+      }
       if (!options.isEmpty()) {
         sb.append("options=").append(options);
       }
@@ -58,6 +58,7 @@ public class ChangeInfo {
   public String currentRevision;
   public Map<String, RevisionInfo> revisions;
   public Boolean _moreChanges;
+  public String _continue;
 
   public List<ProblemInfo> problems;
 }
@@ -15,6 +15,7 @@
 package com.google.gerrit.lucene;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.Sets;
@@ -69,6 +70,10 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     return f.getName() + "_SORT";
   }
 
+  static String docValuesFieldName(FieldDef<?, ?> f) {
+    return f.getName() + "_DV";
+  }
+
   public static void setReady(SitePaths sitePaths, String name, int version,
       boolean ready) throws IOException {
     try {
@@ -88,6 +93,8 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
   private final ReferenceManager<IndexSearcher> searcherManager;
   private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
   private final Set<NrtFuture> notDoneNrtFutures;
+  private final LuceneMetrics metrics;
+  private final String index;
 
   AbstractLuceneIndex(
       Schema<V> schema,
@@ -96,12 +103,15 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
       String name,
       String subIndex,
       GerritIndexWriterConfig writerConfig,
-      SearcherFactory searcherFactory) throws IOException {
+      SearcherFactory searcherFactory,
+      LuceneMetrics metrics) throws IOException {
     this.schema = schema;
     this.sitePaths = sitePaths;
     this.dir = dir;
     this.name = name;
+    this.metrics = metrics;
     final String index = Joiner.on('_').skipNulls().join(name, subIndex);
+    this.index = index;
     IndexWriter delegateWriter;
     long commitPeriod = writerConfig.getCommitWithinMs();
 
@@ -147,10 +157,13 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
 
     notDoneNrtFutures = Sets.newConcurrentHashSet();
 
+    // Searches see new writes within maxReopenStale; callers waiting on an
+    // NrtFuture for their own write make the thread reopen after at most
+    // minReopenStale instead, so bursts of writes share reopens.
     reopenThread = new ControlledRealTimeReopenThread<>(
         writer, searcherManager,
-        0.500 /* maximum stale age (seconds) */,
-        0.010 /* minimum stale age (seconds) */);
+        writerConfig.getMaxReopenStaleMs() / 1000.0,
+        writerConfig.getMinReopenStaleMs() / 1000.0);
     reopenThread.setName("NRT " + name);
     reopenThread.setPriority(Math.min(
         Thread.currentThread().getPriority() + 2,
@@ -166,12 +179,19 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     // TODO(dborowitz): This may have been fixed by
     // http://issues.apache.org/jira/browse/LUCENE-5461
     searcherManager.addListener(new RefreshListener() {
+      private long refreshStart;
+
       @Override
       public void beforeRefresh() throws IOException {
+        refreshStart = System.nanoTime();
       }
 
       @Override
       public void afterRefresh(boolean didRefresh) throws IOException {
+        if (didRefresh) {
+          metrics.reopenLatency.record(index,
+              System.nanoTime() - refreshStart, NANOSECONDS);
+        }
         for (NrtFuture f : notDoneNrtFutures) {
           f.removeIfDone();
         }
@@ -238,6 +258,11 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     return writer;
   }
 
+  /** Commit all writes so far, regardless of {@code commitWithin}. */
+  void commit() throws IOException {
+    writer.getIndexWriter().commit();
+  }
+
   IndexSearcher acquire() throws IOException {
     return searcherManager.acquire();
   }
@@ -297,9 +322,11 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
 
   private final class NrtFuture extends AbstractFuture<Void> {
     private final long gen;
+    private final long created;
 
     NrtFuture(long gen) {
       this.gen = gen;
+      this.created = System.nanoTime();
       // Tell the reopen thread we are waiting on this generation so it uses the
       // min stale time when refreshing.
       isGenAvailableNowForCurrentSearcher();
@@ -361,6 +388,16 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
       return result;
     }
 
+    @Override
+    protected boolean set(Void value) {
+      if (super.set(value)) {
+        metrics.visibleLatency.record(index,
+            System.nanoTime() - created, NANOSECONDS);
+        return true;
+      }
+      return false;
+    }
+
     void removeIfDone() {
       if (isGenAvailableNowForCurrentSearcher()) {
         notDoneNrtFutures.remove(this);
@@ -0,0 +1,81 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.io.IOException;
+
+/**
+ * Estimates the number of documents matching a query from term statistics.
+ * <p>
+ * Only the term dictionary is consulted, no postings are read, so estimating
+ * is much cheaper than running the query. Estimates are upper bounds, except
+ * that deleted documents still count towards the document frequency of their
+ * terms.
+ */
+class CardinalityEstimator {
+  static long estimate(Query q, IndexReader reader) throws IOException {
+    if (q instanceof TermQuery) {
+      return reader.docFreq(((TermQuery) q).getTerm());
+    } else if (q instanceof BooleanQuery) {
+      return estimate((BooleanQuery) q, reader);
+    } else if (q instanceof MatchAllDocsQuery) {
+      return reader.numDocs();
+    }
+    // Ranges, prefixes, regular expressions and full text queries would have
+    // to enumerate terms; assume they may match anything.
+    return reader.numDocs();
+  }
+
+  private static long estimate(BooleanQuery q, IndexReader reader)
+      throws IOException {
+    long required = -1;
+    long optional = 0;
+    boolean hasOptional = false;
+    for (BooleanClause c : q.clauses()) {
+      switch (c.getOccur()) {
+        case MUST:
+        case FILTER:
+          long n = estimate(c.getQuery(), reader);
+          required = required < 0 ? n : Math.min(required, n);
+          break;
+        case SHOULD:
+          optional += estimate(c.getQuery(), reader);
+          hasOptional = true;
+          break;
+        case MUST_NOT:
+        default:
+          // Exclusions can only make the result smaller.
+          break;
+      }
+    }
+    if (required >= 0) {
+      return required;
+    } else if (hasOptional) {
+      return Math.min(optional, reader.numDocs());
+    }
+    // Lucene matches nothing for purely negative queries.
+    return 0;
+  }
+
+  private CardinalityEstimator() {
+  }
+}
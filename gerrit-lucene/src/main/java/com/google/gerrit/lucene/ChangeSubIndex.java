@@ -15,7 +15,12 @@
 package com.google.gerrit.lucene;
 
 import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.gerrit.lucene.LuceneChangeIndex.ADDED_DV_FIELD;
+import static com.google.gerrit.lucene.LuceneChangeIndex.CHANGE_DV_FIELD;
+import static com.google.gerrit.lucene.LuceneChangeIndex.DELETED_DV_FIELD;
 import static com.google.gerrit.lucene.LuceneChangeIndex.ID_SORT_FIELD;
+import static com.google.gerrit.lucene.LuceneChangeIndex.PACKED_DOC_VALUES_FIELDS;
+import static com.google.gerrit.lucene.LuceneChangeIndex.PROJECT_DV_FIELD;
 import static com.google.gerrit.lucene.LuceneChangeIndex.UPDATED_SORT_FIELD;
 import static com.google.gerrit.server.index.change.ChangeSchemaDefinitions.NAME;
 
@@ -32,11 +37,14 @@ import com.google.gerrit.server.query.Predicate;
 import com.google.gerrit.server.query.QueryParseException;
 import com.google.gerrit.server.query.change.ChangeData;
 
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -49,9 +57,10 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
       SitePaths sitePaths,
       Path path,
       GerritIndexWriterConfig writerConfig,
-      SearcherFactory searcherFactory) throws IOException {
+      SearcherFactory searcherFactory,
+      LuceneMetrics metrics) throws IOException {
     this(schema, sitePaths, FSDirectory.open(path),
-        path.getFileName().toString(), writerConfig, searcherFactory);
+        path.getFileName().toString(), writerConfig, searcherFactory, metrics);
   }
 
   ChangeSubIndex(
@@ -60,9 +69,10 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
       Directory dir,
       String subIndex,
       GerritIndexWriterConfig writerConfig,
-      SearcherFactory searcherFactory) throws IOException {
+      SearcherFactory searcherFactory,
+      LuceneMetrics metrics) throws IOException {
     super(schema, sitePaths, dir, NAME, subIndex, writerConfig,
-        searcherFactory);
+        searcherFactory, metrics);
   }
 
   @Override
@@ -86,7 +96,9 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
 
   @Override
   void add(Document doc, Values<ChangeData> values) {
-    // Add separate DocValues fields for those fields needed for sorting.
+    // Add separate DocValues fields for those fields needed for sorting, and
+    // for those that LuceneChangeIndex can read without loading the stored
+    // document.
     FieldDef<ChangeData, ?> f = values.getField();
     if (f == ChangeField.LEGACY_ID) {
       int v = (Integer) getOnlyElement(values.getValues());
@@ -94,6 +106,21 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
     } else if (f == ChangeField.UPDATED) {
       long t = ((Timestamp) getOnlyElement(values.getValues())).getTime();
       doc.add(new NumericDocValuesField(UPDATED_SORT_FIELD, t));
+    } else if (f == ChangeField.PROJECT) {
+      String p = (String) getOnlyElement(values.getValues());
+      doc.add(new SortedDocValuesField(PROJECT_DV_FIELD, new BytesRef(p)));
+    } else if (f == ChangeField.CHANGE) {
+      byte[] c = (byte[]) getOnlyElement(values.getValues());
+      doc.add(new BinaryDocValuesField(CHANGE_DV_FIELD, new BytesRef(c)));
+    } else if (f == ChangeField.ADDED) {
+      int v = (Integer) getOnlyElement(values.getValues());
+      doc.add(new NumericDocValuesField(ADDED_DV_FIELD, v));
+    } else if (f == ChangeField.DELETED) {
+      int v = (Integer) getOnlyElement(values.getValues());
+      doc.add(new NumericDocValuesField(DELETED_DV_FIELD, v));
+    } else if (PACKED_DOC_VALUES_FIELDS.contains(f)) {
+      doc.add(new BinaryDocValuesField(docValuesFieldName(f),
+          StoredDocValues.pack(f.getType(), values.getValues())));
     }
     super.add(doc, values);
   }
@@ -0,0 +1,101 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.index.Index;
+import com.google.gerrit.server.index.SiteIndexer;
+
+import org.eclipse.jgit.errors.ConfigInvalidException;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reindex checkpoints of one index version, stored alongside its ready flag in
+ * {@link GerritIndexStatus}.
+ * <p>
+ * Rewriting the status file for every completed project would be expensive on
+ * sites with many small projects, so new checkpoints are only written out
+ * every few seconds and on {@link #flush()}.
+ * <p>
+ * Lucene only commits writes every {@code commitWithin}, so the index is
+ * committed before checkpoints are written; otherwise a restart could lose
+ * documents of projects that are recorded as fully indexed.
+ */
+class GerritIndexCheckpoints implements SiteIndexer.Checkpoints {
+  private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final SitePaths sitePaths;
+  private final String name;
+  private final int version;
+  private final Index<?, ?> index;
+  private final Map<String, Timestamp> checkpoints;
+  private boolean dirty;
+  private long lastSave;
+
+  GerritIndexCheckpoints(SitePaths sitePaths, GerritIndexStatus cfg,
+      String name, int version, Index<?, ?> index) {
+    this.sitePaths = sitePaths;
+    this.name = name;
+    this.version = version;
+    this.index = index;
+    this.checkpoints = cfg.getCheckpoints(name, version);
+    this.lastSave = System.nanoTime();
+  }
+
+  @Override
+  public synchronized Timestamp get(String key) {
+    return checkpoints.get(key);
+  }
+
+  @Override
+  public synchronized void put(String key, Timestamp since)
+      throws IOException {
+    checkpoints.put(key, since);
+    dirty = true;
+    if (System.nanoTime() - lastSave >= SAVE_INTERVAL_NANOS) {
+      flush();
+    }
+  }
+
+  @Override
+  public synchronized void flush() throws IOException {
+    if (!dirty) {
+      return;
+    }
+    try {
+      // Reread the file, as ready flags may have been changed since it was
+      // last loaded.
+      GerritIndexStatus cfg = new GerritIndexStatus(sitePaths);
+      if (cfg.getReady(name, version)) {
+        // Completed concurrently; checkpoints are no longer needed.
+        checkpoints.clear();
+      } else {
+        if (index instanceof LuceneChangeIndex) {
+          ((LuceneChangeIndex) index).commit();
+        }
+        cfg.setCheckpoints(name, version, checkpoints);
+        cfg.save();
+      }
+    } catch (ConfigInvalidException e) {
+      throw new IOException(e);
+    }
+    dirty = false;
+    lastSave = System.nanoTime();
+  }
+}
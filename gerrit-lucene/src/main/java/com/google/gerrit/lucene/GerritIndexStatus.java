@@ -15,6 +15,7 @@
 package com.google.gerrit.lucene;
 
 import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
 
@@ -23,10 +24,18 @@ import org.eclipse.jgit.storage.file.FileBasedConfig;
 import org.eclipse.jgit.util.FS;
 
 import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 class GerritIndexStatus {
   private static final String SECTION = "index";
   private static final String KEY_READY = "ready";
+  private static final String CHECKPOINT_SECTION = "checkpoint";
+  private static final String KEY_COMPLETED = "completed";
 
   private final FileBasedConfig cfg;
 
@@ -40,7 +49,11 @@ class GerritIndexStatus {
   }
 
   void setReady(String indexName, int version, boolean ready) {
-    cfg.setBoolean(SECTION, indexDirName(indexName, version), KEY_READY, ready);
+    String dirName = indexDirName(indexName, version);
+    cfg.setBoolean(SECTION, dirName, KEY_READY, ready);
+    // Whether the index was just completed or is about to be rebuilt from
+    // scratch, checkpoints of a previous partial reindex no longer apply.
+    cfg.unsetSection(CHECKPOINT_SECTION, dirName);
   }
 
   boolean getReady(String indexName, int version) {
@@ -48,6 +61,35 @@ class GerritIndexStatus {
         false);
   }
 
+  /**
+   * @return completion times of units of work (e.g. projects) already indexed
+   *     by an interrupted reindex of this version, keyed by unit name.
+   */
+  Map<String, Timestamp> getCheckpoints(String indexName, int version) {
+    Map<String, Timestamp> checkpoints = new HashMap<>();
+    for (String v : cfg.getStringList(CHECKPOINT_SECTION,
+        indexDirName(indexName, version), KEY_COMPLETED)) {
+      // Stored as "<millis> <name>"; names may contain spaces.
+      int sp = v.indexOf(' ');
+      Long millis = sp > 0 ? Longs.tryParse(v.substring(0, sp)) : null;
+      if (millis != null) {
+        checkpoints.put(v.substring(sp + 1), new Timestamp(millis));
+      }
+    }
+    return checkpoints;
+  }
+
+  void setCheckpoints(String indexName, int version,
+      Map<String, Timestamp> checkpoints) {
+    List<String> values = new ArrayList<>(checkpoints.size());
+    for (Map.Entry<String, Timestamp> e : checkpoints.entrySet()) {
+      values.add(e.getValue().getTime() + " " + e.getKey());
+    }
+    Collections.sort(values);
+    cfg.setStringList(CHECKPOINT_SECTION, indexDirName(indexName, version),
+        KEY_COMPLETED, values);
+  }
+
   void save() throws IOException {
     cfg.save();
   }
@@ -38,6 +38,8 @@ class GerritIndexWriterConfig {
 
   private final IndexWriterConfig luceneConfig;
   private long commitWithinMs;
+  private final long maxReopenStaleMs;
+  private final long minReopenStaleMs;
   private final CustomMappingAnalyzer analyzer;
 
   GerritIndexWriterConfig(Config cfg, String name) {
@@ -61,6 +63,11 @@ class GerritIndexWriterConfig {
     } catch (IllegalArgumentException e) {
       commitWithinMs = cfg.getLong("index", name, "commitWithin", 0);
     }
+    maxReopenStaleMs = Math.max(1, ConfigUtil.getTimeUnit(
+        cfg, "index", name, "maxReopenStale", 500, MILLISECONDS));
+    minReopenStaleMs = Math.min(maxReopenStaleMs, Math.max(0,
+        ConfigUtil.getTimeUnit(
+            cfg, "index", name, "minReopenStale", 10, MILLISECONDS)));
   }
 
   CustomMappingAnalyzer getAnalyzer() {
@@ -74,4 +81,20 @@ class GerritIndexWriterConfig {
   long getCommitWithinMs() {
     return commitWithinMs;
   }
+
+  /**
+   * @return longest time a searcher may lag behind the writer when no caller
+   *     is waiting for a write to become visible.
+   */
+  long getMaxReopenStaleMs() {
+    return maxReopenStaleMs;
+  }
+
+  /**
+   * @return shortest time between searcher reopens when a caller is waiting
+   *     for its write to become visible.
+   */
+  long getMinReopenStaleMs() {
+    return minReopenStaleMs;
+  }
 }
@@ -15,6 +15,7 @@
 package com.google.gerrit.lucene;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.gerrit.lucene.AbstractLuceneIndex.docValuesFieldName;
 import static com.google.gerrit.lucene.AbstractLuceneIndex.sortFieldName;
 import static com.google.gerrit.lucene.LuceneVersionManager.CHANGES_PREFIX;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.INTERACTIVE;
@@ -25,15 +26,18 @@ import static com.google.gerrit.server.index.change.IndexRewriter.CLOSED_STATUSE
 import static com.google.gerrit.server.index.change.IndexRewriter.OPEN_STATUSES;
 
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSet;
@@ -42,10 +46,12 @@ import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.StarredChangesUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.index.FieldDef;
 import com.google.gerrit.server.index.FieldDef.FillArgs;
 import com.google.gerrit.server.index.IndexExecutor;
 import com.google.gerrit.server.index.QueryOptions;
 import com.google.gerrit.server.index.Schema;
+import com.google.gerrit.server.index.change.ChangeCursor;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeField.ChangeProtoField;
 import com.google.gerrit.server.index.change.ChangeField.PatchSetApprovalProtoField;
@@ -64,9 +70,16 @@ import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -77,6 +90,7 @@ import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopFieldDocs;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.eclipse.jgit.lib.Config;
 import org.slf4j.Logger;
@@ -89,7 +103,9 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Secondary index implementation using Apache Lucene.
@@ -111,6 +127,17 @@ public class LuceneChangeIndex implements ChangeIndex {
   static final String ID_SORT_FIELD =
       sortFieldName(ChangeField.LEGACY_ID);
 
+  static final String PROJECT_DV_FIELD =
+      docValuesFieldName(ChangeField.PROJECT);
+  static final String CHANGE_DV_FIELD =
+      docValuesFieldName(ChangeField.CHANGE);
+  static final String ADDED_DV_FIELD =
+      docValuesFieldName(ChangeField.ADDED);
+  static final String DELETED_DV_FIELD =
+      docValuesFieldName(ChangeField.DELETED);
+  private static final String PATCH_SET_DV_FIELD =
+      docValuesFieldName(ChangeField.PATCH_SET);
+
   private static final String ADDED_FIELD = ChangeField.ADDED.getName();
   private static final String APPROVAL_FIELD = ChangeField.APPROVAL.getName();
   private static final String CHANGE_FIELD = ChangeField.CHANGE.getName();
@@ -126,6 +153,42 @@ public class LuceneChangeIndex implements ChangeIndex {
   @Deprecated
   private static final String STARREDBY_FIELD = ChangeField.STARREDBY.getName();
 
+  /**
+   * Stored fields whose values are also packed into a binary DocValues value,
+   * see {@link StoredDocValues}.
+   */
+  static final ImmutableSet<FieldDef<ChangeData, ?>> PACKED_DOC_VALUES_FIELDS =
+      ImmutableSet.<FieldDef<ChangeData, ?>> of(
+          ChangeField.PATCH_SET,
+          ChangeField.APPROVAL,
+          ChangeField.MERGEABLE,
+          ChangeField.HASHTAG_CASE_AWARE,
+          ChangeField.STAR,
+          ChangeField.REVIEWEDBY,
+          ChangeField.REVIEWER);
+
+  /**
+   * Fields that also have DocValues, see {@link ChangeSubIndex}.
+   * <p>
+   * Results that only need these fields are read column-wise from DocValues,
+   * skipping decompression of the stored fields block of each hit.
+   */
+  private static final ImmutableSet<String> DOC_VALUES_FIELDS =
+      ImmutableSet.<String> builder()
+          .add(LEGACY_ID.getName())
+          .add(PROJECT.getName())
+          .add(CHANGE_FIELD)
+          .add(ADDED_FIELD)
+          .add(DELETED_FIELD)
+          .addAll(FluentIterable.from(PACKED_DOC_VALUES_FIELDS)
+              .transform(new Function<FieldDef<ChangeData, ?>, String>() {
+                @Override
+                public String apply(FieldDef<ChangeData, ?> in) {
+                  return in.getName();
+                }
+              }))
+          .build();
+
   static Term idTerm(ChangeData cd) {
     return QueryBuilder.intTerm(LEGACY_ID.getName(), cd.getId().get());
   }
@@ -139,6 +202,7 @@ public class LuceneChangeIndex implements ChangeIndex {
   private final Provider<ReviewDb> db;
   private final ChangeData.Factory changeDataFactory;
   private final Schema<ChangeData> schema;
+  private final LuceneMetrics metrics;
   private final QueryBuilder<ChangeData> queryBuilder;
   private final ChangeSubIndex openIndex;
   private final ChangeSubIndex closedIndex;
@@ -151,12 +215,14 @@ public class LuceneChangeIndex implements ChangeIndex {
       Provider<ReviewDb> db,
       ChangeData.Factory changeDataFactory,
       FillArgs fillArgs,
+      LuceneMetrics metrics,
       @Assisted Schema<ChangeData> schema) throws IOException {
     this.fillArgs = fillArgs;
     this.executor = executor;
     this.db = db;
     this.changeDataFactory = changeDataFactory;
     this.schema = schema;
+    this.metrics = metrics;
 
     GerritIndexWriterConfig openConfig =
         new GerritIndexWriterConfig(cfg, "changes_open");
@@ -168,15 +234,15 @@ public class LuceneChangeIndex implements ChangeIndex {
     SearcherFactory searcherFactory = new SearcherFactory();
     if (LuceneIndexModule.isInMemoryTest(cfg)) {
       openIndex = new ChangeSubIndex(schema, sitePaths, new RAMDirectory(),
-          "ramOpen", openConfig, searcherFactory);
+          "ramOpen", openConfig, searcherFactory, metrics);
       closedIndex = new ChangeSubIndex(schema, sitePaths, new RAMDirectory(),
-          "ramClosed", closedConfig, searcherFactory);
+          "ramClosed", closedConfig, searcherFactory, metrics);
     } else {
       Path dir = LuceneVersionManager.getDir(sitePaths, CHANGES_PREFIX, schema);
       openIndex = new ChangeSubIndex(schema, sitePaths,
-          dir.resolve(CHANGES_OPEN), openConfig, searcherFactory);
+          dir.resolve(CHANGES_OPEN), openConfig, searcherFactory, metrics);
       closedIndex = new ChangeSubIndex(schema, sitePaths,
-          dir.resolve(CHANGES_CLOSED), closedConfig, searcherFactory);
+          dir.resolve(CHANGES_CLOSED), closedConfig, searcherFactory, metrics);
     }
   }
 
@@ -253,7 +319,24 @@ public class LuceneChangeIndex implements ChangeIndex {
     if (!Sets.intersection(statuses, CLOSED_STATUSES).isEmpty()) {
       indexes.add(closedIndex);
     }
-    return new QuerySource(indexes, queryBuilder.toQuery(p), opts, getSort());
+    return new QuerySource(indexes, queryBuilder.toQuery(p), opts, getSort(),
+        searchAfter(opts));
+  }
+
+  /**
+   * @return position to search after in the order of {@link #getSort()}, or
+   *     null to search from the first result.
+   */
+  private static FieldDoc searchAfter(QueryOptions opts)
+      throws QueryParseException {
+    if (opts.searchAfter() == null) {
+      return null;
+    }
+    ChangeCursor c = ChangeCursor.parse(opts.searchAfter());
+    // Sort values are unique per change, so the doc number is never used to
+    // break ties; Integer.MAX_VALUE also excludes the cursor change itself.
+    return new FieldDoc(Integer.MAX_VALUE, Float.NaN,
+        new Object[] {c.updated(), (long) c.changeId()});
   }
 
   @Override
@@ -263,6 +346,12 @@ public class LuceneChangeIndex implements ChangeIndex {
     openIndex.markReady(ready);
   }
 
+  /** Commit all writes so far to both sub-indexes. */
+  void commit() throws IOException {
+    openIndex.commit();
+    closedIndex.commit();
+  }
+
   private Sort getSort() {
     return new Sort(
         new SortField(UPDATED_SORT_FIELD, SortField.Type.LONG, true),
@@ -278,18 +367,48 @@ public class LuceneChangeIndex implements ChangeIndex {
     private final Query query;
     private final QueryOptions opts;
     private final Sort sort;
+    private final FieldDoc after;
+    private int cardinality = -1;
 
     private QuerySource(List<ChangeSubIndex> indexes, Query query, QueryOptions opts,
-        Sort sort) {
+        Sort sort, FieldDoc after) {
       this.indexes = indexes;
       this.query = checkNotNull(query, "null query from Lucene");
       this.opts = opts;
       this.sort = sort;
+      this.after = after;
     }
 
     @Override
     public int getCardinality() {
-      return 10; // TODO(dborowitz): estimate from Lucene?
+      if (cardinality < 0) {
+        cardinality = estimateCardinality();
+      }
+      return cardinality;
+    }
+
+    private int estimateCardinality() {
+      long n = 0;
+      for (ChangeSubIndex index : indexes) {
+        IndexSearcher searcher = null;
+        try {
+          searcher = index.acquire();
+          n += CardinalityEstimator.estimate(
+              query, searcher.getIndexReader());
+        } catch (IOException e) {
+          log.warn("cannot estimate cardinality of " + query, e);
+          return opts.limit();
+        } finally {
+          if (searcher != null) {
+            try {
+              index.release(searcher);
+            } catch (IOException e) {
+              log.warn("cannot release Lucene searcher", e);
+            }
+          }
+        }
+      }
+      return Ints.saturatedCast(n);
     }
 
     @Override
@@ -307,22 +426,36 @@ public class LuceneChangeIndex implements ChangeIndex {
       IndexSearcher[] searchers = new IndexSearcher[indexes.size()];
       try {
         int realLimit = opts.start() + opts.limit();
-        TopFieldDocs[] hits = new TopFieldDocs[indexes.size()];
         for (int i = 0; i < indexes.size(); i++) {
           searchers[i] = indexes.get(i).acquire();
-          hits[i] = searchers[i].search(query, realLimit, sort);
         }
+        TopFieldDocs[] hits = search(searchers, realLimit);
         TopDocs docs = TopDocs.merge(sort, realLimit, hits);
 
         List<ChangeData> result =
             Lists.newArrayListWithCapacity(docs.scoreDocs.length);
         Set<String> fields = fields(opts);
+        boolean useDocValues = DOC_VALUES_FIELDS.containsAll(fields);
         String idFieldName = LEGACY_ID.getName();
+        int fromDocValues = 0;
         for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
           ScoreDoc sd = docs.scoreDocs[i];
-          Document doc = searchers[sd.shardIndex].doc(sd.doc, fields);
-          result.add(toChangeData(doc, fields, idFieldName));
+          IndexSearcher searcher = searchers[sd.shardIndex];
+          ChangeData cd = useDocValues
+              ? fromDocValues(searcher, sd.doc, fields)
+              : null;
+          if (cd != null) {
+            fromDocValues++;
+          } else {
+            Document doc = searcher.doc(sd.doc, fields);
+            cd = toChangeData(doc, fields, idFieldName);
+          }
+          result.add(cd);
         }
+        metrics.changeResults.incrementBy(
+            LuceneMetrics.DOC_VALUES, fromDocValues);
+        metrics.changeResults.incrementBy(
+            LuceneMetrics.STORED_FIELDS, result.size() - fromDocValues);
 
         final List<ChangeData> r = Collections.unmodifiableList(result);
         return new ResultSet<ChangeData>() {
@@ -343,6 +476,8 @@ public class LuceneChangeIndex implements ChangeIndex {
         };
       } catch (IOException e) {
         throw new OrmException(e);
+      } catch (InterruptedException e) {
+        throw new OrmException("interrupted searching " + query, e);
       } finally {
         for (int i = 0; i < indexes.size(); i++) {
           if (searchers[i] != null) {
@@ -355,6 +490,91 @@ public class LuceneChangeIndex implements ChangeIndex {
         }
       }
     }
+
+    /**
+     * Search all sub-indexes, the first one in the calling thread and the
+     * others concurrently on the index executor.
+     * <p>
+     * A search that has not started on the executor by the time the calling
+     * thread is done with its own is claimed and run in the calling thread
+     * instead, so queries never wait on a saturated executor. Searches that
+     * did start on the executor are always waited for before returning, as the
+     * caller releases the searchers afterwards.
+     */
+    private TopFieldDocs[] search(IndexSearcher[] searchers, int limit)
+        throws IOException, InterruptedException {
+      TopFieldDocs[] hits = new TopFieldDocs[searchers.length];
+      List<SearchTask> tasks = Lists.newArrayListWithCapacity(searchers.length);
+      List<ListenableFuture<TopFieldDocs>> futures =
+          Lists.newArrayListWithCapacity(searchers.length);
+      try {
+        for (int i = 1; i < searchers.length; i++) {
+          SearchTask task = new SearchTask(searchers[i], limit);
+          futures.add(executor.submit(task));
+          tasks.add(task);
+        }
+        if (searchers.length > 0) {
+          hits[0] = search(searchers[0], limit);
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+          if (tasks.get(i).claim()) {
+            futures.get(i).cancel(false);
+            hits[i + 1] = search(searchers[i + 1], limit);
+          } else {
+            hits[i + 1] = futures.get(i).get();
+          }
+        }
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw new IOException(e.getCause());
+      } finally {
+        for (int i = 0; i < tasks.size(); i++) {
+          if (tasks.get(i).claim()) {
+            futures.get(i).cancel(false);
+          } else if (!futures.get(i).isCancelled()) {
+            // Claimed by the executor; it may still be using the searcher.
+            try {
+              Uninterruptibles.getUninterruptibly(futures.get(i));
+            } catch (ExecutionException e) {
+              // Already reported, or superseded by another error.
+            }
+          }
+        }
+      }
+      return hits;
+    }
+
+    /**
+     * Search of one sub-index on the executor, run by whichever of the
+     * executor and the calling thread claims it first.
+     */
+    private class SearchTask implements Callable<TopFieldDocs> {
+      private final IndexSearcher searcher;
+      private final int limit;
+      private final AtomicBoolean claimed = new AtomicBoolean();
+
+      private SearchTask(IndexSearcher searcher, int limit) {
+        this.searcher = searcher;
+        this.limit = limit;
+      }
+
+      private boolean claim() {
+        return claimed.compareAndSet(false, true);
+      }
+
+      @Override
+      public TopFieldDocs call() throws IOException {
+        return claim() ? search(searcher, limit) : null;
+      }
+    }
+
+    private TopFieldDocs search(IndexSearcher searcher, int limit)
+        throws IOException {
+      if (after != null) {
+        return searcher.searchAfter(after, query, limit, sort);
+      }
+      return searcher.search(query, limit, sort);
+    }
   }
 
   private Set<String> fields(QueryOptions opts) {
@@ -404,7 +624,11 @@ public class LuceneChangeIndex implements ChangeIndex {
             db.get(), new Project.NameKey(project.stringValue()), id);
       }
     }
+    decodeFields(doc, fields, cd);
+    return cd;
+  }
 
+  private void decodeFields(Document doc, Set<String> fields, ChangeData cd) {
     if (fields.contains(PATCH_SET_FIELD)) {
       decodePatchSets(doc, cd);
     }
@@ -432,9 +656,87 @@ public class LuceneChangeIndex implements ChangeIndex {
     if (fields.contains(REVIEWER_FIELD)) {
       decodeReviewers(doc, cd);
     }
+  }
+
+  /**
+   * Create a {@link ChangeData} from the DocValues of a single hit.
+   *
+   * @param searcher searcher the hit came from.
+   * @param docId top-level document number of the hit.
+   * @param fields requested fields, all of which must be in {@link
+   *     #DOC_VALUES_FIELDS}.
+   * @return change data, or null if the document was written before its fields
+   *     had DocValues and must be loaded from stored fields instead.
+   * @throws IOException if DocValues could not be read.
+   */
+  private ChangeData fromDocValues(IndexSearcher searcher, int docId,
+      Set<String> fields) throws IOException {
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext ctx = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    LeafReader r = ctx.reader();
+    int doc = docId - ctx.docBase;
+
+    ChangeData cd;
+    if (fields.contains(CHANGE_FIELD)) {
+      if (!hasValue(r, CHANGE_DV_FIELD, doc)) {
+        return null;
+      }
+      BytesRef cb = r.getBinaryDocValues(CHANGE_DV_FIELD).get(doc);
+      cd = changeDataFactory.create(db.get(),
+          ChangeProtoField.CODEC.decode(cb.bytes, cb.offset, cb.length));
+    } else {
+      NumericDocValues id = r.getNumericDocValues(ID_SORT_FIELD);
+      if (id == null) {
+        return null;
+      }
+      Change.Id changeId = new Change.Id((int) id.get(doc));
+      if (!fields.contains(PROJECT.getName())) {
+        // Schema is not new enough to have project field, see fields().
+        cd = changeDataFactory.createOnlyWhenNoteDbDisabled(db.get(), changeId);
+      } else {
+        SortedDocValues project = r.getSortedDocValues(PROJECT_DV_FIELD);
+        if (project == null || project.getOrd(doc) < 0) {
+          return null;
+        }
+        cd = changeDataFactory.create(db.get(),
+            new Project.NameKey(project.get(doc).utf8ToString()), changeId);
+      }
+    }
+
+    if (fields.contains(ADDED_FIELD) && fields.contains(DELETED_FIELD)
+        && hasValue(r, ADDED_DV_FIELD, doc)
+        && hasValue(r, DELETED_DV_FIELD, doc)) {
+      cd.setChangedLines(
+          (int) r.getNumericDocValues(ADDED_DV_FIELD).get(doc),
+          (int) r.getNumericDocValues(DELETED_DV_FIELD).get(doc));
+    }
+
+    Document packed = new Document();
+    for (FieldDef<ChangeData, ?> f : PACKED_DOC_VALUES_FIELDS) {
+      if (!fields.contains(f.getName())) {
+        continue;
+      }
+      // Every change has a patch set, so documents written with packed
+      // DocValues have them for this field even if others have no values.
+      if (!hasValue(r, PATCH_SET_DV_FIELD, doc)) {
+        return null;
+      }
+      String name = docValuesFieldName(f);
+      if (hasValue(r, name, doc)) {
+        BinaryDocValues dv = r.getBinaryDocValues(name);
+        StoredDocValues.unpack(packed, f.getName(), f.getType(), dv.get(doc));
+      }
+    }
+    decodeFields(packed, fields, cd);
     return cd;
   }
 
+  private static boolean hasValue(LeafReader r, String field, int doc)
+      throws IOException {
+    Bits docs = r.getDocsWithField(field);
+    return docs != null && docs.get(doc);
+  }
+
   private void decodePatchSets(Document doc, ChangeData cd) {
     List<PatchSet> patchSets =
         decodeProtos(doc, PATCH_SET_FIELD, PatchSetProtoField.CODEC);
@@ -0,0 +1,73 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+@Singleton
+class LuceneMetrics {
+  static final String DOC_VALUES = "doc_values";
+  static final String STORED_FIELDS = "stored_fields";
+
+  /** Latency of reopening the near-real-time searcher of an index. */
+  final Timer1<String> reopenLatency;
+
+  /**
+   * Latency from a write being handed to the index writer until it is visible
+   * to searches.
+   */
+  final Timer1<String> visibleLatency;
+
+  /**
+   * Change query results, by whether they were read from DocValues or from
+   * stored fields.
+   */
+  final Counter1<String> changeResults;
+
+  @Inject
+  LuceneMetrics(MetricMaker metrics) {
+    Field<String> index = Field.ofString("index");
+
+    reopenLatency = metrics.newTimer(
+        "index/lucene/reopen_latency",
+        new Description("Lucene searcher reopen latency by index")
+            .setCumulative()
+            .setUnit(Units.MILLISECONDS),
+        index);
+
+    visibleLatency = metrics.newTimer(
+        "index/lucene/visible_latency",
+        new Description(
+            "Latency until a Lucene index write is visible to searches")
+            .setCumulative()
+            .setUnit(Units.MILLISECONDS),
+        index);
+
+    changeResults = metrics.newCounter(
+        "index/lucene/change_results",
+        new Description("Change query results read from the Lucene index,"
+            + " by source")
+            .setRate()
+            .setUnit("results"),
+        Field.ofString("source"));
+  }
+}
@@ -150,12 +150,15 @@ public class LuceneVersionManager implements LifecycleListener {
     I searchIndex = factory.create(search.schema);
     IndexCollection<K, V, I> indexes = def.getIndexCollection();
     indexes.setSearchIndex(searchIndex);
+    I latestIndex = null;
     for (Version<V> v : write) {
       if (v.schema != null) {
-        if (v.version != search.version) {
-          indexes.addWriteIndex(factory.create(v.schema));
-        } else {
-          indexes.addWriteIndex(searchIndex);
+        I writeIndex = v.version != search.version
+            ? factory.create(v.schema)
+            : searchIndex;
+        indexes.addWriteIndex(writeIndex);
+        if (latestIndex == null) {
+          latestIndex = writeIndex;
         }
       }
     }
@@ -164,7 +167,9 @@ public class LuceneVersionManager implements LifecycleListener {
 
     int latest = write.get(0).version;
     if (onlineUpgrade && latest != search.version) {
-      OnlineReindexer<K, V, I> reindexer = new OnlineReindexer<>(def, latest);
+      OnlineReindexer<K, V, I> reindexer = new OnlineReindexer<>(def, latest,
+          new GerritIndexCheckpoints(sitePaths, cfg, def.getName(), latest,
+              latestIndex));
       synchronized (this) {
         if (!reindexers.containsKey(def.getName())) {
           reindexers.put(def.getName(), reindexer);
@@ -0,0 +1,99 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.gerrit.server.index.FieldType;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+import java.sql.Timestamp;
+
+/**
+ * Packs all values of a stored field into a single binary DocValues value.
+ * <p>
+ * Values keep their order, so repeated fields such as patch sets can be read
+ * back from DocValues exactly as from the stored document.
+ */
+final class StoredDocValues {
+  static BytesRef pack(FieldType<?> type, Iterable<?> values) {
+    BytesRefBuilder b = new BytesRefBuilder();
+    for (Object value : values) {
+      if (type == FieldType.INTEGER || type == FieldType.INTEGER_RANGE) {
+        b.append(new BytesRef(Ints.toByteArray((Integer) value)));
+      } else if (type == FieldType.LONG) {
+        b.append(new BytesRef(Longs.toByteArray((Long) value)));
+      } else if (type == FieldType.TIMESTAMP) {
+        b.append(new BytesRef(
+            Longs.toByteArray(((Timestamp) value).getTime())));
+      } else if (type == FieldType.EXACT
+          || type == FieldType.PREFIX
+          || type == FieldType.FULL_TEXT) {
+        appendBytes(b, ((String) value).getBytes(UTF_8));
+      } else if (type == FieldType.STORED_ONLY) {
+        appendBytes(b, (byte[]) value);
+      } else {
+        throw FieldType.badFieldType(type);
+      }
+    }
+    return b.toBytesRef();
+  }
+
+  /**
+   * Add the values packed by {@link #pack(FieldType, Iterable)} to a document,
+   * as the same kind of fields that are loaded from stored fields.
+   */
+  static void unpack(Document doc, String name, FieldType<?> type,
+      BytesRef packed) {
+    ByteArrayDataInput in =
+        new ByteArrayDataInput(packed.bytes, packed.offset, packed.length);
+    while (!in.eof()) {
+      if (type == FieldType.INTEGER || type == FieldType.INTEGER_RANGE) {
+        doc.add(new StoredField(name, in.readInt()));
+      } else if (type == FieldType.LONG || type == FieldType.TIMESTAMP) {
+        doc.add(new StoredField(name, in.readLong()));
+      } else if (type == FieldType.EXACT
+          || type == FieldType.PREFIX
+          || type == FieldType.FULL_TEXT) {
+        doc.add(new StoredField(name, new String(readBytes(in), UTF_8)));
+      } else if (type == FieldType.STORED_ONLY) {
+        doc.add(new StoredField(name, new BytesRef(readBytes(in))));
+      } else {
+        throw FieldType.badFieldType(type);
+      }
+    }
+  }
+
+  private static void appendBytes(BytesRefBuilder b, byte[] bytes) {
+    b.append(new BytesRef(Ints.toByteArray(bytes.length)));
+    b.append(bytes, 0, bytes.length);
+  }
+
+  private static byte[] readBytes(ByteArrayDataInput in) {
+    byte[] bytes = new byte[in.readInt()];
+    in.readBytes(bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  private StoredDocValues() {
+  }
+}
@@ -0,0 +1,45 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the diff benchmarks.
+ * <p>
+ * Takes the usual JMH command line options, for example a regular expression
+ * selecting the benchmarks to run, and always reports allocations per
+ * operation next to the timings.
+ */
+public class DiffBenchmarks {
+  public static void main(String[] argv) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(argv);
+    OptionsBuilder opts = new OptionsBuilder();
+    opts.parent(cmd);
+    opts.addProfiler(GCProfiler.class);
+    if (cmd.getIncludes().isEmpty()) {
+      opts.include(DiffBenchmarks.class.getPackage().getName() + ".*");
+    }
+    Options options = opts.build();
+    new Runner(options).run();
+  }
+
+  private DiffBenchmarks() {
+  }
+}
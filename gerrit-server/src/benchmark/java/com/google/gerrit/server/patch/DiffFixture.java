@@ -0,0 +1,110 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.mime.FileTypeRegistry;
+import com.google.gerrit.server.mime.MimeUtil2Module;
+import com.google.gerrit.server.mime.MimeUtilFileTypeRegistry;
+import com.google.gerrit.testutil.InMemoryRepositoryManager;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.PersonIdent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Diff caches wired by hand, as the server would, but retaining nothing.
+ * <p>
+ * Every lookup computes its result again, so benchmarks measure the loaders
+ * rather than the caches. Auto-merges are the exception: as with the default
+ * {@code change.cacheAutomerge}, each is written to the repository once and
+ * read back afterwards, so repeated lookups do not add a pack every time.
+ */
+class DiffFixture implements AutoCloseable {
+  final Config cfg = new Config();
+  final InMemoryRepositoryManager repoManager =
+      new InMemoryRepositoryManager();
+  final PatchListCacheImpl patchListCache;
+  final FileTypeRegistry fileTypeRegistry;
+
+  private final ExecutorService diffExecutor;
+
+  DiffFixture() {
+    // Auto-merges must be flushed to the repository, where the diff workers
+    // and patch scripts read them, so they cannot use "none".
+    cfg.setBoolean("change", null, "cacheAutomerge", true);
+    diffExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setNameFormat("Diff-%d")
+        .setDaemon(true)
+        .build());
+
+    final PatchListLoader.Metrics metrics =
+        new PatchListLoader.Metrics(new DisabledMetricMaker());
+    final AutoMerger autoMerger = new AutoMerger(cfg,
+        new PersonIdent("Gerrit Code Review", "gerrit@example.com"),
+        DiffFixture.<String, String> noCache());
+    PatchListLoader.Factory fileLoaderFactory = new PatchListLoader.Factory() {
+      @Override
+      public PatchListLoader create(PatchListKey key,
+          Project.NameKey project) {
+        return new PatchListLoader(repoManager, patchListCache, cfg,
+            diffExecutor, autoMerger, metrics, key, project);
+      }
+    };
+    IntraLineLoader.Factory intraLoaderFactory = new IntraLineLoader.Factory() {
+      @Override
+      public IntraLineLoader create(IntraLineDiffKey key,
+          IntraLineDiffArgs args) {
+        return new IntraLineLoader(diffExecutor, cfg, key, args);
+      }
+    };
+    patchListCache = new PatchListCacheImpl(
+        DiffFixture.<PatchListKey, PatchList> noCache(),
+        DiffFixture.<IntraLineDiffKey, IntraLineDiff> noCache(),
+        fileLoaderFactory, intraLoaderFactory, repoManager, autoMerger, cfg);
+
+    fileTypeRegistry = Guice.createInjector(
+        new MimeUtil2Module(),
+        new AbstractModule() {
+          @Override
+          protected void configure() {
+            bind(Config.class).annotatedWith(GerritServerConfig.class)
+                .toInstance(cfg);
+          }
+        }).getInstance(MimeUtilFileTypeRegistry.class);
+  }
+
+  private static <K, V> Cache<K, V> noCache() {
+    return CacheBuilder.newBuilder().maximumSize(0).build();
+  }
+
+  PatchScriptBuilder newPatchScriptBuilder() {
+    return new PatchScriptBuilder(fileTypeRegistry, patchListCache);
+  }
+
+  @Override
+  public void close() {
+    diffExecutor.shutdownNow();
+  }
+}
@@ -0,0 +1,119 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.reviewdb.client.Patch;
+import com.google.gerrit.server.patch.SyntheticRepository.Shape;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the intraline diffs of all modified files of a commit.
+ * <p>
+ * Calls {@link IntraLineLoader#compute} directly, so neither the diff
+ * executor nor the timeout is measured; {@link CharTextComparator} dominates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IntraLineBenchmark {
+  @Param({"MANY_SMALL_FILES", "HUGE_FILE", "LARGE_RENAMES"})
+  Shape shape;
+
+  @Param({"IGNORE_NONE", "IGNORE_ALL"})
+  Whitespace whitespace;
+
+  private final List<Text> aTexts = new ArrayList<>();
+  private final List<Text> bTexts = new ArrayList<>();
+  private final List<List<Edit>> edits = new ArrayList<>();
+
+  @Setup
+  public void setUp() throws Exception {
+    try (DiffFixture diffs = new DiffFixture()) {
+      SyntheticRepository repo =
+          SyntheticRepository.create(diffs.repoManager, shape);
+      PatchList list = diffs.patchListCache.get(
+          new PatchListKey(null, repo.head, whitespace), repo.project);
+      try (Repository r = diffs.repoManager.openRepository(repo.project);
+          ObjectReader reader = r.newObjectReader();
+          RevWalk rw = new RevWalk(reader)) {
+        RevTree aTree = rw.parseTree(list.getOldId());
+        RevTree bTree = rw.parseTree(list.getNewId());
+        for (PatchListEntry e : list.getPatches()) {
+          if (Patch.COMMIT_MSG.equals(e.getNewName())
+              || e.getEdits().isEmpty()) {
+            continue;
+          }
+          String oldName =
+              e.getOldName() != null ? e.getOldName() : e.getNewName();
+          aTexts.add(text(reader, aTree, oldName));
+          bTexts.add(text(reader, bTree, e.getNewName()));
+          edits.add(e.getEdits());
+        }
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    aTexts.clear();
+    bTexts.clear();
+    edits.clear();
+  }
+
+  @Benchmark
+  public void intraLine(Blackhole bh) throws Exception {
+    for (int i = 0; i < edits.size(); i++) {
+      // compute() combines edits in place.
+      bh.consume(IntraLineLoader.compute(aTexts.get(i), bTexts.get(i),
+          new ArrayList<>(edits.get(i))));
+    }
+  }
+
+  private static Text text(ObjectReader reader, RevTree tree, String path)
+      throws Exception {
+    try (TreeWalk tw = TreeWalk.forPath(reader, path, tree)) {
+      return new Text(reader.open(tw.getObjectId(0), OBJ_BLOB));
+    }
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.server.patch.SyntheticRepository.Shape;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Writes and reads patch lists as the persistent {@code diff} cache does.
+ * <p>
+ * With {@code deflate} set, the serialized form is additionally compressed,
+ * which is what the cache used to do. Next to the operations per second, the
+ * {@code bytes} counter reports the serialized bytes written or read per
+ * second; divided by the score, it is the size of one serialized patch list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PatchListSerializationBenchmark {
+  /** Serialized bytes written or read in the current iteration. */
+  @State(Scope.Thread)
+  @AuxCounters
+  public static class Size {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @Param
+  Shape shape;
+
+  @Param({"false", "true"})
+  boolean deflate;
+
+  private PatchList list;
+  private byte[] serialized;
+
+  @Setup
+  public void setUp() throws Exception {
+    try (DiffFixture diffs = new DiffFixture()) {
+      SyntheticRepository repo =
+          SyntheticRepository.create(diffs.repoManager, shape);
+      list = diffs.patchListCache.get(
+          new PatchListKey(null, repo.head, Whitespace.IGNORE_NONE),
+          repo.project);
+    }
+    serialized = serialize();
+  }
+
+  @Benchmark
+  public byte[] write(Size size) throws IOException {
+    byte[] buf = serialize();
+    size.bytes += buf.length;
+    return buf;
+  }
+
+  @Benchmark
+  public Object read(Size size) throws Exception {
+    size.bytes += serialized.length;
+    InputStream in = new ByteArrayInputStream(serialized);
+    if (deflate) {
+      in = new InflaterInputStream(in);
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(in)) {
+      return ois.readObject();
+    }
+  }
+
+  private byte[] serialize() throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    OutputStream out = deflate ? new DeflaterOutputStream(buf) : buf;
+    try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+      oos.writeObject(list);
+    }
+    return buf.toByteArray();
+  }
+}
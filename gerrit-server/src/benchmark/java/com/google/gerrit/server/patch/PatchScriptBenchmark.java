@@ -0,0 +1,103 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.extensions.client.DiffPreferencesInfo;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Patch;
+import com.google.gerrit.server.patch.SyntheticRepository.Shape;
+import com.google.gerrit.testutil.TestChanges;
+
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the patch script of every file of a commit, as shown in the diff
+ * screen.
+ * <p>
+ * The patch list is computed once up front; intraline diffs, if enabled, are
+ * computed for every script through the uncached {@link DiffFixture}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PatchScriptBenchmark {
+  @Param
+  Shape shape;
+
+  @Param
+  Whitespace whitespace;
+
+  @Param({"false", "true"})
+  boolean intraline;
+
+  private DiffFixture diffs;
+  private SyntheticRepository repo;
+  private Repository git;
+  private Change change;
+  private DiffPreferencesInfo prefs;
+  private PatchList list;
+
+  @Setup
+  public void setUp() throws Exception {
+    diffs = new DiffFixture();
+    repo = SyntheticRepository.create(diffs.repoManager, shape);
+    git = diffs.repoManager.openRepository(repo.project);
+    change = TestChanges.newChange(repo.project, new Account.Id(1000000));
+    prefs = DiffPreferencesInfo.defaults();
+    prefs.ignoreWhitespace = whitespace;
+    prefs.intralineDifference = intraline;
+    list = diffs.patchListCache.get(
+        new PatchListKey(null, repo.head, whitespace), repo.project);
+  }
+
+  @TearDown
+  public void tearDown() {
+    git.close();
+    diffs.close();
+  }
+
+  @Benchmark
+  public void patchScripts(Blackhole bh) throws Exception {
+    for (PatchListEntry e : list.getPatches()) {
+      PatchScriptBuilder b = diffs.newPatchScriptBuilder();
+      b.setRepository(git, repo.project);
+      b.setChange(change);
+      b.setDiffPrefs(prefs);
+      b.setTrees(list.isAgainstParent(), list.getOldId(), list.getNewId());
+      bh.consume(b.toPatchScript(e, null, Collections.<Patch> emptyList()));
+    }
+  }
+}
@@ -0,0 +1,196 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.testutil.InMemoryRepositoryManager;
+
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import java.util.Random;
+
+/**
+ * In-memory repository whose last commit has the shape of a typical change.
+ * <p>
+ * Content is generated from a fixed seed, so every run diffs the same data.
+ * Modifications mix rewritten lines with indentation-only changes, so that the
+ * whitespace modes of the diff have something to ignore.
+ */
+class SyntheticRepository {
+  enum Shape {
+    /** 2000 small files in 50 directories, a quarter of them modified. */
+    MANY_SMALL_FILES,
+
+    /** A single file of 100000 lines, with every 50th line modified. */
+    HUGE_FILE,
+
+    /** 300 files moved to another directory, a third of them modified. */
+    LARGE_RENAMES,
+
+    /** A merge of two branches touching 100 files each, 10 of them both. */
+    MERGE
+  }
+
+  static SyntheticRepository create(InMemoryRepositoryManager repoManager,
+      Shape shape) throws Exception {
+    Project.NameKey project = new Project.NameKey(shape.name().toLowerCase());
+    TestRepository<InMemoryRepositoryManager.Repo> tr =
+        new TestRepository<>(repoManager.createRepository(project));
+    return new SyntheticRepository(project, tr, shape);
+  }
+
+  final Project.NameKey project;
+  final RevCommit head;
+
+  private final TestRepository<InMemoryRepositoryManager.Repo> tr;
+  private final Random random = new Random(42);
+
+  private SyntheticRepository(Project.NameKey project,
+      TestRepository<InMemoryRepositoryManager.Repo> tr, Shape shape)
+      throws Exception {
+    this.project = project;
+    this.tr = tr;
+    switch (shape) {
+      case MANY_SMALL_FILES:
+        head = manySmallFiles();
+        break;
+      case HUGE_FILE:
+        head = hugeFile();
+        break;
+      case LARGE_RENAMES:
+        head = largeRenames();
+        break;
+      case MERGE:
+        head = merge();
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported shape " + shape);
+    }
+  }
+
+  private RevCommit manySmallFiles() throws Exception {
+    TestRepository<?>.CommitBuilder base = tr.commit();
+    for (int i = 0; i < 2000; i++) {
+      base.add(smallPath(i), lines(i, 40));
+    }
+    TestRepository<?>.CommitBuilder change = tr.commit().parent(base.create());
+    for (int i = 0; i < 2000; i += 4) {
+      change.add(smallPath(i), modify(lines(i, 40), 10));
+    }
+    return change.create();
+  }
+
+  private RevCommit hugeFile() throws Exception {
+    String content = lines(0, 100000);
+    RevCommit base = tr.commit().add("huge.txt", content).create();
+    return tr.commit().parent(base)
+        .add("huge.txt", modify(content, 50))
+        .create();
+  }
+
+  private RevCommit largeRenames() throws Exception {
+    TestRepository<?>.CommitBuilder base = tr.commit();
+    for (int i = 0; i < 300; i++) {
+      base.add("old/dir/File" + i + ".java", lines(i, 300));
+    }
+    TestRepository<?>.CommitBuilder change = tr.commit().parent(base.create());
+    for (int i = 0; i < 300; i++) {
+      String content = lines(i, 300);
+      change.rm("old/dir/File" + i + ".java")
+          .add("new/dir/File" + i + ".java",
+              i % 3 == 0 ? modify(content, 30) : content);
+    }
+    return change.create();
+  }
+
+  private RevCommit merge() throws Exception {
+    TestRepository<?>.CommitBuilder base = tr.commit();
+    for (int i = 0; i < 300; i++) {
+      base.add(smallPath(i), lines(i, 200));
+    }
+    RevCommit baseCommit = base.create();
+
+    // Files 0-99 change on the left, 90-189 on the right; 90-99 conflict.
+    TestRepository<?>.CommitBuilder left = tr.commit().parent(baseCommit);
+    TestRepository<?>.CommitBuilder right = tr.commit().parent(baseCommit);
+    String[] rightContent = new String[100];
+    for (int i = 0; i < 100; i++) {
+      rightContent[i] = modify(lines(i + 90, 200), 25);
+      left.add(smallPath(i), modify(lines(i, 200), 20));
+      right.add(smallPath(i + 90), rightContent[i]);
+    }
+    RevCommit leftCommit = left.create();
+    RevCommit rightCommit = right.create();
+
+    // Resolve conflicts in favour of the left side, and tweak some files only
+    // in the merge itself, as developers do when fixing up a merge.
+    TestRepository<?>.CommitBuilder merge =
+        tr.commit().parent(leftCommit).parent(rightCommit);
+    for (int i = 10; i < 100; i++) {
+      merge.add(smallPath(i + 90), rightContent[i]);
+    }
+    for (int i = 0; i < 300; i += 30) {
+      merge.add(smallPath(i), modify(lines(i, 200), 60));
+    }
+    return merge.create();
+  }
+
+  private static String smallPath(int i) {
+    return "src/main/java/com/example/pkg" + (i % 50) + "/File" + i + ".java";
+  }
+
+  /** Source-like content, different for every seed. */
+  private static String lines(int seed, int count) {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      int depth = i % 4;
+      for (int d = 0; d < depth; d++) {
+        b.append("  ");
+      }
+      b.append("int value").append(i).append(" = compute(")
+          .append(seed).append(", ").append(i * 31 % 97).append(");\n");
+    }
+    return b.toString();
+  }
+
+  /** Modifies about one line in {@code every}. */
+  private String modify(String content, int every) {
+    String[] lines = content.split("\n", -1);
+    StringBuilder b = new StringBuilder(content.length() + lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i];
+      if (!line.isEmpty() && random.nextInt(every) == 0) {
+        switch (random.nextInt(3)) {
+          case 0:
+            // Reindent only.
+            line = "    " + line.trim();
+            break;
+          case 1:
+            line = line.replace("compute", "computeFaster");
+            break;
+          default:
+            line = line + " // " + Integer.toHexString(random.nextInt());
+            break;
+        }
+      }
+      b.append(line);
+      if (i < lines.length - 1) {
+        b.append('\n');
+      }
+    }
+    return b.toString();
+  }
+}
@@ -17,8 +17,16 @@ package com.google.gerrit.rules;
 import static com.googlecode.prolog_cafe.lang.PrologMachineCopy.save;
 
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.server.config.GerritServerConfig;
@@ -52,9 +60,6 @@ import java.io.IOException;
 import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -62,9 +67,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Manages a cache of compiled Prolog rules.
@@ -78,13 +83,31 @@ public class RulesCache {
   private static final List<String> PACKAGE_LIST = ImmutableList.of(
       Prolog.BUILTIN, "gerrit");
 
-  private static final class MachineRef extends WeakReference<PrologMachineCopy> {
-    final ObjectId key;
+  enum Lookup {
+    HIT,
+    MISS;
+  }
+
+  @Singleton
+  static class Metrics {
+    final Counter1<Lookup> lookups;
+    final Timer0 consultLatency;
 
-    MachineRef(ObjectId key, PrologMachineCopy pcm,
-        ReferenceQueue<PrologMachineCopy> queue) {
-      super(pcm, queue);
-      this.key = key;
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      lookups = metricMaker.newCounter(
+          "prolog/rules_cache/lookup_count",
+          new Description("Compiled project rules found in the cache or"
+              + " loaded into a new machine")
+            .setRate()
+            .setUnit("lookups"),
+          Field.ofEnum(Lookup.class, "result"));
+      consultLatency = metricMaker.newTimer(
+          "prolog/consult_latency",
+          new Description("Latency of consulting Prolog rules into a"
+              + " machine, accumulated over the life of the process")
+            .setCumulative()
+            .setUnit(Description.Units.MILLISECONDS));
     }
   }
 
@@ -95,15 +118,25 @@ public class RulesCache {
   private final Path rulesDir;
   private final GitRepositoryManager gitMgr;
   private final DynamicSet<PredicateProvider> predicateProviders;
+  private final Metrics metrics;
   private final ClassLoader systemLoader;
   private final PrologMachineCopy defaultMachine;
-  private final Map<ObjectId, MachineRef> machineCache = new HashMap<>();
-  private final ReferenceQueue<PrologMachineCopy> dead =
-      new ReferenceQueue<>();
+
+  /**
+   * Machines by the blob of their {@code rules.pl}.
+   * <p>
+   * Only weakly held, so machines stay loaded while a cached
+   * {@code ProjectState} refers to them. Lookups do not lock; a missing
+   * machine is created once, blocking only threads that wait for the same
+   * rules.
+   */
+  private final Cache<ObjectId, PrologMachineCopy> machineCache =
+      CacheBuilder.newBuilder().weakValues().build();
 
   @Inject
   protected RulesCache(@GerritServerConfig Config config, SitePaths site,
-      GitRepositoryManager gm, DynamicSet<PredicateProvider> predicateProviders) {
+      GitRepositoryManager gm, DynamicSet<PredicateProvider> predicateProviders,
+      Metrics metrics) {
     maxDbSize = config.getInt("rules", null, "maxPrologDatabaseSize", 256);
     maxSrcBytes = config.getInt("rules", null, "maxSourceBytes", 128 << 10);
     enableProjectRules = config.getBoolean("rules", null, "enable", true)
@@ -112,6 +145,7 @@ public class RulesCache {
     rulesDir = cacheDir != null ? cacheDir.resolve("rules") : null;
     gitMgr = gm;
     this.predicateProviders = predicateProviders;
+    this.metrics = metrics;
 
     systemLoader = getClass().getClassLoader();
     defaultMachine = save(newEmptyMachine(systemLoader));
@@ -127,31 +161,36 @@ public class RulesCache {
    * @return a Prolog machine, after loading the specified rules.
    * @throws CompileException the machine cannot be created.
    */
-  public synchronized PrologMachineCopy loadMachine(
-      Project.NameKey project,
-      ObjectId rulesId)
+  public PrologMachineCopy loadMachine(
+      final Project.NameKey project,
+      final ObjectId rulesId)
       throws CompileException {
     if (!enableProjectRules || project == null || rulesId == null) {
       return defaultMachine;
     }
 
-    Reference<? extends PrologMachineCopy> ref = machineCache.get(rulesId);
-    if (ref != null) {
-      PrologMachineCopy pmc = ref.get();
-      if (pmc != null) {
-        return pmc;
-      }
-
-      machineCache.remove(rulesId);
-      ref.enqueue();
+    PrologMachineCopy pmc = machineCache.getIfPresent(rulesId);
+    if (pmc != null) {
+      metrics.lookups.increment(Lookup.HIT);
+      return pmc;
     }
 
-    gc();
-
-    PrologMachineCopy pcm = createMachine(project, rulesId);
-    MachineRef newRef = new MachineRef(rulesId, pcm, dead);
-    machineCache.put(rulesId, newRef);
-    return pcm;
+    try {
+      return machineCache.get(rulesId.copy(),
+          new Callable<PrologMachineCopy>() {
+            @Override
+            public PrologMachineCopy call() throws CompileException {
+              metrics.lookups.increment(Lookup.MISS);
+              return createMachine(project, rulesId);
+            }
+          });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof CompileException) {
+        throw (CompileException) e.getCause();
+      }
+      throw new CompileException("Cannot load rules of " + project,
+          e.getCause());
+    }
   }
 
   public PrologMachineCopy loadMachine(String name, Reader in)
@@ -163,16 +202,6 @@ public class RulesCache {
     return pmc;
   }
 
-  private void gc() {
-    Reference<?> ref;
-    while ((ref = dead.poll()) != null) {
-      ObjectId key = ((MachineRef) ref).key;
-      if (machineCache.get(key) == ref) {
-        machineCache.remove(key);
-      }
-    }
-  }
-
   private PrologMachineCopy createMachine(Project.NameKey project,
       ObjectId rulesId) throws CompileException {
     // If the rules are available as a complied JAR on local disk, prefer
@@ -200,7 +229,7 @@ public class RulesCache {
       throws CompileException {
     BufferingPrologControl ctl = newEmptyMachine(systemLoader);
     PushbackReader in = new PushbackReader(rules, Prolog.PUSHBACK_SIZE);
-    try {
+    try (Timer0.Context ignored = metrics.consultLatency.start()) {
       if (!ctl.execute(Prolog.BUILTIN, "consult_stream",
           SymbolTerm.intern(name), new JavaObjectTerm(in))) {
         return null;
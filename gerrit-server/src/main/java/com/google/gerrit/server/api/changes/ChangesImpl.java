@@ -120,6 +120,7 @@ class ChangesImpl implements Changes {
     }
     qc.setLimit(q.getLimit());
     qc.setStart(q.getStart());
+    qc.setSearchAfter(q.getSearchAfter());
     for (ListChangesOption option : q.getOptions()) {
       qc.addOption(option);
     }
@@ -48,6 +48,7 @@ import com.google.gerrit.server.git.validators.CommitValidationException;
 import com.google.gerrit.server.git.validators.CommitValidators;
 import com.google.gerrit.server.mail.CreateChangeSender;
 import com.google.gerrit.server.notedb.ChangeUpdate;
+import com.google.gerrit.server.patch.PatchListWarmer;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.NoSuchChangeException;
@@ -94,6 +95,7 @@ public class ChangeInserter extends BatchUpdate.InsertChangeOp {
   private final CreateChangeSender.Factory createChangeSenderFactory;
   private final ExecutorService sendEmailExecutor;
   private final CommitValidators.Factory commitValidatorsFactory;
+  private final PatchListWarmer patchListWarmer;
 
   private final Change.Id changeId;
   private final PatchSet.Id psId;
@@ -134,6 +136,7 @@ public class ChangeInserter extends BatchUpdate.InsertChangeOp {
       CreateChangeSender.Factory createChangeSenderFactory,
       @SendEmailExecutor ExecutorService sendEmailExecutor,
       CommitValidators.Factory commitValidatorsFactory,
+      PatchListWarmer patchListWarmer,
       @Assisted Change.Id changeId,
       @Assisted RevCommit commit,
       @Assisted String refName) {
@@ -147,6 +150,7 @@ public class ChangeInserter extends BatchUpdate.InsertChangeOp {
     this.createChangeSenderFactory = createChangeSenderFactory;
     this.sendEmailExecutor = sendEmailExecutor;
     this.commitValidatorsFactory = commitValidatorsFactory;
+    this.patchListWarmer = patchListWarmer;
 
     this.changeId = changeId;
     this.psId = new PatchSet.Id(changeId, INITIAL_PATCH_SET_ID);
@@ -361,6 +365,7 @@ public class ChangeInserter extends BatchUpdate.InsertChangeOp {
 
   @Override
   public void postUpdate(Context ctx) throws OrmException, NoSuchChangeException {
+    patchListWarmer.warm(change, patchSet);
     if (sendMail) {
       Runnable sender = new Runnable() {
         @Override
@@ -44,6 +44,7 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -97,6 +98,7 @@ import com.google.gerrit.server.api.accounts.GpgApiAdapter;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.LabelNormalizer;
 import com.google.gerrit.server.git.MergeUtil;
+import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.ReviewerStateInternal;
 import com.google.gerrit.server.patch.PatchListNotAvailableException;
@@ -309,6 +311,10 @@ public class ChangeJson {
     return out;
   }
 
+  /**
+   * Load the data needed by the requested options for all changes up front,
+   * in batches, rather than one change at a time while formatting.
+   */
   private void ensureLoaded(Iterable<ChangeData> all) throws OrmException {
     ChangeData.ensureChangeLoaded(all);
     if (has(ALL_REVISIONS)) {
@@ -319,9 +325,43 @@ public class ChangeJson {
     if (has(REVIEWED) && userProvider.get().isIdentifiedUser()) {
       ChangeData.ensureReviewedByLoadedForOpenChanges(all);
     }
+    if (has(DETAILED_LABELS)) {
+      // Reviewers are derived from all approvals of the change.
+      ChangeData.ensureAllApprovalsLoaded(all);
+    }
+    if (has(MESSAGES)) {
+      ChangeData.ensureAllMessagesLoaded(all);
+    }
     ChangeData.ensureCurrentApprovalsLoaded(all);
   }
 
+  /**
+   * @return names of the index fields used to format changes with the options
+   *     of this instance; other stored fields need not be loaded by queries
+   *     whose results are passed to {@link #formatQueryResults(List)}.
+   */
+  public Set<String> getRequestedFields() {
+    ImmutableSet.Builder<String> fields = ImmutableSet.<String> builder()
+        .add(ChangeField.CHANGE.getName())
+        .add(ChangeField.ADDED.getName())
+        .add(ChangeField.DELETED.getName())
+        .add(ChangeField.MERGEABLE.getName())
+        .add(ChangeField.HASHTAG_CASE_AWARE.getName())
+        // Needed for the submit records of every change.
+        .add(ChangeField.PATCH_SET.getName())
+        .add(ChangeField.APPROVAL.getName());
+    if (userProvider.get().isIdentifiedUser()) {
+      fields.add(ChangeField.STAR.getName());
+      if (has(REVIEWED)) {
+        fields.add(ChangeField.REVIEWEDBY.getName());
+      }
+    }
+    if (has(DETAILED_LABELS)) {
+      fields.add(ChangeField.REVIEWER.getName());
+    }
+    return fields.build();
+  }
+
   private boolean has(ListChangesOption option) {
     return options.contains(option);
   }
@@ -16,6 +16,7 @@ package com.google.gerrit.server.git;
 
 import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
 import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.server.extensions.events.ChangeIndexedListener;
 import com.google.inject.AbstractModule;
 
 public class ChangeCacheImplModule extends AbstractModule {
@@ -33,6 +34,8 @@ public class ChangeCacheImplModule extends AbstractModule {
       install(SearchingChangeCacheImpl.module());
       DynamicSet.bind(binder(), GitReferenceUpdatedListener.class)
           .to(SearchingChangeCacheImpl.class);
+      DynamicSet.bind(binder(), ChangeIndexedListener.class)
+          .to(SearchingChangeCacheImpl.class);
     }
   }
 }
@@ -0,0 +1,215 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Patch set refs of each project, by commit and by change.
+ * <p>
+ * A project is read from its repository on the first lookup, after which it is
+ * kept current from {@link GitReferenceUpdatedListener} events rather than
+ * scanning {@code refs/changes/} again for every push.
+ * <p>
+ * Refs written without firing an event are only noticed for a patch set ref
+ * a caller depends on, see {@link #get(Project.NameKey, Repository,
+ * PatchSet.Id)}. Refs may also have moved since their event was delivered;
+ * callers must check results against the refs they read.
+ */
+@Singleton
+public class ChangeRefCache implements GitReferenceUpdatedListener {
+  static final String CACHE_NAME = "change_refs";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Project.NameKey.class, ChangeRefs.class);
+      }
+    };
+  }
+
+  /** Patch set refs of one project. */
+  public static class ChangeRefs {
+    private final Map<PatchSet.Id, ObjectId> byPatchSet = new HashMap<>();
+    private final SetMultimap<ObjectId, PatchSet.Id> byCommit =
+        HashMultimap.create();
+    private final SetMultimap<Change.Id, PatchSet.Id> byChange =
+        HashMultimap.create();
+    private boolean loaded;
+
+    /** @return patch sets whose ref pointed to the commit. */
+    public synchronized Set<PatchSet.Id> byCommit(ObjectId id) {
+      return ImmutableSet.copyOf(byCommit.get(id));
+    }
+
+    /** @return patch sets of the change that had a ref. */
+    public synchronized Set<PatchSet.Id> byChange(Change.Id id) {
+      return ImmutableSet.copyOf(byChange.get(id));
+    }
+
+    /** @return whether the patch set had a ref. */
+    public synchronized boolean contains(PatchSet.Id id) {
+      return byPatchSet.containsKey(id);
+    }
+
+    /** @return number of patch set refs. */
+    public synchronized int size() {
+      return byPatchSet.size();
+    }
+
+    @VisibleForTesting
+    synchronized void load(Repository repo) throws IOException {
+      if (loaded) {
+        return;
+      }
+      for (Ref ref : repo.getRefDatabase().getRefs(RefNames.REFS_CHANGES)
+          .values()) {
+        PatchSet.Id psId = PatchSet.Id.fromRef(ref.getName());
+        if (psId != null && ref.getObjectId() != null) {
+          put(psId, ref.getObjectId());
+        }
+      }
+      loaded = true;
+    }
+
+    @VisibleForTesting
+    synchronized void update(PatchSet.Id psId, ObjectId newId) {
+      if (!loaded) {
+        // Loading reads the ref after this update.
+        return;
+      }
+      ObjectId old = byPatchSet.remove(psId);
+      if (old != null) {
+        byCommit.remove(old, psId);
+        byChange.remove(psId.getParentKey(), psId);
+      }
+      if (newId != null) {
+        put(psId, newId);
+      }
+    }
+
+    private void put(PatchSet.Id psId, ObjectId id) {
+      byPatchSet.put(psId, id);
+      byCommit.put(id, psId);
+      byChange.put(psId.getParentKey(), psId);
+    }
+  }
+
+  private final Cache<Project.NameKey, ChangeRefs> cache;
+
+  @Inject
+  ChangeRefCache(@Named(CACHE_NAME) Cache<Project.NameKey, ChangeRefs> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Get the patch set refs of a project.
+   *
+   * @param project name of the project.
+   * @param repo open repository of the project, read if the project is not
+   *     cached yet.
+   * @return patch set refs of the project.
+   * @throws IOException the refs of the repository cannot be read.
+   */
+  public ChangeRefs get(Project.NameKey project, Repository repo)
+      throws IOException {
+    ChangeRefs refs;
+    try {
+      refs = cache.get(project, new Callable<ChangeRefs>() {
+        @Override
+        public ChangeRefs call() {
+          return new ChangeRefs();
+        }
+      });
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    try {
+      refs.load(repo);
+    } catch (IOException | RuntimeException e) {
+      cache.invalidate(project);
+      throw e;
+    }
+    return refs;
+  }
+
+  /**
+   * Get the patch set refs of a project, including a patch set the caller
+   * read a ref of.
+   * <p>
+   * If the patch set is missing, events were missed, e.g. for refs written by
+   * another server or directly in the repository, and the project is read
+   * again. Only the given patch set is checked, not every ref of the project.
+   *
+   * @param project name of the project.
+   * @param repo open repository of the project.
+   * @param expected patch set whose ref the caller read.
+   * @return patch set refs of the project.
+   * @throws IOException the refs of the repository cannot be read.
+   */
+  public ChangeRefs get(Project.NameKey project, Repository repo,
+      PatchSet.Id expected) throws IOException {
+    ChangeRefs cached = get(project, repo);
+    if (cached.contains(expected)) {
+      return cached;
+    }
+    cache.invalidate(project);
+    return get(project, repo);
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (!event.getRefName().startsWith(RefNames.REFS_CHANGES)) {
+      return;
+    }
+    PatchSet.Id psId = PatchSet.Id.fromRef(event.getRefName());
+    if (psId == null) {
+      return;
+    }
+    ChangeRefs refs =
+        cache.getIfPresent(new Project.NameKey(event.getProjectName()));
+    if (refs != null) {
+      refs.update(psId, event.isDelete()
+          ? null
+          : ObjectId.fromString(event.getNewObjectId()));
+    }
+  }
+}
@@ -103,23 +103,28 @@ public class GroupCollector {
     return rsrc.getPatchSet().getGroups();
   }
 
+  /** Existing patch sets of a project, by commit. */
+  public interface PatchSetsBySha {
+    Collection<PatchSet.Id> get(ObjectId id);
+  }
+
   private interface Lookup {
     List<String> lookup(PatchSet.Id psId)
         throws OrmException, NoSuchChangeException;
   }
 
-  private final Multimap<ObjectId, PatchSet.Id> patchSetsBySha;
+  private final PatchSetsBySha patchSetsBySha;
   private final Multimap<ObjectId, String> groups;
   private final SetMultimap<String, String> groupAliases;
   private final Lookup groupLookup;
 
   private boolean done;
 
-  public static GroupCollector create(Multimap<ObjectId, Ref> changeRefsById,
+  public static GroupCollector create(PatchSetsBySha patchSetsBySha,
       final ReviewDb db, final PatchSetUtil psUtil,
       final ChangeNotes.Factory notesFactory, final Project.NameKey project) {
     return new GroupCollector(
-        transformRefs(changeRefsById),
+        patchSetsBySha,
         new Lookup() {
           @Override
           public List<String> lookup(PatchSet.Id psId)
@@ -136,7 +141,7 @@ public class GroupCollector {
   public static GroupCollector createForSchemaUpgradeOnly(
       Multimap<ObjectId, Ref> changeRefsById, final ReviewDb db) {
     return new GroupCollector(
-        transformRefs(changeRefsById),
+        asPatchSetsBySha(transformRefs(changeRefsById)),
         new Lookup() {
           @Override
           public List<String> lookup(PatchSet.Id psId) throws OrmException {
@@ -147,7 +152,7 @@ public class GroupCollector {
   }
 
   private GroupCollector(
-      Multimap<ObjectId, PatchSet.Id> patchSetsBySha,
+      PatchSetsBySha patchSetsBySha,
       Lookup groupLookup) {
     this.patchSetsBySha = patchSetsBySha;
     this.groupLookup = groupLookup;
@@ -167,12 +172,22 @@ public class GroupCollector {
         });
   }
 
+  private static PatchSetsBySha asPatchSetsBySha(
+      final Multimap<ObjectId, PatchSet.Id> patchSetsBySha) {
+    return new PatchSetsBySha() {
+      @Override
+      public Collection<PatchSet.Id> get(ObjectId id) {
+        return patchSetsBySha.get(id);
+      }
+    };
+  }
+
   @VisibleForTesting
   GroupCollector(
       Multimap<ObjectId, PatchSet.Id> patchSetsBySha,
       final ListMultimap<PatchSet.Id, String> groupLookup) {
     this(
-        patchSetsBySha,
+        asPatchSetsBySha(patchSetsBySha),
         new Lookup() {
           @Override
           public List<String> lookup(PatchSet.Id psId) {
@@ -270,7 +285,7 @@ public class GroupCollector {
 
   private boolean isGroupFromExistingPatchSet(RevCommit commit, String group) {
     ObjectId id = parseGroup(commit, group);
-    return id != null && patchSetsBySha.containsKey(id);
+    return id != null && !patchSetsBySha.get(id).isEmpty();
   }
 
   private Set<String> resolveGroups(ObjectId forCommit,
@@ -329,7 +329,7 @@ public class MergeOp implements AutoCloseable {
       throws OrmException {
     List<SubmitRecord> results = cd.getSubmitRecords();
     if (results == null) {
-      results = new SubmitRuleEvaluator(cd).evaluate();
+      results = new SubmitRuleEvaluator(cd).setAllowCache(false).evaluate();
       cd.setSubmitRecords(results);
     }
     return results;
@@ -34,11 +34,10 @@ import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.base.Throwables;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.HashBiMap;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedListMultimap;
@@ -46,7 +45,6 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
-import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.util.concurrent.CheckedFuture;
@@ -165,11 +163,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -179,6 +180,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -305,11 +307,13 @@ public class ReceiveCommits {
   private final String canonicalWebUrl;
   private final CommitValidators.Factory commitValidatorsFactory;
   private final TagCache tagCache;
+  private final ChangeRefCache changeRefCache;
   private final AccountCache accountCache;
   private final ChangesCollection changes;
   private final ChangeInserter.Factory changeInserterFactory;
   private final ExecutorService sendEmailExecutor;
   private final ListeningExecutorService changeUpdateExector;
+  private final ListeningExecutorService commitValidationExecutor;
   private final RequestScopePropagator requestScopePropagator;
   private final SshInfo sshInfo;
   private final AllProjectsName allProjectsName;
@@ -334,8 +338,7 @@ public class ReceiveCommits {
   private final List<UpdateGroupsRequest> updateGroups = new ArrayList<>();
   private final Set<ObjectId> validCommits = new HashSet<>();
 
-  private ListMultimap<Change.Id, Ref> refsByChange;
-  private SetMultimap<ObjectId, Ref> refsById;
+  private ChangeRefCache.ChangeRefs changeRefs;
   private Map<String, Ref> allRefs;
 
   private final SubmoduleOp.Factory subOpFactory;
@@ -372,6 +375,7 @@ public class ReceiveCommits {
       ProjectCache projectCache,
       GitRepositoryManager repoManager,
       TagCache tagCache,
+      ChangeRefCache changeRefCache,
       AccountCache accountCache,
       @Nullable SearchingChangeCacheImpl changeCache,
       ChangesCollection changes,
@@ -380,6 +384,8 @@ public class ReceiveCommits {
       @CanonicalWebUrl String canonicalWebUrl,
       @SendEmailExecutor ExecutorService sendEmailExecutor,
       @ChangeUpdateExecutor ListeningExecutorService changeUpdateExector,
+      @CommitValidationExecutor
+          ListeningExecutorService commitValidationExecutor,
       RequestScopePropagator requestScopePropagator,
       SshInfo sshInfo,
       AllProjectsName allProjectsName,
@@ -417,12 +423,14 @@ public class ReceiveCommits {
     this.repoManager = repoManager;
     this.canonicalWebUrl = canonicalWebUrl;
     this.tagCache = tagCache;
+    this.changeRefCache = changeRefCache;
     this.accountCache = accountCache;
     this.changes = changes;
     this.changeInserterFactory = changeInserterFactory;
     this.commitValidatorsFactory = commitValidatorsFactory;
     this.sendEmailExecutor = sendEmailExecutor;
     this.changeUpdateExector = changeUpdateExector;
+    this.commitValidationExecutor = commitValidationExecutor;
     this.requestScopePropagator = requestScopePropagator;
     this.sshInfo = sshInfo;
     this.allProjectsName = allProjectsName;
@@ -1500,6 +1508,13 @@ public class ReceiveCommits {
       return;
     }
 
+    try {
+      loadChangeRefs();
+    } catch (IOException e) {
+      log.error("Cannot read change refs of " + project.getName(), e);
+      reject(cmd, "internal server error");
+      return;
+    }
     requestReplace(cmd, true, changeEnt, newCommit);
   }
 
@@ -1523,14 +1538,25 @@ public class ReceiveCommits {
   private void selectNewAndReplacedChangesFromMagicBranch() {
     newChanges = new ArrayList<>();
 
-    SetMultimap<ObjectId, Ref> existing = changeRefsById();
-    GroupCollector groupCollector = GroupCollector.create(refsById, db, psUtil,
-        notesFactory, project.getNameKey());
+    GroupCollector groupCollector = GroupCollector.create(
+        new GroupCollector.PatchSetsBySha() {
+          @Override
+          public Collection<PatchSet.Id> get(ObjectId id) {
+            List<PatchSet.Id> result = new ArrayList<>();
+            for (Ref ref : changeRefsById(id)) {
+              result.add(PatchSet.Id.fromRef(ref.getName()));
+            }
+            return result;
+          }
+        }, db, psUtil, notesFactory, project.getNameKey());
+    ValidationPipeline validation =
+        new ValidationPipeline(magicBranch.ctl, magicBranch.cmd);
 
     rp.getRevWalk().reset();
     rp.getRevWalk().sort(RevSort.TOPO);
     rp.getRevWalk().sort(RevSort.REVERSE, true);
     try {
+      loadChangeRefs();
       rp.getRevWalk().markStart(
           rp.getRevWalk().parseCommit(magicBranch.cmd.getNewId()));
       if (magicBranch.baseCommit != null) {
@@ -1558,7 +1584,7 @@ public class ReceiveCommits {
           break;
         }
         groupCollector.visit(c);
-        Collection<Ref> existingRefs = existing.get(c);
+        Collection<Ref> existingRefs = changeRefsById(c);
         if (!existingRefs.isEmpty()) { // Commit is already tracked.
           // Corner cases where an existing commit might need a new group:
           // A) Existing commit has a null group; wasn't assigned during schema
@@ -1577,8 +1603,8 @@ public class ReceiveCommits {
           continue;
         }
 
-        if (!validCommit(
-            rp.getRevWalk(), magicBranch.ctl, magicBranch.cmd, c)) {
+        validation.submit(c);
+        if (!validation.poll()) {
           // Not a change the user can propose? Abort as early as possible.
           newChanges = Collections.emptyList();
           return;
@@ -1586,6 +1612,10 @@ public class ReceiveCommits {
 
         // Don't allow merges to be uploaded in commit chain via all-not-in-target
         if (newChangeForAllNotInTarget && c.getParentCount() > 1) {
+          if (!validation.drain()) {
+            newChanges = Collections.emptyList();
+            return;
+          }
           reject(magicBranch.cmd,
               "Pushing merges in commit chains with 'all not in target' is not allowed,\n"
             + "to override please set the base manually");
@@ -1600,7 +1630,9 @@ public class ReceiveCommits {
         String idStr = idList.get(idList.size() - 1).trim();
         if (idStr.matches("^I00*$")) {
           // Reject this invalid line from EGit.
-          reject(magicBranch.cmd, "invalid Change-Id");
+          if (validation.drain()) {
+            reject(magicBranch.cmd, "invalid Change-Id");
+          }
           newChanges = Collections.emptyList();
           return;
         }
@@ -1608,6 +1640,10 @@ public class ReceiveCommits {
         pending.add(new ChangeLookup(c, new Change.Key(idStr)));
         if (maxBatchChanges != 0
             && pending.size() + newChanges.size() > maxBatchChanges) {
+          if (!validation.drain()) {
+            newChanges = Collections.emptyList();
+            return;
+          }
           reject(magicBranch.cmd,
               "the number of pushed changes in a batch exceeds the max limit "
                   + maxBatchChanges);
@@ -1615,6 +1651,10 @@ public class ReceiveCommits {
           return;
         }
       }
+      if (!validation.drain()) {
+        newChanges = Collections.emptyList();
+        return;
+      }
 
       for (ChangeLookup p : pending) {
         if (newChangeIds.contains(p.changeKey)) {
@@ -1670,6 +1710,8 @@ public class ReceiveCommits {
       reject(magicBranch.cmd, "database error");
       newChanges = Collections.emptyList();
       return;
+    } finally {
+      validation.cancel();
     }
 
     if (newChanges.isEmpty() && replaceByChange.isEmpty()) {
@@ -1953,9 +1995,12 @@ public class ReceiveCommits {
       this.newCommitId = newCommit.copy();
       this.inputCommand = cmd;
       this.checkMergedInto = checkMergedInto;
+      readRevisions();
+    }
 
+    private void readRevisions() {
       revisions = HashBiMap.create();
-      for (Ref ref : refs(toChange)) {
+      for (Ref ref : refs(ontoChange)) {
         try {
           revisions.forcePut(
               rp.getRevWalk().parseCommit(ref.getObjectId()),
@@ -1977,6 +2022,13 @@ public class ReceiveCommits {
       }
 
       priorPatchSet = change.currentPatchSetId();
+      if (!autoClose && !revisions.containsValue(priorPatchSet)
+          && allRefs.containsKey(priorPatchSet.toRefName())) {
+        // The ref was written without an event reaching the change ref cache.
+        changeRefs = changeRefCache.get(
+            project.getNameKey(), rp.getRepository(), priorPatchSet);
+        readRevisions();
+      }
       if (!revisions.containsValue(priorPatchSet)) {
         reject(inputCommand, "change " + ontoChange + " missing revisions");
         return false;
@@ -2007,9 +2059,9 @@ public class ReceiveCommits {
         return false;
       }
 
-      for (Ref r : rp.getRepository().getRefDatabase()
-          .getRefs("refs/changes").values()) {
-        if (r.getObjectId().equals(newCommit)) {
+      for (PatchSet.Id psId : changeRefs.byCommit(newCommit)) {
+        Ref r = rp.getRepository().exactRef(psId.toRefName());
+        if (r != null && newCommit.equals(r.getObjectId())) {
           reject(inputCommand, "commit already exists (in the project)");
           return false;
         }
@@ -2261,38 +2313,33 @@ public class ReceiveCommits {
     }
   }
 
-  private List<Ref> refs(Change.Id changeId) {
-    return refsByChange().get(changeId);
-  }
-
-  private void initChangeRefMaps() {
-    if (refsByChange == null) {
-      int estRefsPerChange = 4;
-      refsById = HashMultimap.create();
-      refsByChange = ArrayListMultimap.create(
-          allRefs.size() / estRefsPerChange,
-          estRefsPerChange);
-      for (Ref ref : allRefs.values()) {
-        ObjectId obj = ref.getObjectId();
-        if (obj != null) {
-          PatchSet.Id psId = PatchSet.Id.fromRef(ref.getName());
-          if (psId != null) {
-            refsById.put(obj, ref);
-            refsByChange.put(psId.getParentKey(), ref);
-          }
-        }
-      }
+  private void loadChangeRefs() throws IOException {
+    if (changeRefs == null) {
+      changeRefs = changeRefCache.get(project.getNameKey(), repo);
     }
   }
 
-  private ListMultimap<Change.Id, Ref> refsByChange() {
-    initChangeRefMaps();
-    return refsByChange;
+  private List<Ref> refs(Change.Id changeId) {
+    List<Ref> refs = new ArrayList<>();
+    for (PatchSet.Id psId : changeRefs.byChange(changeId)) {
+      Ref ref = allRefs.get(psId.toRefName());
+      if (ref != null && ref.getObjectId() != null) {
+        refs.add(ref);
+      }
+    }
+    return refs;
   }
 
-  private SetMultimap<ObjectId, Ref> changeRefsById() {
-    initChangeRefMaps();
-    return refsById;
+  private List<Ref> changeRefsById(ObjectId id) {
+    // The cache may be ahead of or behind the refs this push started with.
+    List<Ref> refs = new ArrayList<>();
+    for (PatchSet.Id psId : changeRefs.byCommit(id)) {
+      Ref ref = allRefs.get(psId.toRefName());
+      if (ref != null && id.equals(ref.getObjectId())) {
+        refs.add(ref);
+      }
+    }
+    return refs;
   }
 
   static boolean parentsEqual(RevCommit a, RevCommit b) {
@@ -2355,9 +2402,9 @@ public class ReceiveCommits {
       }
       walk.markStart((RevCommit)parsedObject);
       markHeadsAsUninteresting(walk, cmd.getRefName());
-      Set<ObjectId> existing = changeRefsById().keySet();
+      loadChangeRefs();
       for (RevCommit c; (c = walk.next()) != null;) {
-        if (existing.contains(c)) {
+        if (!changeRefsById(c).isEmpty()) {
           continue;
         } else if (!validCommit(walk, ctl, cmd, c)) {
           break;
@@ -2392,7 +2439,25 @@ public class ReceiveCommits {
     if (validCommits.contains(id)) {
       return true;
     }
+    return accept(cmd, validate(rw, rejectCommits, ctl, cmd, id));
+  }
+
+  /** Result of validating a commit, to be applied by {@link #accept}. */
+  private static class CommitValidation {
+    final ObjectId commit;
+    final List<CommitValidationMessage> messages;
+    final String error;
+
+    CommitValidation(ObjectId commit, List<CommitValidationMessage> messages,
+        @Nullable String error) {
+      this.commit = commit;
+      this.messages = messages;
+      this.error = error;
+    }
+  }
 
+  private CommitValidation validate(RevWalk rw, NoteMap rejectCommits,
+      RefControl ctl, ReceiveCommand cmd, ObjectId id) throws IOException {
     RevCommit c = rw.parseCommit(id);
     rw.parseBody(c);
     CommitReceivedEvent receiveEvent =
@@ -2401,17 +2466,154 @@ public class ReceiveCommits {
         commitValidatorsFactory.create(ctl, sshInfo, repo);
 
     try {
-      messages.addAll(commitValidators.validateForReceiveCommits(
-          receiveEvent, rejectCommits));
+      return new CommitValidation(c.copy(),
+          commitValidators.validateForReceiveCommits(
+              receiveEvent, rejectCommits),
+          null);
     } catch (CommitValidationException e) {
-      messages.addAll(e.getMessages());
-      reject(cmd, e.getMessage());
+      return new CommitValidation(c.copy(), e.getMessages(), e.getMessage());
+    }
+  }
+
+  private boolean accept(ReceiveCommand cmd, CommitValidation result) {
+    messages.addAll(result.messages);
+    if (result.error != null) {
+      reject(cmd, result.error);
       return false;
     }
-    validCommits.add(c.copy());
+    validCommits.add(result.commit);
     return true;
   }
 
+  /**
+   * Validates commits on the {@link CommitValidationExecutor} while the caller
+   * keeps walking.
+   * <p>
+   * Results are applied in the order the commits were submitted, so messages
+   * and the first rejection are the same as when validating one commit at a
+   * time. Each validation parses its commit with its own {@link RevWalk}, as
+   * walks and readers must not be shared between threads.
+   * <p>
+   * Once a commit is rejected, commits after it are neither submitted nor
+   * validated, but validators may already have run for those that were
+   * validated concurrently with the rejected one.
+   * <p>
+   * With a single validation thread there is nothing to overlap, so commits
+   * are validated as they are submitted, with the walk of the push and the
+   * banned commits it already loaded.
+   */
+  private class ValidationPipeline {
+    private final RefControl ctl;
+    private final ReceiveCommand cmd;
+    private final Deque<ListenableFuture<CommitValidation>> pending =
+        new ArrayDeque<>();
+    private final AtomicInteger firstRejected =
+        new AtomicInteger(Integer.MAX_VALUE);
+    private int submitted;
+    private boolean rejected;
+
+    ValidationPipeline(RefControl ctl, ReceiveCommand cmd) {
+      this.ctl = ctl;
+      this.cmd = cmd;
+    }
+
+    void submit(ObjectId id) throws IOException {
+      if (validCommits.contains(id)) {
+        return;
+      }
+      if (!receiveConfig.parallelCommitValidation) {
+        rejected |= !validCommit(rp.getRevWalk(), ctl, cmd, id);
+        return;
+      }
+      if (firstRejected.get() < submitted) {
+        return;
+      }
+      final ObjectId commit = id.copy();
+      final int index = submitted++;
+      pending.add(commitValidationExecutor.submit(
+          requestScopePropagator.wrap(new Callable<CommitValidation>() {
+        @Override
+        public CommitValidation call() throws IOException {
+          if (firstRejected.get() < index) {
+            // Never applied, results stop at the earlier rejection.
+            return null;
+          }
+          CommitValidation result;
+          try (RevWalk rw = new RevWalk(repo)) {
+            result = validate(rw, BanCommit.loadRejectCommitsMap(repo, rw),
+                ctl, cmd, commit);
+          }
+          if (result.error != null) {
+            rejectedAt(index);
+          }
+          return result;
+        }
+      })));
+    }
+
+    private void rejectedAt(int index) {
+      int first;
+      do {
+        first = firstRejected.get();
+      } while (index < first && !firstRejected.compareAndSet(first, index));
+    }
+
+    /**
+     * Apply the results that are already available.
+     *
+     * @return false if a commit was rejected.
+     */
+    boolean poll() throws IOException {
+      if (rejected) {
+        return false;
+      }
+      while (!pending.isEmpty() && pending.peek().isDone()) {
+        if (!accept(cmd, take())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Wait for and apply all outstanding results.
+     *
+     * @return false if a commit was rejected.
+     */
+    boolean drain() throws IOException {
+      if (rejected) {
+        return false;
+      }
+      while (!pending.isEmpty()) {
+        if (!accept(cmd, take())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void cancel() {
+      for (ListenableFuture<CommitValidation> f : pending) {
+        f.cancel(true);
+      }
+      pending.clear();
+    }
+
+    private CommitValidation take() throws IOException {
+      try {
+        return pending.remove().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        // Unchecked failures of a validator are rethrown as they are.
+        Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.propagateIfPossible(e.getCause());
+        throw new IOException(e.getCause());
+      }
+    }
+  }
+
   private void autoCloseChanges(final ReceiveCommand cmd) {
     RevWalk rw = rp.getRevWalk();
     try {
@@ -2425,13 +2627,13 @@ public class ReceiveCommits {
         rw.markUninteresting(rw.parseCommit(cmd.getOldId()));
       }
 
-      SetMultimap<ObjectId, Ref> byCommit = changeRefsById();
+      loadChangeRefs();
       Map<Change.Key, Change> byKey = null;
       List<ReplaceRequest> toClose = new ArrayList<>();
       for (RevCommit c; (c = rw.next()) != null;) {
         rw.parseBody(c);
 
-        for (Ref ref : byCommit.get(c.copy())) {
+        for (Ref ref : changeRefsById(c)) {
           Change.Key closedChange =
               closeChange(cmd, PatchSet.Id.fromRef(ref.getName()), c);
           closeProgress.update(1);
@@ -77,4 +77,26 @@ public class ReceiveCommitsExecutorModule extends AbstractModule {
                 .build(),
               new ThreadPoolExecutor.CallerRunsPolicy())));
   }
+
+  @Provides
+  @Singleton
+  @CommitValidationExecutor
+  public ListeningExecutorService createCommitValidationExecutor(
+      @GerritServerConfig Config config) {
+    int poolSize =
+        config.getInt("receive", null, "commitValidationThreads", 1);
+    if (poolSize <= 1) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    return MoreExecutors.listeningDecorator(
+        MoreExecutors.getExitingExecutorService(
+          new ThreadPoolExecutor(poolSize, poolSize,
+              10, TimeUnit.MINUTES,
+              new ArrayBlockingQueue<Runnable>(poolSize),
+              new ThreadFactoryBuilder()
+                .setNameFormat("CommitValidation-%d")
+                .setDaemon(true)
+                .build(),
+              new ThreadPoolExecutor.CallerRunsPolicy())));
+  }
 }
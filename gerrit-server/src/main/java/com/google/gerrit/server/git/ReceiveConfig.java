@@ -28,6 +28,7 @@ class ReceiveConfig {
   final boolean checkMagicRefs;
   final boolean checkReferencedObjectsAreReachable;
   final boolean allowDrafts;
+  final boolean parallelCommitValidation;
   private final int systemMaxBatchChanges;
 
   @Inject
@@ -42,6 +43,9 @@ class ReceiveConfig {
         "change", null, "allowDrafts",
         true);
     systemMaxBatchChanges = config.getInt("receive", "maxBatchChanges", 0);
+    parallelCommitValidation = config.getInt(
+        "receive", null, "commitValidationThreads",
+        1) > 1;
   }
 
   public int getEffectiveMaxBatchChangesLimit(CurrentUser user) {
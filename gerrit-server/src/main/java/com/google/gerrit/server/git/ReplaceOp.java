@@ -45,6 +45,7 @@ import com.google.gerrit.server.mail.MailUtil.MailRecipients;
 import com.google.gerrit.server.mail.MergedSender;
 import com.google.gerrit.server.mail.ReplacePatchSetSender;
 import com.google.gerrit.server.notedb.ChangeUpdate;
+import com.google.gerrit.server.patch.PatchListWarmer;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.ProjectControl;
@@ -104,6 +105,7 @@ public class ReplaceOp extends BatchUpdate.Op {
   private final ExecutorService sendEmailExecutor;
   private final ReplacePatchSetSender.Factory replacePatchSetFactory;
   private final MergedSender.Factory mergedSenderFactory;
+  private final PatchListWarmer patchListWarmer;
 
   private final RequestScopePropagator requestScopePropagator;
   private final ProjectControl projectControl;
@@ -139,6 +141,7 @@ public class ReplaceOp extends BatchUpdate.Op {
       @SendEmailExecutor ExecutorService sendEmailExecutor,
       ReplacePatchSetSender.Factory replacePatchSetFactory,
       MergedSender.Factory mergedSenderFactory,
+      PatchListWarmer patchListWarmer,
       @Assisted RequestScopePropagator requestScopePropagator,
       @Assisted ProjectControl projectControl,
       @Assisted boolean checkMergedInto,
@@ -162,6 +165,7 @@ public class ReplaceOp extends BatchUpdate.Op {
     this.sendEmailExecutor = sendEmailExecutor;
     this.replacePatchSetFactory = replacePatchSetFactory;
     this.mergedSenderFactory = mergedSenderFactory;
+    this.patchListWarmer = patchListWarmer;
 
     this.requestScopePropagator = requestScopePropagator;
     this.projectControl = projectControl;
@@ -336,6 +340,9 @@ public class ReplaceOp extends BatchUpdate.Op {
 
   @Override
   public void postUpdate(final Context ctx) throws Exception {
+    if (newPatchSet != null) {
+      patchListWarmer.warm(change, newPatchSet);
+    }
     if (changeKind != ChangeKind.TRIVIAL_REBASE) {
       Runnable sender = new Runnable() {
         @Override
@@ -16,20 +16,31 @@ package com.google.gerrit.server.git;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.AccountGroup;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.extensions.events.ChangeIndexedListener;
+import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
 import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Provider;
@@ -37,20 +48,26 @@ import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 
+import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 @Singleton
-public class SearchingChangeCacheImpl
-    implements ChangeCache, GitReferenceUpdatedListener {
+public class SearchingChangeCacheImpl implements ChangeCache,
+    GitReferenceUpdatedListener, ChangeIndexedListener {
   private static final Logger log =
       LoggerFactory.getLogger(SearchingChangeCacheImpl.class);
   static final String ID_CACHE = "changes";
+  static final String VISIBLE_CACHE = "changes_visible";
 
   public static Module module() {
     return new CacheModule() {
@@ -62,6 +79,10 @@ public class SearchingChangeCacheImpl
             new TypeLiteral<List<CachedChange>>() {})
           .maximumWeight(0)
           .loader(Loader.class);
+        cache(VISIBLE_CACHE,
+            VisibleKey.class,
+            VisibleChanges.class)
+          .maximumWeight(0);
       }
     };
   }
@@ -75,15 +96,91 @@ public class SearchingChangeCacheImpl
     @Nullable abstract ReviewerSet reviewers();
   }
 
+  /**
+   * Key of the changes of a project visible to a user.
+   * <p>
+   * Includes the {@code refs/meta/config} revisions of the project and all
+   * its parents, so updated access rights anywhere in the hierarchy lead to a
+   * different key instead of requiring entries of other projects to be
+   * dropped.
+   */
+  @AutoValue
+  abstract static class VisibleKey {
+    @Nullable
+    static VisibleKey create(ProjectState state, CurrentUser user) {
+      Account.Id accountId;
+      if (user.isIdentifiedUser()) {
+        accountId = user.getAccountId();
+      } else if (user instanceof AnonymousUser) {
+        accountId = null;
+      } else {
+        // Internal and plugin users may bypass group based access checks,
+        // don't share their results with anyone else.
+        return null;
+      }
+      ImmutableList.Builder<ObjectId> configRevisions = ImmutableList.builder();
+      for (ProjectState p : state.tree()) {
+        ObjectId rev = p.getConfig().getRevision();
+        if (rev == null) {
+          return null;
+        }
+        configRevisions.add(rev.copy());
+      }
+      return new AutoValue_SearchingChangeCacheImpl_VisibleKey(
+          state.getProject().getNameKey(), configRevisions.build(), accountId,
+          ImmutableSet.copyOf(user.getEffectiveGroups().getKnownGroups()));
+    }
+
+    abstract Project.NameKey project();
+    abstract ImmutableList<ObjectId> configRevisions();
+    @Nullable abstract Account.Id accountId();
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+  }
+
+  /**
+   * Changes of one project visible to one user.
+   * <p>
+   * Updates to individual changes only mark the change as stale; its
+   * visibility is checked again on the next lookup instead of discarding the
+   * whole set.
+   */
+  static class VisibleChanges {
+    private final Set<Change.Id> stale = Sets.newConcurrentHashSet();
+    private Set<Change.Id> visible;
+
+    void markStale(Change.Id id) {
+      stale.add(id);
+    }
+  }
+
+  /** Visibility check for changes of a single project. */
+  interface ChangeVisibility {
+    boolean isVisible(ChangeData cd) throws OrmException;
+  }
+
   private final LoadingCache<Project.NameKey, List<CachedChange>> cache;
+  private final Cache<VisibleKey, VisibleChanges> visibleCache;
   private final ChangeData.Factory changeDataFactory;
+  private final Provider<InternalChangeQuery> queryProvider;
+
+  /**
+   * Keys of {@link #visibleCache} by project, so that updates to a change
+   * only visit entries of its own project. Keys of evicted entries are
+   * removed lazily when the project is next visited.
+   */
+  private final ConcurrentMap<Project.NameKey, Set<VisibleKey>> visibleKeys =
+      new ConcurrentHashMap<>();
 
   @Inject
   SearchingChangeCacheImpl(
       @Named(ID_CACHE) LoadingCache<Project.NameKey, List<CachedChange>> cache,
-      ChangeData.Factory changeDataFactory) {
+      @Named(VISIBLE_CACHE) Cache<VisibleKey, VisibleChanges> visibleCache,
+      ChangeData.Factory changeDataFactory,
+      Provider<InternalChangeQuery> queryProvider) {
     this.cache = cache;
+    this.visibleCache = visibleCache;
     this.changeDataFactory = changeDataFactory;
+    this.queryProvider = queryProvider;
   }
 
   @Override
@@ -121,10 +218,152 @@ public class SearchingChangeCacheImpl
     }
   }
 
+  /**
+   * Get the changes of a project that are visible to a user.
+   * <p>
+   * The first lookup for a project and group membership checks every change
+   * of the project; later lookups only check changes that were updated or
+   * reindexed since the previous lookup.
+   */
+  Set<Change.Id> getVisibleChanges(ReviewDb db, ProjectState state,
+      CurrentUser user, ChangeVisibility visibility) throws OrmException {
+    Project.NameKey project = state.getProject().getNameKey();
+    VisibleKey key = VisibleKey.create(state, user);
+    if (key == null) {
+      return filterVisible(getChangeData(db, project), visibility);
+    }
+
+    VisibleChanges v = new VisibleChanges();
+    VisibleChanges old = visibleCache.asMap().putIfAbsent(key, v);
+    if (old != null) {
+      v = old;
+    } else {
+      keysOf(project).add(key);
+    }
+    synchronized (v) {
+      try {
+        if (v.visible == null) {
+          // Stale markers collected while loading are applied below.
+          v.visible = filterVisible(getChangeData(db, project), visibility);
+        }
+        if (!v.stale.isEmpty()) {
+          refreshStale(v, project, visibility);
+        }
+      } catch (OrmException | RuntimeException e) {
+        visibleCache.invalidate(key);
+        throw e;
+      }
+      return ImmutableSet.copyOf(v.visible);
+    }
+  }
+
+  private void refreshStale(VisibleChanges v, Project.NameKey project,
+      ChangeVisibility visibility) throws OrmException {
+    Set<Change.Id> ids = new HashSet<>(v.stale);
+    v.stale.removeAll(ids);
+    for (ChangeData cd : queryProvider.get().byLegacyChangeIds(ids)) {
+      if (cd.change().getProject().equals(project)) {
+        ids.remove(cd.getId());
+        if (visibility.isVisible(cd)) {
+          v.visible.add(cd.getId());
+        } else {
+          v.visible.remove(cd.getId());
+        }
+      }
+    }
+    // Remaining changes were deleted or are no longer in this project.
+    v.visible.removeAll(ids);
+  }
+
+  private static Set<Change.Id> filterVisible(List<ChangeData> cds,
+      ChangeVisibility visibility) throws OrmException {
+    Set<Change.Id> visible = new HashSet<>();
+    for (ChangeData cd : cds) {
+      if (visibility.isVisible(cd)) {
+        visible.add(cd.getId());
+      }
+    }
+    return visible;
+  }
+
   @Override
   public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    Project.NameKey project = new Project.NameKey(event.getProjectName());
     if (event.getRefName().startsWith(RefNames.REFS_CHANGES)) {
-      cache.invalidate(new Project.NameKey(event.getProjectName()));
+      cache.invalidate(project);
+      Change.Id id = Change.Id.fromRef(event.getRefName());
+      if (id != null) {
+        markStale(project, id);
+      }
+    } else if (event.getRefName().equals(RefNames.REFS_CONFIG)) {
+      // Entries of this project and of projects inheriting from it are keyed
+      // by the old revision and are no longer looked up; free the ones of
+      // this project right away and let the others age out.
+      Set<VisibleKey> keys = visibleKeys.remove(project);
+      if (keys != null) {
+        visibleCache.invalidateAll(keys);
+      }
+    }
+  }
+
+  @Override
+  public void onChangeIndexed(ChangeData cd) {
+    // Covers updates that are not reflected in a ref, e.g. reviewers added to
+    // a draft change while NoteDb is disabled.
+    Project.NameKey project;
+    try {
+      project = cd.project();
+    } catch (OrmException e) {
+      project = null;
+    }
+    markStale(project, cd.getId());
+  }
+
+  @Override
+  public void onChangeDeleted(Change.Id id) {
+    markStale(null, id);
+  }
+
+  private Set<VisibleKey> keysOf(Project.NameKey project) {
+    Set<VisibleKey> keys = visibleKeys.get(project);
+    if (keys == null) {
+      keys = Sets.newConcurrentHashSet();
+      Set<VisibleKey> old = visibleKeys.putIfAbsent(project, keys);
+      if (old != null) {
+        keys = old;
+      }
+    }
+    return keys;
+  }
+
+  private void markStale(@Nullable Project.NameKey project, Change.Id id) {
+    if (project != null) {
+      markStale(visibleKeys.get(project), id);
+    } else {
+      // Project of the change is unknown, e.g. it was deleted. This is rare
+      // enough to visit all projects.
+      for (Set<VisibleKey> keys : visibleKeys.values()) {
+        markStale(keys, id);
+      }
+    }
+  }
+
+  private void markStale(@Nullable Set<VisibleKey> keys, Change.Id id) {
+    if (keys == null) {
+      return;
+    }
+    for (VisibleKey key : keys) {
+      VisibleChanges v = visibleCache.getIfPresent(key);
+      if (v == null) {
+        keys.remove(key);
+        // The entry may have been loaded again concurrently.
+        v = visibleCache.getIfPresent(key);
+        if (v == null) {
+          continue;
+        }
+        keys.add(key);
+      }
+      v.markStale(id);
     }
   }
 
@@ -214,15 +214,15 @@ public class VisibleRefFilter extends AbstractAdvertiseRefsHook {
   private Set<Change.Id> visibleChangesBySearch() {
     Project project = projectCtl.getProject();
     try {
-      Set<Change.Id> visibleChanges = new HashSet<>();
-      for (ChangeData cd : changeCache.getChangeData(
-          reviewDb, project.getNameKey())) {
-        if (projectCtl.controlForIndexedChange(cd.change())
-            .isVisible(reviewDb, cd)) {
-          visibleChanges.add(cd.getId());
-        }
-      }
-      return visibleChanges;
+      return changeCache.getVisibleChanges(reviewDb,
+          projectCtl.getProjectState(), projectCtl.getUser(),
+          new SearchingChangeCacheImpl.ChangeVisibility() {
+            @Override
+            public boolean isVisible(ChangeData cd) throws OrmException {
+              return projectCtl.controlForIndexedChange(cd.change())
+                  .isVisible(reviewDb, cd);
+            }
+          });
     } catch (OrmException e) {
       log.error("Cannot load changes for project " + project.getName()
           + ", assuming no changes are visible", e);
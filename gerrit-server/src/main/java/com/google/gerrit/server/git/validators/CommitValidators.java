@@ -26,6 +26,10 @@ import com.google.gerrit.common.FooterConstants;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.PageLinks;
 import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.GerritPersonIdent;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.config.CanonicalWebUrl;
@@ -39,6 +43,7 @@ import com.google.gerrit.server.project.RefControl;
 import com.google.gerrit.server.ssh.SshInfo;
 import com.google.gerrit.server.util.MagicBranch;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.assistedinject.Assisted;
 
 import com.jcraft.jsch.HostKey;
@@ -84,6 +89,21 @@ public class CommitValidators {
         Repository repo);
   }
 
+  @Singleton
+  static class Metrics {
+    final Timer1<String> validationLatency;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      validationLatency = metricMaker.newTimer(
+          "validation/commit_latency",
+          new Description("Latency of validating a commit by validator")
+            .setCumulative()
+            .setUnit(Description.Units.MILLISECONDS),
+          Field.ofString("validator"));
+    }
+  }
+
   private final PersonIdent gerritIdent;
   private final RefControl refControl;
   private final String canonicalWebUrl;
@@ -92,6 +112,7 @@ public class CommitValidators {
   private final Repository repo;
   private final ChangeHooks hooks;
   private final DynamicSet<CommitValidationListener> commitValidationListeners;
+  private final Metrics metrics;
 
   @Inject
   CommitValidators(@GerritPersonIdent final PersonIdent gerritIdent,
@@ -99,6 +120,7 @@ public class CommitValidators {
       @GerritServerConfig final Config config,
       final DynamicSet<CommitValidationListener> commitValidationListeners,
       final ChangeHooks hooks,
+      final Metrics metrics,
       @Assisted final SshInfo sshInfo,
       @Assisted final Repository repo, @Assisted final RefControl refControl) {
     this.gerritIdent = gerritIdent;
@@ -110,6 +132,7 @@ public class CommitValidators {
     this.repo = repo;
     this.hooks = hooks;
     this.commitValidationListeners = commitValidationListeners;
+    this.metrics = metrics;
   }
 
   public List<CommitValidationMessage> validateForReceiveCommits(
@@ -132,21 +155,11 @@ public class CommitValidators {
     }
     validators.add(new ConfigValidator(refControl, repo));
     validators.add(new BannedCommitsValidator(rejectCommits));
-    validators.add(new PluginCommitValidationListener(commitValidationListeners));
+    validators.add(new PluginCommitValidationListener(
+        commitValidationListeners, metrics.validationLatency));
     validators.add(new ChangeHookValidator(hooks));
 
-    List<CommitValidationMessage> messages = new LinkedList<>();
-
-    try {
-      for (CommitValidationListener commitValidator : validators) {
-        messages.addAll(commitValidator.onCommitReceived(receiveEvent));
-      }
-    } catch (CommitValidationException e) {
-      // Keep the old messages (and their order) in case of an exception
-      messages.addAll(e.getMessages());
-      throw new CommitValidationException(e.getMessage(), messages);
-    }
-    return messages;
+    return validate(validators, receiveEvent);
   }
 
   public List<CommitValidationMessage> validateForGerritCommits(
@@ -166,14 +179,29 @@ public class CommitValidators {
           installCommitMsgHookCommand, sshInfo));
     }
     validators.add(new ConfigValidator(refControl, repo));
-    validators.add(new PluginCommitValidationListener(commitValidationListeners));
+    validators.add(new PluginCommitValidationListener(
+        commitValidationListeners, metrics.validationLatency));
     validators.add(new ChangeHookValidator(hooks));
 
+    return validate(validators, receiveEvent);
+  }
+
+  private List<CommitValidationMessage> validate(
+      List<CommitValidationListener> validators,
+      CommitReceivedEvent receiveEvent) throws CommitValidationException {
     List<CommitValidationMessage> messages = new LinkedList<>();
 
     try {
       for (CommitValidationListener commitValidator : validators) {
-        messages.addAll(commitValidator.onCommitReceived(receiveEvent));
+        if (commitValidator instanceof PluginCommitValidationListener) {
+          // Times each plugin validator separately.
+          messages.addAll(commitValidator.onCommitReceived(receiveEvent));
+          continue;
+        }
+        try (Timer1.Context ignored = metrics.validationLatency.start(
+            commitValidator.getClass().getSimpleName())) {
+          messages.addAll(commitValidator.onCommitReceived(receiveEvent));
+        }
       }
     } catch (CommitValidationException e) {
       // Keep the old messages (and their order) in case of an exception
@@ -393,10 +421,18 @@ public class CommitValidators {
   public static class PluginCommitValidationListener implements
       CommitValidationListener {
     private final DynamicSet<CommitValidationListener> commitValidationListeners;
+    private final Timer1<String> latency;
 
     public PluginCommitValidationListener(
         final DynamicSet<CommitValidationListener> commitValidationListeners) {
+      this(commitValidationListeners, null);
+    }
+
+    PluginCommitValidationListener(
+        DynamicSet<CommitValidationListener> commitValidationListeners,
+        @Nullable Timer1<String> latency) {
       this.commitValidationListeners = commitValidationListeners;
+      this.latency = latency;
     }
 
     @Override
@@ -405,11 +441,18 @@ public class CommitValidators {
       List<CommitValidationMessage> messages = new LinkedList<>();
 
       for (CommitValidationListener validator : commitValidationListeners) {
+        Timer1.Context timer = latency != null
+            ? latency.start(validator.getClass().getName())
+            : null;
         try {
           messages.addAll(validator.onCommitReceived(receiveEvent));
         } catch (CommitValidationException e) {
           messages.addAll(e.getMessages());
           throw new CommitValidationException(e.getMessage(), messages);
+        } finally {
+          if (timer != null) {
+            timer.close();
+          }
         }
       }
       return messages;
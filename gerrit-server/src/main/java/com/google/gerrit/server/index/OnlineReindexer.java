@@ -32,15 +32,29 @@ public class OnlineReindexer<K, V, I extends Index<K, V>> {
   private final IndexCollection<K, V, I> indexes;
   private final SiteIndexer<K, V, I> batchIndexer;
   private final int version;
+  private final SiteIndexer.Checkpoints checkpoints;
   private I index;
   private final AtomicBoolean running = new AtomicBoolean();
 
   public OnlineReindexer(
       IndexDefinition<K, V, I> def,
       int version) {
+    this(def, version, SiteIndexer.Checkpoints.NONE);
+  }
+
+  /**
+   * @param checkpoints progress of an earlier reindex to the same version
+   *     that was interrupted, e.g. by a server restart. Work recorded there is
+   *     not repeated, and progress of this run is recorded for the next one.
+   */
+  public OnlineReindexer(
+      IndexDefinition<K, V, I> def,
+      int version,
+      SiteIndexer.Checkpoints checkpoints) {
     this.indexes = def.getIndexCollection();
     this.batchIndexer = def.getSiteIndexer();
     this.version = version;
+    this.checkpoints = checkNotNull(checkpoints);
   }
 
   public void start() {
@@ -78,7 +92,19 @@ public class OnlineReindexer<K, V, I extends Index<K, V>> {
         "not an active write schema version: %s", version);
     log.info("Starting online reindex from schema version {} to {}",
         version(indexes.getSearchIndex()), version(index));
-    SiteIndexer.Result result = batchIndexer.indexAll(index);
+    SiteIndexer.Result result;
+    batchIndexer.setCheckpoints(checkpoints);
+    try {
+      result = batchIndexer.indexAll(index);
+    } finally {
+      batchIndexer.setCheckpoints(SiteIndexer.Checkpoints.NONE);
+      try {
+        checkpoints.flush();
+      } catch (IOException e) {
+        log.warn("Error saving reindex checkpoints of schema version {}",
+            version(index), e);
+      }
+    }
     if (!result.success()) {
       log.error("Online reindex of schema version {} failed. Successfully"
           + " indexed {} changes, failed to index {} changes",
@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
 
 import java.util.Set;
 
@@ -25,10 +26,15 @@ import java.util.Set;
 public abstract class QueryOptions {
   public static QueryOptions create(IndexConfig config, int start, int limit,
       Set<String> fields) {
+    return create(config, start, limit, fields, null);
+  }
+
+  private static QueryOptions create(IndexConfig config, int start, int limit,
+      Set<String> fields, @Nullable String searchAfter) {
     checkArgument(start >= 0, "start must be nonnegative: %s", start);
     checkArgument(limit > 0, "limit must be positive: %s", limit);
     return new AutoValue_QueryOptions(config, start, limit,
-        ImmutableSet.copyOf(fields));
+        ImmutableSet.copyOf(fields), searchAfter);
   }
 
   public abstract IndexConfig config();
@@ -36,11 +42,22 @@ public abstract class QueryOptions {
   public abstract int limit();
   public abstract ImmutableSet<String> fields();
 
+  /**
+   * @return opaque token identifying the last result of a previous page; if
+   *     set, only results sorted after it are returned, and {@link #start()}
+   *     counts from there.
+   */
+  @Nullable public abstract String searchAfter();
+
   public QueryOptions withLimit(int newLimit) {
-    return create(config(), start(), newLimit, fields());
+    return create(config(), start(), newLimit, fields(), searchAfter());
   }
 
   public QueryOptions withStart(int newStart) {
-    return create(config(), newStart, limit(), fields());
+    return create(config(), newStart, limit(), fields(), searchAfter());
+  }
+
+  public QueryOptions withSearchAfter(@Nullable String newSearchAfter) {
+    return create(config(), start(), limit(), fields(), newSearchAfter);
   }
 }
@@ -19,6 +19,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.common.Nullable;
 
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.util.io.NullOutputStream;
@@ -26,7 +27,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.OutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.sql.Timestamp;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -64,10 +67,46 @@ public abstract class SiteIndexer<K, V, I extends Index<K, V>> {
     }
   }
 
+  /**
+   * Progress of a previous run of {@link SiteIndexer#indexAll(Index)} that
+   * did not complete, so that a new run can resume where it stopped.
+   */
+  public interface Checkpoints {
+    Checkpoints NONE = new Checkpoints() {
+      @Override
+      public Timestamp get(String key) {
+        return null;
+      }
+
+      @Override
+      public void put(String key, Timestamp since) {
+      }
+
+      @Override
+      public void flush() {
+      }
+    };
+
+    /**
+     * @return time at which indexing of the unit of work {@code key} (e.g. a
+     *     project) started in a run that fully indexed it; only objects
+     *     modified after this time need to be indexed again. Null if the unit
+     *     was never fully indexed.
+     */
+    @Nullable Timestamp get(String key);
+
+    /** Record that the unit of work {@code key} was fully indexed. */
+    void put(String key, Timestamp since) throws IOException;
+
+    /** Persist checkpoints that may not have been written yet. */
+    void flush() throws IOException;
+  }
+
   protected int totalWork = -1;
   protected OutputStream progressOut = NullOutputStream.INSTANCE;
   protected PrintWriter verboseWriter =
       new PrintWriter(NullOutputStream.INSTANCE);
+  protected Checkpoints checkpoints = Checkpoints.NONE;
 
   public void setTotalWork(int num) {
     totalWork = num;
@@ -81,6 +120,10 @@ public abstract class SiteIndexer<K, V, I extends Index<K, V>> {
     verboseWriter = new PrintWriter(checkNotNull(out));
   }
 
+  public void setCheckpoints(Checkpoints checkpoints) {
+    this.checkpoints = checkNotNull(checkpoints);
+  }
+
   public abstract Result indexAll(I index);
 
   protected final void addErrorListener(ListenableFuture<?> future,
@@ -17,18 +17,29 @@ package com.google.gerrit.server.index.change;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
 import static org.eclipse.jgit.lib.RefDatabase.ALL;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Functions;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.config.GerritServerConfig;
@@ -44,12 +55,14 @@ import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gwtorm.server.SchemaFactory;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ProgressMonitor;
@@ -67,9 +80,13 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -78,13 +95,37 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AllChangesIndexer
     extends SiteIndexer<Change.Id, ChangeData, ChangeIndex> {
   private static final Logger log =
       LoggerFactory.getLogger(AllChangesIndexer.class);
 
+  private static final int DEFAULT_SLICE_SIZE = 1000;
+
+  @Singleton
+  static class Metrics {
+    final Counter0 slices;
+    final Counter0 changes;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      slices = metricMaker.newCounter(
+          "reindex/change/slices",
+          new Description("Slices of changes reindexed by the site indexer")
+            .setRate()
+            .setUnit("slices"));
+      changes = metricMaker.newCounter(
+          "reindex/change/changes",
+          new Description("Changes reindexed by the site indexer")
+            .setRate()
+            .setUnit("changes"));
+    }
+  }
+
   private final SchemaFactory<ReviewDb> schemaFactory;
   private final ChangeData.Factory changeDataFactory;
   private final GitRepositoryManager repoManager;
@@ -94,6 +135,8 @@ public class AllChangesIndexer
   private final ProjectCache projectCache;
   private final ThreeWayMergeStrategy mergeStrategy;
   private final AutoMerger autoMerger;
+  private final Metrics metrics;
+  private final int sliceSize;
 
   @Inject
   AllChangesIndexer(SchemaFactory<ReviewDb> schemaFactory,
@@ -104,7 +147,8 @@ public class AllChangesIndexer
       ChangeNotes.Factory notesFactory,
       @GerritServerConfig Config config,
       ProjectCache projectCache,
-      AutoMerger autoMerger) {
+      AutoMerger autoMerger,
+      Metrics metrics) {
     this.schemaFactory = schemaFactory;
     this.changeDataFactory = changeDataFactory;
     this.repoManager = repoManager;
@@ -114,15 +158,20 @@ public class AllChangesIndexer
     this.projectCache = projectCache;
     this.mergeStrategy = MergeUtil.getMergeStrategy(config);
     this.autoMerger = autoMerger;
+    this.metrics = metrics;
+    this.sliceSize = Math.max(1,
+        config.getInt("index", null, "reindexSliceSize", DEFAULT_SLICE_SIZE));
   }
 
   private static class ProjectHolder implements Comparable<ProjectHolder> {
     private Project.NameKey name;
     private int size;
+    private List<Range<Integer>> slices;
 
-    ProjectHolder(Project.NameKey name, int size) {
+    ProjectHolder(Project.NameKey name, Set<Change.Id> ids, int sliceSize) {
       this.name = name;
-      this.size = size;
+      this.size = ids.size();
+      this.slices = slice(ids, sliceSize);
     }
 
     @Override
@@ -134,6 +183,36 @@ public class AllChangesIndexer
     }
   }
 
+  /**
+   * Split changes into ranges of change numbers of at most {@code sliceSize}
+   * changes each, so a single large project is indexed by several tasks.
+   * <p>
+   * The ranges together cover all change numbers, so changes created after
+   * the project was scanned are still indexed by exactly one slice.
+   */
+  @VisibleForTesting
+  static List<Range<Integer>> slice(Set<Change.Id> ids, int sliceSize) {
+    if (ids.size() <= sliceSize) {
+      return ImmutableList.of(Range.<Integer> all());
+    }
+    int[] sorted = new int[ids.size()];
+    int i = 0;
+    for (Change.Id id : ids) {
+      sorted[i++] = id.get();
+    }
+    Arrays.sort(sorted);
+    List<Range<Integer>> slices = new ArrayList<>();
+    Integer lower = null;
+    for (i = sliceSize; i < sorted.length; i += sliceSize) {
+      slices.add(lower == null
+          ? Range.lessThan(sorted[i])
+          : Range.closedOpen(lower, sorted[i]));
+      lower = sorted[i];
+    }
+    slices.add(Range.atLeast(lower));
+    return slices;
+  }
+
   @Override
   public Result indexAll(ChangeIndex index) {
     ProgressMonitor pm = new TextProgressMonitor();
@@ -143,9 +222,9 @@ public class AllChangesIndexer
     Stopwatch sw = Stopwatch.createStarted();
     for (Project.NameKey name : projectCache.all()) {
       try (Repository repo = repoManager.openRepository(name)) {
-        int size = ChangeNotes.Factory.scan(repo).size();
-        changeCount += size;
-        projects.add(new ProjectHolder(name, size));
+        Set<Change.Id> ids = ChangeNotes.Factory.scan(repo);
+        changeCount += ids.size();
+        projects.add(new ProjectHolder(name, ids, sliceSize));
       } catch (IOException e) {
         log.error("Error collecting projects", e);
         return new Result(sw, false, 0, 0);
@@ -174,12 +253,45 @@ public class AllChangesIndexer
     final List<ListenableFuture<?>> futures = new ArrayList<>();
     final AtomicBoolean ok = new AtomicBoolean(true);
 
+    // Projects are sorted largest first and split into slices, so idle threads
+    // pick up the remaining slices of a large project instead of waiting for
+    // a single task to work through all of its changes. Each project is
+    // scanned once, and its slices are submitted when the scan is done.
     for (final ProjectHolder project : projects) {
-      ListenableFuture<?> future = executor.submit(reindexProject(
-          indexerFactory.create(executor, index), project.name, doneTask,
-          failedTask, verboseWriter));
-      addErrorListener(future, "project " + project.name, projTask, ok);
-      futures.add(future);
+      final ProjectStats stats = new ProjectStats(project.name,
+          project.slices.size(), checkpoints.get(project.name.get()));
+      final List<ListenableFuture<?>> slices =
+          new ArrayList<>(project.slices.size());
+      ListenableFuture<ProjectScan> scanned =
+          executor.submit(scanProject(project.name));
+      addErrorListener(scanned, "project " + project.name,
+          NullProgressMonitor.INSTANCE, ok);
+      ListenableFuture<?> projectFuture = Futures.transformAsync(scanned,
+          new AsyncFunction<ProjectScan, List<Object>>() {
+            @Override
+            public ListenableFuture<List<Object>> apply(ProjectScan scan) {
+              if (scan == null) {
+                return Futures.<List<Object>> immediateFuture(
+                    ImmutableList.of());
+              }
+              for (Range<Integer> range : project.slices) {
+                ListenableFuture<?> future = executor.submit(reindexSlice(
+                    indexerFactory.create(executor, index), project.name,
+                    range, scan, stats, doneTask, failedTask, verboseWriter));
+                String desc = project.slices.size() > 1
+                    ? "project " + project.name + " changes " + range
+                    : "project " + project.name;
+                addErrorListener(future, desc, NullProgressMonitor.INSTANCE,
+                    ok);
+                slices.add(future);
+              }
+              return Futures.successfulAsList(slices);
+            }
+          });
+      projectFuture.addListener(
+          new ProjectDoneListener(stats, projectFuture, slices, projTask),
+          MoreExecutors.directExecutor());
+      futures.add(projectFuture);
     }
 
     try {
@@ -209,33 +321,125 @@ public class AllChangesIndexer
     return new Result(sw, ok.get(), doneTask.getCount(), failedTask.getCount());
   }
 
-  private Callable<Void> reindexProject(final ChangeIndexer indexer,
-      final Project.NameKey project, final Task done, final Task failed,
-      final PrintWriter verboseWriter) {
-    return new Callable<Void>() {
+  /** Refs, changes and commit order of a project, shared by its slices. */
+  private static class ProjectScan {
+    private final Map<String, Ref> refs;
+    private final Set<Change.Id> ids;
+    private final Map<ObjectId, Integer> order;
+
+    private ProjectScan(Map<String, Ref> refs, Set<Change.Id> ids,
+        Map<ObjectId, Integer> order) {
+      this.refs = refs;
+      this.ids = ids;
+      this.order = order;
+    }
+  }
+
+  /**
+   * Scan the refs of a project once for all of its slices.
+   * <p>
+   * Walk only branches first to find the patch sets merged into them, so their
+   * commits are indexed in history order without having to mark every single
+   * change.
+   */
+  private Callable<ProjectScan> scanProject(final Project.NameKey project) {
+    return new Callable<ProjectScan>() {
       @Override
-      public Void call() throws Exception {
-        Multimap<ObjectId, ChangeData> byId = ArrayListMultimap.create();
+      public ProjectScan call() throws Exception {
         // TODO(dborowitz): Opening all repositories in a live server may be
         // wasteful; see if we can determine which ones it is safe to close
         // with RepositoryCache.close(repo).
         try (Repository repo = repoManager.openRepository(project);
-            ReviewDb db = schemaFactory.open()) {
+            RevWalk walk = new RevWalk(repo)) {
           Map<String, Ref> refs = repo.getRefDatabase().getRefs(ALL);
-          for (ChangeNotes cn : notesFactory.scan(repo, db, project)) {
-            Ref r = refs.get(cn.getChange().currentPatchSetId().toRefName());
+          Set<Change.Id> ids = new HashSet<>();
+          Set<ObjectId> patchSets = new HashSet<>();
+          for (Ref r : refs.values()) {
+            Change.Id id = Change.Id.fromRef(r.getName());
+            if (id != null) {
+              ids.add(id);
+              if (PatchSet.isChangeRef(r.getName())) {
+                patchSets.add(r.getObjectId());
+              }
+            }
+          }
+
+          for (Ref ref : refs.values()) {
+            if (!ref.getName().startsWith(Constants.R_HEADS)) {
+              continue;
+            }
+            RevObject o = walk.parseAny(ref.getObjectId());
+            if (o instanceof RevCommit) {
+              walk.markStart((RevCommit) o);
+            }
+          }
+          Map<ObjectId, Integer> order = new HashMap<>();
+          RevCommit c;
+          while (order.size() < patchSets.size() && (c = walk.next()) != null) {
+            if (patchSets.contains(c)) {
+              order.put(c.copy(), order.size());
+            }
+          }
+          return new ProjectScan(refs, ids, order);
+        } catch (RepositoryNotFoundException rnfe) {
+          log.error(rnfe.getMessage());
+          return null;
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "Scan changes of project " + project.get();
+      }
+    };
+  }
+
+  private Callable<Void> reindexSlice(final ChangeIndexer indexer,
+      final Project.NameKey project, final Range<Integer> range,
+      final ProjectScan scan, final ProjectStats stats, final Task done,
+      final Task failed, final PrintWriter verboseWriter) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        stats.start();
+        Multimap<ObjectId, ChangeData> byId = ArrayListMultimap.create();
+        try (Repository repo = repoManager.openRepository(project);
+            ReviewDb db = schemaFactory.open()) {
+          List<Change.Id> ids = new ArrayList<>();
+          for (Change.Id id : scan.ids) {
+            if (range.contains(id.get())) {
+              ids.add(id);
+            }
+          }
+          int unmodified = 0;
+          for (ChangeNotes cn :
+              notesFactory.createAll(executor, db, project, ids)) {
+            if (!stats.modifiedSinceCheckpoint(cn.getChange())) {
+              unmodified++;
+              continue;
+            }
+            Ref r = scan.refs.get(
+                cn.getChange().currentPatchSetId().toRefName());
             if (r != null) {
               byId.put(r.getObjectId(), changeDataFactory.create(db, cn));
             }
           }
+          stats.add(byId.size());
+          if (unmodified > 0) {
+            // Already indexed by an earlier, interrupted run.
+            done.update(unmodified);
+          }
           new ProjectIndexer(indexer,
               mergeStrategy,
               autoMerger,
               byId,
+              scan.order,
               repo,
               done,
-              failed,
-              verboseWriter).call();
+              stats.countFailures(failed),
+              verboseWriter,
+              metrics.changes).call();
+          metrics.slices.increment();
         } catch (RepositoryNotFoundException rnfe) {
           log.error(rnfe.getMessage());
         }
@@ -244,61 +448,192 @@ public class AllChangesIndexer
 
       @Override
       public String toString() {
-        return "Index all changes of project " + project.get();
+        return "Index changes " + range + " of project " + project.get();
       }
     };
   }
 
+  /** Progress and throughput of one project, shared by all of its slices. */
+  private static class ProjectStats {
+    private final Project.NameKey project;
+    private final int slices;
+    private final Timestamp checkpoint;
+    private final Timestamp started;
+    private final Stopwatch sw;
+    private final AtomicInteger changes;
+    private final AtomicInteger failed;
+
+    private ProjectStats(Project.NameKey project, int slices,
+        @Nullable Timestamp checkpoint) {
+      this.project = project;
+      this.slices = slices;
+      this.checkpoint = checkpoint;
+      this.started = TimeUtil.nowTs();
+      this.sw = Stopwatch.createUnstarted();
+      this.changes = new AtomicInteger();
+      this.failed = new AtomicInteger();
+    }
+
+    private boolean modifiedSinceCheckpoint(Change c) {
+      return checkpoint == null || c.getLastUpdatedOn().after(checkpoint);
+    }
+
+    private void start() {
+      synchronized (sw) {
+        if (!sw.isRunning()) {
+          sw.start();
+        }
+      }
+    }
+
+    private void add(int n) {
+      changes.addAndGet(n);
+    }
+
+    /** Wrap a progress monitor to also count failures of this project. */
+    private ProgressMonitor countFailures(final ProgressMonitor failed) {
+      return new ProgressMonitor() {
+        @Override
+        public void start(int totalTasks) {
+          failed.start(totalTasks);
+        }
+
+        @Override
+        public void beginTask(String title, int totalWork) {
+          failed.beginTask(title, totalWork);
+        }
+
+        @Override
+        public void update(int completed) {
+          ProjectStats.this.failed.addAndGet(completed);
+          failed.update(completed);
+        }
+
+        @Override
+        public void endTask() {
+          failed.endTask();
+        }
+
+        @Override
+        public boolean isCancelled() {
+          return failed.isCancelled();
+        }
+      };
+    }
+
+    private String summary() {
+      long ms;
+      synchronized (sw) {
+        ms = sw.isRunning() ? sw.elapsed(TimeUnit.MILLISECONDS) : 0;
+      }
+      int n = changes.get();
+      return String.format(
+          "Reindexed %d changes of project %s in %d slices in %dms (%.1f/s)",
+          n, project.get(), slices, ms, ms > 0 ? n * 1000.0 / ms : 0.0);
+    }
+  }
+
+  private class ProjectDoneListener implements Runnable {
+    private final ProjectStats stats;
+    private final ListenableFuture<?> project;
+    private final List<ListenableFuture<?>> slices;
+    private final Task projTask;
+
+    private ProjectDoneListener(ProjectStats stats,
+        ListenableFuture<?> project, List<ListenableFuture<?>> slices,
+        Task projTask) {
+      this.stats = stats;
+      this.project = project;
+      this.slices = slices;
+      this.projTask = projTask;
+    }
+
+    @Override
+    public void run() {
+      if (allSucceeded()) {
+        try {
+          checkpoints.put(stats.project.get(), stats.started);
+        } catch (IOException e) {
+          log.warn("Error saving reindex checkpoint of " + stats.project, e);
+        }
+      }
+      String summary = stats.summary();
+      if (stats.slices > 1) {
+        log.info(summary);
+      }
+      if (verboseWriter != null) {
+        verboseWriter.println(summary);
+      }
+      synchronized (projTask) {
+        projTask.update(1);
+      }
+    }
+
+    private boolean allSucceeded() {
+      if (stats.failed.get() > 0) {
+        return false;
+      }
+      try {
+        // Fails if the project could not be scanned.
+        project.get();
+      } catch (ExecutionException | InterruptedException e) {
+        return false;
+      }
+      for (ListenableFuture<?> f : slices) {
+        try {
+          f.get();
+        } catch (ExecutionException | InterruptedException e) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
   private static class ProjectIndexer implements Callable<Void> {
     private final ChangeIndexer indexer;
     private final ThreeWayMergeStrategy mergeStrategy;
     private final AutoMerger autoMerger;
     private final Multimap<ObjectId, ChangeData> byId;
+    private final Map<ObjectId, Integer> order;
     private final ProgressMonitor done;
     private final ProgressMonitor failed;
     private final PrintWriter verboseWriter;
+    private final Counter0 indexed;
     private final Repository repo;
 
     private ProjectIndexer(ChangeIndexer indexer,
         ThreeWayMergeStrategy mergeStrategy,
         AutoMerger autoMerger,
         Multimap<ObjectId, ChangeData> changesByCommitId,
+        Map<ObjectId, Integer> order,
         Repository repo,
         ProgressMonitor done,
         ProgressMonitor failed,
-        PrintWriter verboseWriter) {
+        PrintWriter verboseWriter,
+        Counter0 indexed) {
       this.indexer = indexer;
       this.mergeStrategy = mergeStrategy;
       this.autoMerger = autoMerger;
       this.byId = changesByCommitId;
+      this.order = order;
       this.repo = repo;
       this.done = done;
       this.failed = failed;
       this.verboseWriter = verboseWriter;
+      this.indexed = indexed;
     }
 
     @Override
     public Void call() throws Exception {
+      // Commits merged into a branch come first, in the history order found by
+      // scanning the project, followed by all others.
+      List<ObjectId> commits = new ArrayList<>(byId.keySet());
+      Collections.sort(commits, Ordering.<Integer> natural().nullsLast()
+          .onResultOf(Functions.forMap(order, null)));
       try (ObjectInserter ins = repo.newObjectInserter();
           RevWalk walk = new RevWalk(ins.newReader())) {
-        // Walk only refs first to cover as many changes as we can without having
-        // to mark every single change.
-        for (Ref ref : repo.getRefDatabase().getRefs(Constants.R_HEADS).values()) {
-          RevObject o = walk.parseAny(ref.getObjectId());
-          if (o instanceof RevCommit) {
-            walk.markStart((RevCommit) o);
-          }
-        }
-
-        RevCommit bCommit;
-        while ((bCommit = walk.next()) != null && !byId.isEmpty()) {
-          if (byId.containsKey(bCommit)) {
-            getPathsAndIndex(walk, ins, bCommit);
-            byId.removeAll(bCommit);
-          }
-        }
-
-        for (ObjectId id : byId.keySet()) {
+        for (ObjectId id : commits) {
           getPathsAndIndex(walk, ins, id);
         }
       }
@@ -324,6 +659,7 @@ public class AllChangesIndexer
               cd.setCurrentFilePaths(paths);
               indexer.index(cd);
               done.update(1);
+              indexed.increment();
               if (verboseWriter != null) {
                 verboseWriter.println("Reindexed change " + cd.getId());
               }
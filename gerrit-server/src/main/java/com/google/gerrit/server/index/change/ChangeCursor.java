@@ -0,0 +1,64 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.gerrit.server.query.QueryParseException;
+
+import java.sql.Timestamp;
+
+/**
+ * Position in the results of a change query, used to continue the query after
+ * the last change of a previous page.
+ * <p>
+ * Indexed change queries return changes sorted by last update time and then
+ * change number, both descending, so these two values identify a position
+ * regardless of how many changes precede it. The encoded form is opaque to
+ * clients.
+ */
+@AutoValue
+public abstract class ChangeCursor {
+  private static final String PREFIX = "c";
+  private static final int RADIX = 36;
+
+  public static ChangeCursor create(Timestamp updated, int changeId) {
+    return new AutoValue_ChangeCursor(updated.getTime(), changeId);
+  }
+
+  public static ChangeCursor parse(String token) throws QueryParseException {
+    int sep = token.indexOf('.');
+    if (token.startsWith(PREFIX) && sep > PREFIX.length()) {
+      Long updated = Longs.tryParse(
+          token.substring(PREFIX.length(), sep), RADIX);
+      Integer changeId = Ints.tryParse(token.substring(sep + 1), RADIX);
+      if (updated != null && changeId != null) {
+        return new AutoValue_ChangeCursor(updated, changeId);
+      }
+    }
+    throw new QueryParseException("invalid continuation token: " + token);
+  }
+
+  /** @return last updated time of the change, in milliseconds. */
+  public abstract long updated();
+
+  public abstract int changeId();
+
+  public String encode() {
+    return PREFIX + Long.toString(updated(), RADIX)
+        + '.' + Integer.toString(changeId(), RADIX);
+  }
+}
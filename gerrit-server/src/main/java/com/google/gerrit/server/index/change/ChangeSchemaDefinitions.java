@@ -81,6 +81,7 @@ public class ChangeSchemaDefinitions extends SchemaDefinitions<ChangeData> {
       .remove(ChangeField.STARREDBY)
       .build();
 
+  @Deprecated
   @SuppressWarnings("deprecation")
   static final Schema<ChangeData> V32 = new Schema.Builder<ChangeData>()
       .add(V31)
@@ -88,6 +89,17 @@ public class ChangeSchemaDefinitions extends SchemaDefinitions<ChangeData> {
       .add(ChangeField.REVIEWER)
       .build();
 
+  // Same fields, reindexed to add DocValues for fields read back from the
+  // Lucene index.
+  @Deprecated
+  @SuppressWarnings("deprecation")
+  static final Schema<ChangeData> V33 = schema(V32.getFields().values());
+
+  // Same fields, reindexed to add DocValues for the remaining stored fields
+  // read by change queries.
+  @SuppressWarnings("deprecation")
+  static final Schema<ChangeData> V34 = schema(V33.getFields().values());
+
   public static final String NAME = "changes";
   public static final ChangeSchemaDefinitions INSTANCE =
       new ChangeSchemaDefinitions();
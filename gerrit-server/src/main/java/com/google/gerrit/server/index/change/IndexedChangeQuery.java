@@ -75,7 +75,8 @@ public class IndexedChangeQuery extends Predicate<ChangeData>
     int backendLimit = opts.config().maxLimit();
     int limit = Ints.saturatedCast((long) opts.limit() + opts.start());
     limit = Math.min(limit, backendLimit);
-    return IndexedChangeQuery.createOptions(opts.config(), 0, limit, opts.fields());
+    return IndexedChangeQuery.createOptions(opts.config(), 0, limit, opts.fields())
+        .withSearchAfter(opts.searchAfter());
   }
 
   private final ChangeIndex index;
@@ -84,19 +84,26 @@ public abstract class AbstractChangeNotes<T> {
   public abstract static class LoadHandle implements AutoCloseable {
     public static LoadHandle create(ChangeNotesRevWalk walk, ObjectId id) {
       return new AutoValue_AbstractChangeNotes_LoadHandle(
-          checkNotNull(walk), id != null ? id.copy() : null);
+          checkNotNull(walk), id != null ? id.copy() : null, true);
+    }
+
+    /** Handle borrowing a walk owned by the caller; closing it is a no-op. */
+    static LoadHandle shared(ChangeNotesRevWalk walk, ObjectId id) {
+      return new AutoValue_AbstractChangeNotes_LoadHandle(
+          checkNotNull(walk), id != null ? id.copy() : null, false);
     }
 
     public static LoadHandle missing() {
-      return new AutoValue_AbstractChangeNotes_LoadHandle(null, null);
+      return new AutoValue_AbstractChangeNotes_LoadHandle(null, null, true);
     }
 
     @Nullable public abstract ChangeNotesRevWalk walk();
     @Nullable public abstract ObjectId id();
+    abstract boolean ownsWalk();
 
     @Override
     public void close() {
-      if (walk() != null) {
+      if (walk() != null && ownsWalk()) {
         walk().close();
       }
     }
@@ -108,6 +115,7 @@ public abstract class AbstractChangeNotes<T> {
 
   private ObjectId revision;
   private boolean loaded;
+  private ChangeNotesRevWalk sharedWalk;
 
   AbstractChangeNotes(Args args, Change.Id changeId, boolean autoRebuild) {
     this.args = checkNotNull(args);
@@ -125,6 +133,19 @@ public abstract class AbstractChangeNotes<T> {
   }
 
   public T load() throws OrmException {
+    return load(null, null);
+  }
+
+  /**
+   * Load using a repository and walk already opened by the caller.
+   * <p>
+   * Used when loading many notes from the same project, so the pack files and
+   * the {@code ObjectReader} backing {@code rw} are reused across all of them.
+   * Neither {@code repo} nor {@code rw} is closed, and {@code rw} must not be
+   * used concurrently by other threads.
+   */
+  T load(@Nullable Repository repo, @Nullable ChangeNotesRevWalk rw)
+      throws OrmException {
     if (loaded) {
       return self();
     }
@@ -137,20 +158,30 @@ public abstract class AbstractChangeNotes<T> {
     if (args.migration.failOnLoad()) {
       throw new OrmException("Reading from NoteDb is disabled");
     }
-    try (Timer1.Context timer = args.metrics.readLatency.start(CHANGES);
-        Repository repo = args.repoManager.openRepository(getProjectName());
-        // Call openHandle even if reading is disabled, to trigger
-        // auto-rebuilding before this object may get passed to a ChangeUpdate.
-        LoadHandle handle = openHandle(repo)) {
-      if (read) {
-        revision = handle.id();
-        onLoad(handle);
-      } else {
-        loadDefaults();
+    Repository opened = null;
+    sharedWalk = rw;
+    try (Timer1.Context timer = args.metrics.readLatency.start(CHANGES)) {
+      if (repo == null) {
+        repo = opened = args.repoManager.openRepository(getProjectName());
+      }
+      // Call openHandle even if reading is disabled, to trigger
+      // auto-rebuilding before this object may get passed to a ChangeUpdate.
+      try (LoadHandle handle = openHandle(repo)) {
+        if (read) {
+          revision = handle.id();
+          onLoad(handle);
+        } else {
+          loadDefaults();
+        }
+        loaded = true;
       }
-      loaded = true;
     } catch (ConfigInvalidException | IOException e) {
       throw new OrmException(e);
+    } finally {
+      sharedWalk = null;
+      if (opened != null) {
+        opened.close();
+      }
     }
     return self();
   }
@@ -165,6 +196,9 @@ public abstract class AbstractChangeNotes<T> {
   }
 
   protected LoadHandle openHandle(Repository repo, ObjectId id) {
+    if (sharedWalk != null) {
+      return LoadHandle.shared(sharedWalk, id);
+    }
     return LoadHandle.create(ChangeNotesCommit.newRevWalk(repo), id);
   }
 
@@ -18,10 +18,12 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.gerrit.reviewdb.client.RefNames.changeMetaRef;
+import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
@@ -30,14 +32,18 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
+import com.google.common.math.IntMath;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.CheckedFuture;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.reviewdb.client.Account;
@@ -53,6 +59,8 @@ import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.git.RefCache;
 import com.google.gerrit.server.git.RepoRefCache;
+import com.google.gerrit.server.index.IndexExecutor;
+import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -71,6 +79,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.math.RoundingMode;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -79,6 +88,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 /** View of a single {@link Change} based on the log of its notes branch. */
 public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
@@ -110,9 +121,24 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
 
   @Singleton
   public static class Factory {
+    /**
+     * Smallest number of changes parsed with one walk by {@link #createAll};
+     * below this, sharing the reader is worth more than parsing in parallel.
+     */
+    private static final int MIN_SLICE_SIZE = 50;
+
+    /**
+     * Largest number of changes parsed with one walk by {@link #createAll};
+     * above this, the objects retained by the walk cost more memory than
+     * sharing them saves.
+     */
+    private static final int MAX_SLICE_SIZE = 500;
+
     private final Args args;
     private final Provider<InternalChangeQuery> queryProvider;
     private final ProjectCache projectCache;
+    private ListeningExecutorService executor =
+        MoreExecutors.newDirectExecutorService();
 
     @VisibleForTesting
     @Inject
@@ -124,6 +150,11 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       this.projectCache = projectCache;
     }
 
+    @Inject(optional = true)
+    void setExecutor(@IndexExecutor(BATCH) ListeningExecutorService executor) {
+      this.executor = executor;
+    }
+
     public ChangeNotes createChecked(ReviewDb db, Change c)
         throws OrmException, NoSuchChangeException {
       ChangeNotes notes = create(db, c.getProject(), c.getId());
@@ -271,9 +302,8 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
             throws OrmException {
       List<ChangeNotes> notes = new ArrayList<>();
       if (args.migration.enabled()) {
-        for (Change.Id cid : changeIds) {
-          ChangeNotes cn = create(db, project, cid);
-          if (cn.getChange() != null && predicate.apply(cn)) {
+        for (ChangeNotes cn : load(executor, db, project, changeIds, true)) {
+          if (predicate.apply(cn)) {
             notes.add(cn);
           }
         }
@@ -341,12 +371,128 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
 
     private List<ChangeNotes> scanNoteDb(Repository repo, ReviewDb db,
         Project.NameKey project) throws OrmException, IOException {
-      Set<Change.Id> ids = scan(repo);
-      List<ChangeNotes> changeNotes = new ArrayList<>(ids.size());
-      for (Change.Id id : ids) {
-        changeNotes.add(create(db, project, id));
+      return load(executor, db, project, scan(repo), true);
+    }
+
+    /**
+     * Load notes for many changes in a single project.
+     * <p>
+     * The project repository is opened once for all changes. Changes are split
+     * into slices that are parsed concurrently on {@code executor}, each slice
+     * reusing one {@link ChangeNotesRevWalk} so objects shared between its
+     * changes are only read from the packs once. Parsed states populate
+     * {@link ChangeNotesCache} as with {@link #create(ReviewDb,
+     * Project.NameKey, Change.Id)}.
+     * <p>
+     * Changes that are missing from the database or belong to another project
+     * are logged and skipped, unlike {@link #create(ReviewDb, Project.NameKey,
+     * Collection, Predicate)} which fails on them.
+     *
+     * @param executor executor to parse slices on. Slices that have not been
+     *     started by the time all are submitted are parsed by the calling
+     *     thread, so the caller may itself be running on {@code executor}.
+     * @param db review database.
+     * @param project project containing the changes.
+     * @param changeIds changes to load.
+     * @return notes for the changes that exist, in no particular order.
+     * @throws OrmException if a change could not be loaded.
+     */
+    public List<ChangeNotes> createAll(ListeningExecutorService executor,
+        ReviewDb db, Project.NameKey project, Collection<Change.Id> changeIds)
+        throws OrmException {
+      return load(executor, db, project, changeIds, false);
+    }
+
+    private List<ChangeNotes> load(ListeningExecutorService executor,
+        ReviewDb db, Project.NameKey project, Collection<Change.Id> changeIds,
+        boolean checked) throws OrmException {
+      List<Change> changes = new ArrayList<>(changeIds.size());
+      // A batch size of N may overload get(Iterable), so use something smaller,
+      // but still >1.
+      for (List<Change.Id> batch : Iterables.partition(changeIds, 30)) {
+        Set<Change.Id> missing = new HashSet<>(batch);
+        for (Change c : unwrap(db).changes().get(batch)) {
+          if (c == null) {
+            continue;
+          }
+          missing.remove(c.getId());
+          if (project.equals(c.getProject())) {
+            changes.add(c);
+          } else {
+            checkArgument(!checked,
+                "passed project %s when creating ChangeNotes for %s, but actual"
+                + " project is %s",
+                project, c.getId(), c.getProject());
+            log.warn("Skipping change {} of project {}, expected {}",
+                c.getId(), c.getProject(), project);
+          }
+        }
+        for (Change.Id id : missing) {
+          checkArgument(!checked, "change %s not found in ReviewDb", id);
+          log.warn("Skipping change {} of project {}, not found in database",
+              id, project);
+        }
+      }
+      if (changes.isEmpty()) {
+        return ImmutableList.of();
+      }
+
+      try (Repository repo = args.repoManager.openRepository(project)) {
+        int sliceSize = Math.min(MAX_SLICE_SIZE, Math.max(MIN_SLICE_SIZE,
+            IntMath.divide(changes.size(),
+                Runtime.getRuntime().availableProcessors(),
+                RoundingMode.CEILING)));
+        List<ListenableFutureTask<List<ChangeNotes>>> futures =
+            new ArrayList<>();
+        for (List<Change> slice : Lists.partition(changes, sliceSize)) {
+          ListenableFutureTask<List<ChangeNotes>> task =
+              ListenableFutureTask.create(new SliceLoader(repo, slice));
+          futures.add(task);
+          try {
+            executor.execute(task);
+          } catch (RejectedExecutionException e) {
+            // Parsed below by the calling thread.
+          }
+        }
+        // Run slices still waiting for a thread here; run() does nothing for
+        // slices already started on the executor.
+        for (ListenableFutureTask<List<ChangeNotes>> task : futures) {
+          task.run();
+        }
+        List<ChangeNotes> notes = new ArrayList<>(changes.size());
+        for (List<ChangeNotes> loaded : Futures.allAsList(futures).get()) {
+          notes.addAll(loaded);
+        }
+        return notes;
+      } catch (IOException e) {
+        throw new OrmException(e);
+      } catch (InterruptedException e) {
+        throw new OrmException("Interrupted loading changes of " + project, e);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), OrmException.class);
+        throw new OrmException(e.getCause());
+      }
+    }
+
+    private class SliceLoader implements Callable<List<ChangeNotes>> {
+      private final Repository repo;
+      private final List<Change> changes;
+
+      private SliceLoader(Repository repo, List<Change> changes) {
+        this.repo = repo;
+        this.changes = changes;
+      }
+
+      @Override
+      public List<ChangeNotes> call() throws OrmException {
+        List<ChangeNotes> notes = new ArrayList<>(changes.size());
+        try (ChangeNotesRevWalk rw = ChangeNotesCommit.newRevWalk(repo)) {
+          for (Change c : changes) {
+            notes.add(new ChangeNotes(args, c).load(repo, rw));
+          }
+        }
+        return notes;
       }
-      return changeNotes;
     }
 
     public static Set<Change.Id> scan(Repository repo) throws IOException {
@@ -587,8 +733,7 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       if (newState == null) {
         return super.openHandle(repo, oldId); // May be null in tests.
       }
-      return LoadHandle.create(
-          ChangeNotesCommit.newRevWalk(repo), newState.getChangeMetaId());
+      return super.openHandle(repo, newState.getChangeMetaId());
     } catch (NoSuchChangeException e) {
       return super.openHandle(repo, oldId);
     } catch (OrmException | ConfigInvalidException e) {
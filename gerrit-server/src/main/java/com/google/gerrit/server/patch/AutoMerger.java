@@ -16,15 +16,20 @@ package com.google.gerrit.server.patch;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.cache.Cache;
 import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.server.GerritPersonIdent;
+import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.name.Named;
 
 import org.eclipse.jgit.diff.Sequence;
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.dircache.DirCacheBuilder;
 import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
@@ -53,15 +58,65 @@ import java.util.Map;
 public class AutoMerger {
   private static final Logger log = LoggerFactory.getLogger(AutoMerger.class);
 
+  static final String CACHE_NAME = "diff_automerge";
+
+  /** Where auto-merge commits are remembered once created. */
+  enum Storage {
+    /** Under {@link RefNames#REFS_CACHE_AUTOMERGE} in the repository. */
+    REF,
+
+    /**
+     * In the {@value #CACHE_NAME} cache, mapping merge commits to their
+     * unreferenced auto-merge commits. The objects of each auto-merge are
+     * written as one pack rather than as loose objects. Commits pruned by
+     * garbage collection are simply created again, see {@link
+     * PatchListCacheImpl}.
+     */
+    CACHE,
+
+    /** Not at all; auto-merges are recomputed on every use. */
+    NONE
+  }
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        persist(CACHE_NAME, String.class, String.class);
+      }
+    };
+  }
+
   private final PersonIdent gerritIdent;
-  private final boolean save;
+  private final Cache<String, String> cache;
+  private final Storage storage;
 
   @Inject
   AutoMerger(
       @GerritServerConfig Config cfg,
-      @GerritPersonIdent PersonIdent gerritIdent) {
-    save = cfg.getBoolean("change", null, "cacheAutomerge", true);
+      @GerritPersonIdent PersonIdent gerritIdent,
+      @Named(CACHE_NAME) Cache<String, String> cache) {
     this.gerritIdent = gerritIdent;
+    this.cache = cache;
+    storage = storage(cfg);
+  }
+
+  private static Storage storage(Config cfg) {
+    String v = cfg.getString("change", null, "cacheAutomerge");
+    if ("cache".equalsIgnoreCase(v)) {
+      return Storage.CACHE;
+    }
+    return cfg.getBoolean("change", null, "cacheAutomerge", true)
+        ? Storage.REF
+        : Storage.NONE;
+  }
+
+  /**
+   * @return whether auto-merge commits are unreferenced, and may be pruned by
+   *     garbage collection while diffs against them are still cached.
+   */
+  boolean isUnreferenced() {
+    return storage == Storage.CACHE;
   }
 
   /**
@@ -70,7 +125,7 @@ public class AutoMerger {
    * @return auto-merge commit or {@code null} if an auto-merge commit
    *     couldn't be created. Headers of the returned RevCommit are parsed.
    */
-  public RevCommit merge(Repository repo, RevWalk rw, final ObjectInserter ins,
+  public RevCommit merge(Repository repo, RevWalk rw, ObjectInserter ins,
       RevCommit merge, ThreeWayMergeStrategy mergeStrategy)
       throws IOException {
     rw.parseHeaders(merge);
@@ -79,22 +134,31 @@ public class AutoMerger {
         + hash.substring(0, 2)
         + "/"
         + hash.substring(2);
-    Ref ref = repo.getRefDatabase().exactRef(refName);
-    if (ref != null && ref.getObjectId() != null) {
-      RevObject obj = rw.parseAny(ref.getObjectId());
-      if (obj instanceof RevCommit) {
-        return (RevCommit) obj;
+    if (storage == Storage.CACHE) {
+      RevCommit cached = cached(rw, hash);
+      if (cached != null) {
+        return cached;
+      }
+    } else {
+      Ref ref = repo.getRefDatabase().exactRef(refName);
+      if (ref != null && ref.getObjectId() != null) {
+        RevObject obj = rw.parseAny(ref.getObjectId());
+        if (obj instanceof RevCommit) {
+          return (RevCommit) obj;
+        }
+        return commit(repo, rw, ins, refName, obj, merge);
       }
-      return commit(repo, rw, ins, refName, obj, merge);
     }
 
+    final ObjectInserter out =
+        storage == Storage.CACHE ? new PackInserter(ins) : ins;
     ResolveMerger m = (ResolveMerger) mergeStrategy.newMerger(repo, true);
     DirCache dc = DirCache.newInCore();
     m.setDirCache(dc);
     m.setObjectInserter(new ObjectInserter.Filter() {
       @Override
       protected ObjectInserter delegate() {
-        return ins;
+        return out;
       }
 
       @Override
@@ -148,7 +212,7 @@ public class AutoMerger {
           buf.close();
 
           try (InputStream in = buf.openInputStream()) {
-            resolved.put(entry.getKey(), ins.insert(Constants.OBJ_BLOB, buf.length(), in));
+            resolved.put(entry.getKey(), out.insert(Constants.OBJ_BLOB, buf.length(), in));
           }
         }
       }
@@ -196,10 +260,10 @@ public class AutoMerger {
         i = next;
       }
       builder.finish();
-      treeId = dc.writeTree(ins);
+      treeId = dc.writeTree(out);
     }
 
-    return commit(repo, rw, ins, refName, treeId, merge);
+    return commit(repo, rw, out, refName, treeId, merge);
   }
 
   private RevCommit commit(Repository repo, RevWalk rw, ObjectInserter ins,
@@ -221,14 +285,40 @@ public class AutoMerger {
     }
     ObjectId commitId;
     commitId = ins.insert(cb);
-    if (save) {
-      ins.flush();
+    switch (storage) {
+      case REF:
+        ins.flush();
 
-      RefUpdate ru = repo.updateRef(refName);
-      ru.setNewObjectId(commitId);
-      ru.disableRefLog();
-      ru.forceUpdate();
+        RefUpdate ru = repo.updateRef(refName);
+        ru.setNewObjectId(commitId);
+        ru.disableRefLog();
+        ru.forceUpdate();
+        break;
+      case CACHE:
+        ins.flush();
+        cache.put(merge.name(), commitId.name());
+        break;
+      case NONE:
+      default:
+        break;
     }
     return rw.parseCommit(commitId);
   }
+
+  private RevCommit cached(RevWalk rw, String hash) throws IOException {
+    String id = cache.getIfPresent(hash);
+    if (id == null) {
+      return null;
+    }
+    try {
+      RevCommit c = rw.parseCommit(ObjectId.fromString(id));
+      if (rw.getObjectReader().has(c.getTree())) {
+        return c;
+      }
+    } catch (MissingObjectException e) {
+      // Pruned since, or only created in another repository so far. Auto-merge
+      // commits are reproducible, so creating it again yields the same id.
+    }
+    return null;
+  }
 }
@@ -14,16 +14,31 @@
 
 package com.google.gerrit.server.patch;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 
+import org.eclipse.jgit.lib.Config;
+
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-/** Module providing the {@link DiffExecutor}. */
+/**
+ * Module providing the {@link DiffExecutor} and the {@link
+ * DiffWarmingExecutor}.
+ */
 public class DiffExecutorModule extends AbstractModule {
+  /** Number of threads of the {@link DiffExecutor}, at least 1. */
+  static int threads(Config config) {
+    return Math.max(1, config.getInt("cache", "diff", "threads",
+        Runtime.getRuntime().availableProcessors()));
+  }
 
   @Override
   protected void configure() {
@@ -32,8 +47,29 @@ public class DiffExecutorModule extends AbstractModule {
   @Provides
   @Singleton
   @DiffExecutor
-  public ExecutorService createDiffExecutor() {
-    return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-        .setNameFormat("Diff-%d").setDaemon(true).build());
+  public ExecutorService createDiffExecutor(
+      @GerritServerConfig Config config) {
+    int poolSize = threads(config);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+        10, TimeUnit.MINUTES,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder()
+          .setNameFormat("Diff-%d")
+          .setDaemon(true)
+          .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @Provides
+  @Singleton
+  @DiffWarmingExecutor
+  public ExecutorService createDiffWarmingExecutor(
+      @GerritServerConfig Config config, WorkQueue queues) {
+    int poolSize = config.getInt("cache", "diff", "warmThreads", 1);
+    if (poolSize <= 0) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    return queues.createQueue(poolSize, "DiffWarmer");
   }
 }
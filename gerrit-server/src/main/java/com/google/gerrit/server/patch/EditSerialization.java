@@ -0,0 +1,74 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
+
+import org.eclipse.jgit.diff.Edit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Compact encoding of edit lists in the persistent diff caches.
+ * <p>
+ * Edits are sorted, so each one is stored as the distance from the end of the
+ * previous edit and the length of its regions, which nearly always fit in one
+ * byte each. Distances are zigzag encoded in case a list is not sorted.
+ */
+class EditSerialization {
+  static void writeEdits(OutputStream out, List<Edit> edits)
+      throws IOException {
+    writeVarInt32(out, edits.size());
+    int endA = 0;
+    int endB = 0;
+    for (Edit e : edits) {
+      writeVarInt32(out, zigzag(e.getBeginA() - endA));
+      writeVarInt32(out, e.getLengthA());
+      writeVarInt32(out, zigzag(e.getBeginB() - endB));
+      writeVarInt32(out, e.getLengthB());
+      endA = e.getEndA();
+      endB = e.getEndB();
+    }
+  }
+
+  static Edit[] readEdits(InputStream in) throws IOException {
+    Edit[] edits = new Edit[readVarInt32(in)];
+    int endA = 0;
+    int endB = 0;
+    for (int i = 0; i < edits.length; i++) {
+      int beginA = endA + unzigzag(readVarInt32(in));
+      endA = beginA + readVarInt32(in);
+      int beginB = endB + unzigzag(readVarInt32(in));
+      endB = beginB + readVarInt32(in);
+      edits[i] = new Edit(beginA, endA, beginB, endB);
+    }
+    return edits;
+  }
+
+  private static int zigzag(int v) {
+    return (v << 1) ^ (v >> 31);
+  }
+
+  private static int unzigzag(int v) {
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  private EditSerialization() {
+  }
+}
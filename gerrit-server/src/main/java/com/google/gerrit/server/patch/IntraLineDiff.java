@@ -18,6 +18,8 @@ import static com.google.gerrit.server.ioutil.BasicSerialization.readEnum;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeEnum;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
+import static com.google.gerrit.server.patch.EditSerialization.readEdits;
+import static com.google.gerrit.server.patch.EditSerialization.writeEdits;
 
 import com.google.gerrit.reviewdb.client.CodedEnum;
 
@@ -25,10 +27,9 @@ import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.ReplaceEdit;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
@@ -37,6 +38,9 @@ import java.util.List;
 public class IntraLineDiff implements Serializable {
   static final long serialVersionUID = IntraLineDiffKey.serialVersionUID;
 
+  /** Version of the encoding written by {@link #writeObject}. */
+  private static final int FORMAT_VERSION = 1;
+
   public enum Status implements CodedEnum {
     EDIT_LIST('e'), DISABLED('D'), TIMEOUT('T'), ERROR('E');
 
@@ -74,57 +78,34 @@ public class IntraLineDiff implements Serializable {
   }
 
   private void writeObject(final ObjectOutputStream out) throws IOException {
+    writeVarInt32(out, FORMAT_VERSION);
     writeEnum(out, status);
-    writeVarInt32(out, edits.size());
+    writeEdits(out, edits);
     for (Edit e : edits) {
-      writeEdit(out, e);
-
       if (e instanceof ReplaceEdit) {
-        ReplaceEdit r = (ReplaceEdit) e;
-        writeVarInt32(out, r.getInternalEdits().size());
-        for (Edit i : r.getInternalEdits()) {
-          writeEdit(out, i);
-        }
+        writeEdits(out, ((ReplaceEdit) e).getInternalEdits());
       } else {
-        writeVarInt32(out, 0);
+        writeEdits(out, Collections.<Edit> emptyList());
       }
     }
   }
 
   private void readObject(final ObjectInputStream in) throws IOException {
+    int version = readVarInt32(in);
+    if (version != FORMAT_VERSION) {
+      throw new InvalidObjectException("Unsupported format " + version);
+    }
     status = readEnum(in, Status.values());
-    int editCount = readVarInt32(in);
-    Edit[] editArray = new Edit[editCount];
-    for (int i = 0; i < editCount; i++) {
-      editArray[i] = readEdit(in);
-
-      int innerCount = readVarInt32(in);
-      if (0 < innerCount) {
-        Edit[] inner = new Edit[innerCount];
-        for (int j = 0; j < innerCount; j++) {
-          inner[j] = readEdit(in);
-        }
+    Edit[] editArray = readEdits(in);
+    for (int i = 0; i < editArray.length; i++) {
+      Edit[] inner = readEdits(in);
+      if (0 < inner.length) {
         editArray[i] = new ReplaceEdit(editArray[i], toList(inner));
       }
     }
     edits = toList(editArray);
   }
 
-  private static void writeEdit(OutputStream out, Edit e) throws IOException {
-    writeVarInt32(out, e.getBeginA());
-    writeVarInt32(out, e.getEndA());
-    writeVarInt32(out, e.getBeginB());
-    writeVarInt32(out, e.getEndB());
-  }
-
-  private static Edit readEdit(InputStream in) throws IOException {
-    int beginA = readVarInt32(in);
-    int endA = readVarInt32(in);
-    int beginB = readVarInt32(in);
-    int endB = readVarInt32(in);
-    return new Edit(beginA, endA, beginB, endB);
-  }
-
   private static List<Edit> toList(Edit[] l) {
     return Collections.unmodifiableList(Arrays.asList(l));
   }
@@ -0,0 +1,150 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Inserter writing all of its objects as a single pack on flush.
+ * <p>
+ * Objects are held in memory until then, so this is only meant for a few
+ * objects, such as an auto-merge commit with its trees and conflict blobs,
+ * that would otherwise each be written as a loose object. Objects inserted
+ * since the last flush cannot be read back.
+ */
+class PackInserter extends ObjectInserter {
+  private static class PendingObject {
+    final int type;
+    final byte[] data;
+
+    PendingObject(int type, byte[] data) {
+      this.type = type;
+      this.data = data;
+    }
+  }
+
+  private final ObjectInserter dest;
+  private final Map<ObjectId, PendingObject> pending = new LinkedHashMap<>();
+
+  /** @param dest inserter of the repository the pack is written to. */
+  PackInserter(ObjectInserter dest) {
+    this.dest = dest;
+  }
+
+  @Override
+  public ObjectId insert(int type, byte[] data, int off, int len) {
+    ObjectId id = idFor(type, data, off, len);
+    if (!pending.containsKey(id)) {
+      pending.put(id,
+          new PendingObject(type, Arrays.copyOfRange(data, off, off + len)));
+    }
+    return id;
+  }
+
+  @Override
+  public ObjectId insert(int type, long len, InputStream in)
+      throws IOException {
+    if (len > Integer.MAX_VALUE) {
+      return dest.insert(type, len, in);
+    }
+    byte[] data = new byte[(int) len];
+    IO.readFully(in, data, 0, data.length);
+    return insert(type, data, 0, data.length);
+  }
+
+  @Override
+  public PackParser newPackParser(InputStream in) throws IOException {
+    return dest.newPackParser(in);
+  }
+
+  @Override
+  public ObjectReader newReader() {
+    return dest.newReader();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (!pending.isEmpty()) {
+      PackParser p = dest.newPackParser(new ByteArrayInputStream(pack()));
+      p.parse(NullProgressMonitor.INSTANCE);
+      pending.clear();
+    }
+    dest.flush();
+  }
+
+  @Override
+  public void close() {
+    pending.clear();
+  }
+
+  private byte[] pack() throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    MessageDigest md = Constants.newMessageDigest();
+    try (DigestOutputStream out = new DigestOutputStream(buf, md)) {
+      byte[] hdr = new byte[8];
+      NB.encodeInt32(hdr, 0, 2);
+      NB.encodeInt32(hdr, 4, pending.size());
+      out.write(Constants.PACK_SIGNATURE);
+      out.write(hdr);
+
+      Deflater deflater = new Deflater();
+      try {
+        for (PendingObject o : pending.values()) {
+          writeObjectHeader(out, o.type, o.data.length);
+          deflater.reset();
+          DeflaterOutputStream z = new DeflaterOutputStream(out, deflater);
+          z.write(o.data);
+          z.finish();
+        }
+      } finally {
+        deflater.end();
+      }
+    }
+    buf.write(md.digest());
+    return buf.toByteArray();
+  }
+
+  private static void writeObjectHeader(OutputStream out, int type, long len)
+      throws IOException {
+    int c = (type << 4) | (int) (len & 0x0f);
+    len >>>= 4;
+    while (len > 0) {
+      out.write(c | 0x80);
+      c = (int) (len & 0x7f);
+      len >>>= 7;
+    }
+    out.write(c);
+  }
+}
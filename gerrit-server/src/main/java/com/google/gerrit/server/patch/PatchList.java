@@ -15,9 +15,7 @@
 package com.google.gerrit.server.patch;
 
 
-import static com.google.gerrit.server.ioutil.BasicSerialization.readBytes;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
-import static com.google.gerrit.server.ioutil.BasicSerialization.writeBytes;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
 import static org.eclipse.jgit.lib.ObjectIdSerialization.readCanBeNull;
 import static org.eclipse.jgit.lib.ObjectIdSerialization.readNotNull;
@@ -31,9 +29,8 @@ import com.google.gerrit.reviewdb.client.PatchSet;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -42,11 +39,19 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
 public class PatchList implements Serializable {
   private static final long serialVersionUID = PatchListKey.serialVersionUID;
+
+  /**
+   * Version of the encoding written by {@link #writeObject}.
+   * <p>
+   * Only the file headers are deflated, as one block: entries share the
+   * prefix of their names with the previous entry, and edits are delta
+   * encoded, so inflating them would cost more CPU on every cache read than
+   * it saves on disk.
+   */
+  private static final int FORMAT_VERSION = 2;
   private static final Comparator<PatchListEntry> PATCH_CMP =
       new Comparator<PatchListEntry>() {
         @Override
@@ -161,36 +166,40 @@ public class PatchList implements Serializable {
     return -(low + 1);
   }
 
-  private void writeObject(final ObjectOutputStream output) throws IOException {
-    final ByteArrayOutputStream buf = new ByteArrayOutputStream();
-    try (DeflaterOutputStream out = new DeflaterOutputStream(buf)) {
-      writeCanBeNull(out, oldId);
-      writeNotNull(out, newId);
-      writeVarInt32(out, againstParent ? 1 : 0);
-      writeVarInt32(out, insertions);
-      writeVarInt32(out, deletions);
-      writeVarInt32(out, patches.length);
-      for (PatchListEntry p : patches) {
-        p.writeTo(out);
-      }
+  private void writeObject(final ObjectOutputStream out) throws IOException {
+    writeVarInt32(out, FORMAT_VERSION);
+    writeCanBeNull(out, oldId);
+    writeNotNull(out, newId);
+    writeVarInt32(out, againstParent ? 1 : 0);
+    writeVarInt32(out, insertions);
+    writeVarInt32(out, deletions);
+    writeVarInt32(out, patches.length);
+    PatchListEntry.writeHeaders(out, patches);
+    String prevName = "";
+    for (PatchListEntry p : patches) {
+      p.writeTo(out, prevName);
+      prevName = p.getNewName();
     }
-    writeBytes(output, buf.toByteArray());
   }
 
-  private void readObject(final ObjectInputStream input) throws IOException {
-    final ByteArrayInputStream buf = new ByteArrayInputStream(readBytes(input));
-    try (InflaterInputStream in = new InflaterInputStream(buf)) {
-      oldId = readCanBeNull(in);
-      newId = readNotNull(in);
-      againstParent = readVarInt32(in) != 0;
-      insertions = readVarInt32(in);
-      deletions = readVarInt32(in);
-      final int cnt = readVarInt32(in);
-      final PatchListEntry[] all = new PatchListEntry[cnt];
-      for (int i = 0; i < all.length; i++) {
-        all[i] = PatchListEntry.readFrom(in);
-      }
-      patches = all;
+  private void readObject(final ObjectInputStream in) throws IOException {
+    int version = readVarInt32(in);
+    if (version != FORMAT_VERSION) {
+      throw new InvalidObjectException("Unsupported format " + version);
+    }
+    oldId = readCanBeNull(in);
+    newId = readNotNull(in);
+    againstParent = readVarInt32(in) != 0;
+    insertions = readVarInt32(in);
+    deletions = readVarInt32(in);
+    final int cnt = readVarInt32(in);
+    final PatchListEntry[] all = new PatchListEntry[cnt];
+    byte[][] headers = PatchListEntry.readHeaders(in, cnt);
+    String prevName = "";
+    for (int i = 0; i < all.length; i++) {
+      all[i] = PatchListEntry.readFrom(in, prevName, headers[i]);
+      prevName = all[i].getNewName();
     }
+    patches = all;
   }
 }
@@ -22,6 +22,8 @@ import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.MergeUtil;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
@@ -30,7 +32,14 @@ import com.google.inject.name.Named;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.ThreeWayMergeStrategy;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 
+import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 
 /** Provides a cached list of {@link PatchListEntry}. */
@@ -53,6 +62,8 @@ public class PatchListCacheImpl implements PatchListCache {
             .maximumWeight(10 << 20)
             .weigher(IntraLineWeigher.class);
 
+        install(AutoMerger.module());
+
         bind(PatchListCacheImpl.class);
         bind(PatchListCache.class).to(PatchListCacheImpl.class);
       }
@@ -64,6 +75,9 @@ public class PatchListCacheImpl implements PatchListCache {
   private final PatchListLoader.Factory fileLoaderFactory;
   private final IntraLineLoader.Factory intraLoaderFactory;
   private final boolean computeIntraline;
+  private final GitRepositoryManager repoManager;
+  private final AutoMerger autoMerger;
+  private final ThreeWayMergeStrategy mergeStrategy;
 
   @Inject
   PatchListCacheImpl(
@@ -71,11 +85,16 @@ public class PatchListCacheImpl implements PatchListCache {
       @Named(INTRA_NAME) Cache<IntraLineDiffKey, IntraLineDiff> intraCache,
       PatchListLoader.Factory fileLoaderFactory,
       IntraLineLoader.Factory intraLoaderFactory,
+      GitRepositoryManager repoManager,
+      AutoMerger autoMerger,
       @GerritServerConfig Config cfg) {
     this.fileCache = fileCache;
     this.intraCache = intraCache;
     this.fileLoaderFactory = fileLoaderFactory;
     this.intraLoaderFactory = intraLoaderFactory;
+    this.repoManager = repoManager;
+    this.autoMerger = autoMerger;
+    this.mergeStrategy = MergeUtil.getMergeStrategy(cfg);
 
     this.computeIntraline =
         cfg.getBoolean("cache", INTRA_NAME, "enabled",
@@ -86,10 +105,47 @@ public class PatchListCacheImpl implements PatchListCache {
   public PatchList get(PatchListKey key, Project.NameKey project)
       throws PatchListNotAvailableException {
     try {
-      return fileCache.get(key, fileLoaderFactory.create(key, project));
+      PatchList list =
+          fileCache.get(key, fileLoaderFactory.create(key, project));
+      if (key.getOldId() == null && !list.isAgainstParent()
+          && list.getOldId() != null && autoMerger.isUnreferenced()
+          && !recreateAutoMerge(project, list)) {
+        fileCache.invalidate(key);
+        list = fileCache.get(key, fileLoaderFactory.create(key, project));
+      }
+      return list;
     } catch (ExecutionException | LargeObjectException e) {
       PatchListLoader.log.warn("Error computing " + key, e);
       throw new PatchListNotAvailableException(e.getCause());
+    } catch (IOException e) {
+      PatchListLoader.log.warn("Error checking auto-merge of " + key, e);
+      throw new PatchListNotAvailableException(e);
+    }
+  }
+
+  /**
+   * Create the auto-merge commit a cached list was computed against again, if
+   * it was pruned since.
+   *
+   * @return false if the list must be computed again, as the auto-merge
+   *     commit was created with another id.
+   */
+  private boolean recreateAutoMerge(Project.NameKey project, PatchList list)
+      throws IOException {
+    try (Repository repo = repoManager.openRepository(project);
+        ObjectInserter ins = repo.newObjectInserter();
+        ObjectReader reader = ins.newReader();
+        RevWalk rw = new RevWalk(reader)) {
+      if (reader.has(list.getOldId())) {
+        return true;
+      }
+      RevCommit b = rw.parseCommit(list.getNewId());
+      if (b.getParentCount() != 2) {
+        // Not an auto-merge, but the empty tree of a root commit.
+        return true;
+      }
+      RevCommit a = autoMerger.merge(repo, rw, ins, b, mergeStrategy);
+      return list.getOldId().equals(a);
     }
   }
 
@@ -16,15 +16,18 @@ package com.google.gerrit.server.patch;
 
 import static com.google.gerrit.server.ioutil.BasicSerialization.readBytes;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readEnum;
-import static com.google.gerrit.server.ioutil.BasicSerialization.readFixInt64;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readString;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt64;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeBytes;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeEnum;
-import static com.google.gerrit.server.ioutil.BasicSerialization.writeFixInt64;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt64;
+import static com.google.gerrit.server.patch.EditSerialization.readEdits;
+import static com.google.gerrit.server.patch.EditSerialization.writeEdits;
 
+import com.google.common.base.Strings;
 import com.google.gerrit.reviewdb.client.Patch;
 import com.google.gerrit.reviewdb.client.Patch.ChangeType;
 import com.google.gerrit.reviewdb.client.Patch.PatchType;
@@ -37,6 +40,8 @@ import org.eclipse.jgit.patch.FileHeader;
 import org.eclipse.jgit.util.IntList;
 import org.eclipse.jgit.util.RawParseUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -44,6 +49,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class PatchListEntry {
   private static final byte[] EMPTY_HEADER = {};
@@ -205,49 +212,80 @@ public class PatchListEntry {
     return p;
   }
 
-  void writeTo(OutputStream out) throws IOException {
+  /**
+   * Write the headers of all entries as one deflated block.
+   * <p>
+   * Headers repeat the names of their files, and mostly differ only in the
+   * blob ids, so unlike the rest of an entry they compress well.
+   */
+  static void writeHeaders(OutputStream out, PatchListEntry[] entries)
+      throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (DeflaterOutputStream deflater = new DeflaterOutputStream(buf)) {
+      for (PatchListEntry e : entries) {
+        writeBytes(deflater, e.header);
+      }
+    }
+    writeBytes(out, buf.toByteArray());
+  }
+
+  /** Read the block written by {@link #writeHeaders}. */
+  static byte[][] readHeaders(InputStream in, int cnt) throws IOException {
+    byte[][] headers = new byte[cnt][];
+    try (InflaterInputStream inflater =
+        new InflaterInputStream(new ByteArrayInputStream(readBytes(in)))) {
+      for (int i = 0; i < cnt; i++) {
+        headers[i] = readBytes(inflater);
+      }
+    }
+    return headers;
+  }
+
+  /** Write the entry, except its header, see {@link #writeHeaders}. */
+  void writeTo(OutputStream out, String prevName) throws IOException {
     writeEnum(out, changeType);
     writeEnum(out, patchType);
     writeString(out, oldName);
-    writeString(out, newName);
-    writeBytes(out, header);
+    // Entries are sorted by name, so neighbours usually share a directory.
+    int common = commonPrefix(prevName, newName);
+    writeVarInt32(out, common);
+    writeString(out, newName.substring(common));
     writeVarInt32(out, insertions);
     writeVarInt32(out, deletions);
-    writeFixInt64(out, size);
-    writeFixInt64(out, sizeDelta);
-
-    writeVarInt32(out, edits.size());
-    for (final Edit e : edits) {
-      writeVarInt32(out, e.getBeginA());
-      writeVarInt32(out, e.getEndA());
-      writeVarInt32(out, e.getBeginB());
-      writeVarInt32(out, e.getEndB());
-    }
+    writeVarInt64(out, size);
+    writeVarInt64(out, (sizeDelta << 1) ^ (sizeDelta >> 63));
+    writeEdits(out, edits);
   }
 
-  static PatchListEntry readFrom(InputStream in) throws IOException {
+  static PatchListEntry readFrom(InputStream in, String prevName,
+      byte[] hdr) throws IOException {
     ChangeType changeType = readEnum(in, ChangeType.values());
     PatchType patchType = readEnum(in, PatchType.values());
     String oldName = readString(in);
-    String newName = readString(in);
-    byte[] hdr = readBytes(in);
+    int common = readVarInt32(in);
+    String newName = prevName.substring(0, common)
+        + Strings.nullToEmpty(readString(in));
     int ins = readVarInt32(in);
     int del = readVarInt32(in);
-    long size = readFixInt64(in);
-    long sizeDelta = readFixInt64(in);
-
-    int editCount = readVarInt32(in);
-    Edit[] editArray = new Edit[editCount];
-    for (int i = 0; i < editCount; i++) {
-      int beginA = readVarInt32(in);
-      int endA = readVarInt32(in);
-      int beginB = readVarInt32(in);
-      int endB = readVarInt32(in);
-      editArray[i] = new Edit(beginA, endA, beginB, endB);
-    }
-
+    long size = readVarInt64(in);
+    long sizeDelta = readVarInt64(in);
+    sizeDelta = (sizeDelta >>> 1) ^ -(sizeDelta & 1);
+    List<Edit> edits = toList(readEdits(in));
     return new PatchListEntry(changeType, patchType, oldName, newName, hdr,
-        toList(editArray), ins, del, size, sizeDelta);
+        edits, ins, del, size, sizeDelta);
+  }
+
+  private static int commonPrefix(String a, String b) {
+    int n = Math.min(a.length(), b.length());
+    int i = 0;
+    while (i < n && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    // Never split a surrogate pair, the suffix is written as UTF-8.
+    if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+      i--;
+    }
+    return i;
   }
 
   private static List<Edit> toList(Edit[] l) {
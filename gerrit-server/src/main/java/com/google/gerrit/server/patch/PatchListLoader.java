@@ -16,18 +16,27 @@
 package com.google.gerrit.server.patch;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
 
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Maps;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.reviewdb.client.Patch;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MergeUtil;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 
@@ -38,6 +47,8 @@ import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.diff.HistogramDiff;
 import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AsyncObjectSizeQueue;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
@@ -60,14 +71,19 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class PatchListLoader implements Callable<PatchList> {
   static final Logger log = LoggerFactory.getLogger(PatchListLoader.class);
@@ -76,14 +92,38 @@ public class PatchListLoader implements Callable<PatchList> {
     PatchListLoader create(PatchListKey key, Project.NameKey project);
   }
 
+  @Singleton
+  static class Metrics {
+    final Timer0 computeLatency;
+    final Counter0 timeouts;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      computeLatency = metricMaker.newTimer(
+          "diff/compute_latency",
+          new Description("Latency of computing the files of a patch list,"
+              + " accumulated over the life of the process")
+            .setCumulative()
+            .setUnit(Description.Units.MILLISECONDS));
+      timeouts = metricMaker.newCounter(
+          "diff/timeouts",
+          new Description("Files diffed without the Myers fallback algorithm"
+              + " after the diff timeout")
+            .setRate()
+            .setUnit("files"));
+    }
+  }
+
   private final GitRepositoryManager repoManager;
   private final PatchListCache patchListCache;
   private final ThreeWayMergeStrategy mergeStrategy;
   private final ExecutorService diffExecutor;
   private final AutoMerger autoMerger;
+  private final Metrics metrics;
   private final PatchListKey key;
   private final Project.NameKey project;
   private final long timeoutMillis;
+  private final int diffThreads;
 
   @AssistedInject
   PatchListLoader(GitRepositoryManager mgr,
@@ -91,6 +131,7 @@ public class PatchListLoader implements Callable<PatchList> {
       @GerritServerConfig Config cfg,
       @DiffExecutor ExecutorService de,
       AutoMerger am,
+      Metrics metrics,
       @Assisted PatchListKey k,
       @Assisted Project.NameKey p) {
     repoManager = mgr;
@@ -98,18 +139,21 @@ public class PatchListLoader implements Callable<PatchList> {
     mergeStrategy = MergeUtil.getMergeStrategy(cfg);
     diffExecutor = de;
     autoMerger = am;
+    this.metrics = metrics;
     key = k;
     project = p;
     timeoutMillis =
         ConfigUtil.getTimeUnit(cfg, "cache", PatchListCacheImpl.FILE_NAME,
             "timeout", TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
             TimeUnit.MILLISECONDS);
+    diffThreads = DiffExecutorModule.threads(cfg);
   }
 
   @Override
   public PatchList call() throws IOException,
       PatchListNotAvailableException {
-    try (Repository repo = repoManager.openRepository(project)) {
+    try (Repository repo = repoManager.openRepository(project);
+        Timer0.Context ignored = metrics.computeLatency.start()) {
       return readPatchList(key, repo);
     }
   }
@@ -180,33 +224,79 @@ public class PatchListLoader implements Callable<PatchList> {
             .toSet();
       }
 
-      int cnt = diffEntries.size();
-      List<PatchListEntry> entries = new ArrayList<>();
-      entries.add(newCommitMessage(cmp, reader,
-          againstParent ? null : aCommit, b));
-      for (int i = 0; i < cnt; i++) {
-        DiffEntry e = diffEntries.get(i);
+      List<DiffEntry> toDiff = new ArrayList<>(diffEntries.size());
+      for (DiffEntry e : diffEntries) {
         if (paths == null || paths.contains(e.getNewPath())
             || paths.contains(e.getOldPath())) {
-
-          FileHeader fh = toFileHeader(key, df, e);
-          long oldSize =
-              getFileSize(repo, reader, e.getOldMode(), e.getOldPath(), aTree);
-          long newSize =
-              getFileSize(repo, reader, e.getNewMode(), e.getNewPath(), bTree);
-          entries.add(newEntry(aTree, fh, newSize, newSize - oldSize));
+          toDiff.add(e);
         }
       }
+
+      int cnt = toDiff.size();
+      List<FileHeader> headers = toFileHeaders(key, repo, cmp, df, toDiff);
+      Map<ObjectId, Long> sizes = getBlobSizes(reader, toDiff);
+      List<PatchListEntry> entries = new ArrayList<>(cnt + 1);
+      entries.add(newCommitMessage(cmp, reader,
+          againstParent ? null : aCommit, b));
+      for (int i = 0; i < cnt; i++) {
+        DiffEntry e = toDiff.get(i);
+        long oldSize = getFileSize(repo, reader, sizes,
+            e.getOldMode(), e.getOldId(), e.getOldPath(), aTree);
+        long newSize = getFileSize(repo, reader, sizes,
+            e.getNewMode(), e.getNewId(), e.getNewPath(), bTree);
+        entries.add(newEntry(aTree, headers.get(i), newSize, newSize - oldSize));
+      }
       return new PatchList(a, b, againstParent,
           entries.toArray(new PatchListEntry[entries.size()]));
     }
   }
 
+  /**
+   * Look up the sizes of all blobs on either side of the given entries.
+   * <p>
+   * Sizes are read in one batch from the object IDs of the entries, rather
+   * than walking both trees to each path. Blobs appearing in several entries
+   * are only looked up once.
+   */
+  private static Map<ObjectId, Long> getBlobSizes(ObjectReader reader,
+      List<DiffEntry> entries) throws IOException {
+    Set<ObjectId> ids = new HashSet<>();
+    for (DiffEntry e : entries) {
+      addBlob(ids, e.getOldMode(), e.getOldId());
+      addBlob(ids, e.getNewMode(), e.getNewId());
+    }
+    Map<ObjectId, Long> sizes = Maps.newHashMapWithExpectedSize(ids.size());
+    AsyncObjectSizeQueue<ObjectId> q = reader.getObjectSize(ids, true);
+    try {
+      while (q.next()) {
+        sizes.put(q.getObjectId().copy(), q.getSize());
+      }
+    } finally {
+      q.release();
+    }
+    return sizes;
+  }
+
+  private static void addBlob(Set<ObjectId> ids, FileMode mode,
+      AbbreviatedObjectId id) {
+    if (isBlob(mode) && id.isComplete()) {
+      ids.add(id.toObjectId());
+    }
+  }
+
   private static long getFileSize(Repository repo, ObjectReader reader,
-      FileMode mode, String path, RevTree t) throws IOException {
+      Map<ObjectId, Long> sizes, FileMode mode, AbbreviatedObjectId id,
+      String path, RevTree t) throws IOException {
     if (!isBlob(mode)) {
       return 0;
     }
+    if (id.isComplete()) {
+      Long size = sizes.get(id.toObjectId());
+      if (size != null) {
+        return size;
+      }
+    }
+    // Only abbreviated IDs should get here; find the blob by its path.
     try (TreeWalk tw = TreeWalk.forPath(reader, path, t)) {
       return tw != null
           ? repo.open(tw.getObjectId(0), OBJ_BLOB).getSize()
@@ -219,38 +309,133 @@ public class PatchListLoader implements Callable<PatchList> {
     return t == FileMode.TYPE_FILE || t == FileMode.TYPE_SYMLINK;
   }
 
-  private FileHeader toFileHeader(PatchListKey key,
-      final DiffFormatter diffFormatter, final DiffEntry diffEntry)
+  /**
+   * Diff all files, concurrently on the {@link DiffExecutor}.
+   * <p>
+   * Up to one worker per thread of the executor, see {@code
+   * cache.diff.threads}, takes files from the list until all are done. The
+   * executor is shared by all loads, so workers may wait there for a free
+   * thread. Each file has its own timeout, counted from when a worker starts
+   * on it; a file not diffed by then is diffed in the calling thread without
+   * the slow Myers fallback, see {@link
+   * #toFileHeaderWithoutMyersDiff(DiffFormatter, DiffEntry)}, and a new worker
+   * takes the place of the one still busy with it. Files waiting for a worker
+   * are never degraded.
+   * <p>
+   * DiffFormatter is not thread-safe, so each worker uses its own, with its own
+   * ObjectReader.
+   */
+  private List<FileHeader> toFileHeaders(PatchListKey key,
+      final Repository repo, final RawTextComparator cmp,
+      DiffFormatter diffFormatter, final List<DiffEntry> diffEntries)
       throws IOException {
-
-    Future<FileHeader> result = diffExecutor.submit(new Callable<FileHeader>() {
+    final int cnt = diffEntries.size();
+    final AtomicReferenceArray<FileHeader> headers =
+        new AtomicReferenceArray<>(cnt);
+    // Start of each file relative to t0, offset by 1; 0 if not yet started.
+    final long t0 = System.nanoTime();
+    final AtomicLongArray started = new AtomicLongArray(cnt);
+    final AtomicInteger next = new AtomicInteger();
+    final Semaphore progress = new Semaphore(0);
+    Callable<Void> worker = new Callable<Void>() {
       @Override
-      public FileHeader call() throws IOException {
-        synchronized (diffEntry) {
-          return diffFormatter.toFileHeader(diffEntry);
+      public Void call() throws IOException {
+        try (DiffFormatter df = new DiffFormatter(
+            DisabledOutputStream.INSTANCE)) {
+          df.setRepository(repo);
+          df.setDiffComparator(cmp);
+          for (int i = next.getAndIncrement(); i < cnt;
+              i = next.getAndIncrement()) {
+            started.set(i, System.nanoTime() - t0 + 1);
+            headers.compareAndSet(i, null,
+                df.toFileHeader(diffEntries.get(i)));
+            progress.release();
+          }
+        } finally {
+          progress.release();
         }
+        return null;
       }
-    });
+    };
 
+    int workers = Math.min(cnt, diffThreads);
+    List<Future<Void>> results = new ArrayList<>(workers);
+    for (int w = 0; w < workers; w++) {
+      results.add(diffExecutor.submit(worker));
+    }
+
+    long timeout = MILLISECONDS.toNanos(timeoutMillis);
+    int timedOut = 0;
     try {
-      return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
-    } catch (InterruptedException | TimeoutException e) {
-      log.warn(timeoutMillis + " ms timeout reached for Diff loader"
-                      + " in project " + project
-                      + " on commit " + key.getNewId().name()
-                      + " on path " + diffEntry.getNewPath()
-                      + " comparing " + diffEntry.getOldId().name()
-                      + ".." + diffEntry.getNewId().name());
-      result.cancel(true);
-      synchronized (diffEntry) {
-        return toFileHeaderWithoutMyersDiff(diffFormatter, diffEntry);
+      // Files before done are all diffed.
+      int done = 0;
+      while (true) {
+        while (done < cnt && headers.get(done) != null) {
+          done++;
+        }
+        if (done == cnt) {
+          break;
+        }
+        for (Future<Void> r : results) {
+          if (r.isDone()) {
+            r.get();
+          }
+        }
+
+        long now = System.nanoTime() - t0 + 1;
+        long wait = timeout;
+        int end = Math.min(next.get(), cnt);
+        for (int i = done; i < end; i++) {
+          long s = started.get(i);
+          if (s == 0 || headers.get(i) != null) {
+            continue;
+          }
+          long left = s + timeout - now;
+          if (left > 0) {
+            wait = Math.min(wait, left);
+          } else if (headers.compareAndSet(i, null,
+              toFileHeaderWithoutMyersDiff(
+                  diffFormatter, diffEntries.get(i)))) {
+            timedOut++;
+            results.add(diffExecutor.submit(worker));
+          }
+        }
+        progress.tryAcquire(wait, NANOSECONDS);
+        progress.drainPermits();
       }
+    } catch (InterruptedException e) {
+      // Diff the remaining files below.
     } catch (ExecutionException e) {
       // If there was an error computing the result, carry it
       // up to the caller so the cache knows this key is invalid.
       Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
       throw new IOException(e.getMessage(), e.getCause());
+    } finally {
+      // Keep workers from starting on any more files.
+      next.set(cnt);
+      for (Future<Void> r : results) {
+        r.cancel(true);
+      }
+    }
+
+    List<FileHeader> result = new ArrayList<>(cnt);
+    for (int i = 0; i < cnt; i++) {
+      FileHeader fh = headers.get(i);
+      if (fh == null) {
+        fh = toFileHeaderWithoutMyersDiff(diffFormatter, diffEntries.get(i));
+        timedOut++;
+      }
+      result.add(fh);
+    }
+    if (timedOut > 0) {
+      log.warn(timeoutMillis + " ms timeout reached for Diff loader"
+                      + " in project " + project
+                      + " on commit " + key.getNewId().name()
+                      + "; diffed " + timedOut + " of " + cnt + " files"
+                      + " without Myers fallback");
+      metrics.timeouts.incrementBy(timedOut);
     }
+    return result;
   }
 
   private FileHeader toFileHeaderWithoutMyersDiff(DiffFormatter diffFormatter,
@@ -0,0 +1,205 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Patch;
+import com.google.gerrit.reviewdb.client.Patch.PatchType;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the diffs of new patch sets in the background.
+ * <p>
+ * Called once a patch set has been uploaded, so that the first reviewer
+ * opening it finds its patch list, and the intraline diffs of its smaller
+ * files, already cached. Warming is best effort: patch sets are skipped while
+ * too many others are waiting, and failures are only logged.
+ */
+@Singleton
+public class PatchListWarmer {
+  private static final Logger log =
+      LoggerFactory.getLogger(PatchListWarmer.class);
+
+  /** Intraline diffs of larger files are left to be computed on demand. */
+  private static final long MAX_INTRALINE_SIZE = 64 << 10;
+
+  private final GitRepositoryManager repoManager;
+  private final PatchListCache patchListCache;
+  private final ExecutorService executor;
+  private final boolean enabled;
+  private final boolean intraline;
+  private final int maxPending;
+  private final AtomicInteger pending = new AtomicInteger();
+
+  @Inject
+  PatchListWarmer(GitRepositoryManager repoManager,
+      PatchListCache patchListCache,
+      @DiffWarmingExecutor ExecutorService executor,
+      @GerritServerConfig Config cfg) {
+    this.repoManager = repoManager;
+    this.patchListCache = patchListCache;
+    this.executor = executor;
+    enabled = cfg.getInt("cache", PatchListCacheImpl.FILE_NAME,
+        "warmThreads", 1) > 0;
+    intraline = cfg.getBoolean("cache", PatchListCacheImpl.INTRA_NAME,
+        "enabled", cfg.getBoolean("cache", "diff", "intraline", true));
+    maxPending = cfg.getInt("cache", PatchListCacheImpl.FILE_NAME,
+        "warmQueueLimit", 100);
+  }
+
+  /**
+   * Compute the diffs of a patch set in the background.
+   *
+   * @param change change the patch set belongs to.
+   * @param patchSet newly created patch set.
+   */
+  public void warm(Change change, final PatchSet patchSet) {
+    if (!enabled || patchSet.getRevision() == null) {
+      return;
+    }
+    if (pending.incrementAndGet() > maxPending) {
+      pending.decrementAndGet();
+      log.debug("Too many patch sets waiting, not warming diffs of {}",
+          patchSet.getId());
+      return;
+    }
+
+    final Project.NameKey project = change.getProject();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          Thread self = Thread.currentThread();
+          int priority = self.getPriority();
+          self.setPriority(Thread.MIN_PRIORITY);
+          try {
+            warmNow(project, patchSet);
+          } catch (PatchListNotAvailableException | IOException
+              | RuntimeException e) {
+            log.warn("Cannot warm diffs of " + patchSet.getId(), e);
+          } finally {
+            self.setPriority(priority);
+            pending.decrementAndGet();
+          }
+        }
+
+        @Override
+        public String toString() {
+          return "warm-diffs " + project.get() + " " + patchSet.getId();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      pending.decrementAndGet();
+    }
+  }
+
+  private void warmNow(Project.NameKey project, PatchSet patchSet)
+      throws PatchListNotAvailableException, IOException {
+    ObjectId b = ObjectId.fromString(patchSet.getRevision().get());
+    // Same key as PatchListCache#get(Change, PatchSet): against the parent,
+    // or against the auto-merge for merge commits.
+    PatchList list = patchListCache.get(
+        new PatchListKey(null, b, Whitespace.IGNORE_NONE), project);
+    if (!intraline || list.getOldId() == null) {
+      return;
+    }
+
+    try (Repository repo = repoManager.openRepository(project);
+        ObjectReader reader = repo.newObjectReader();
+        RevWalk rw = new RevWalk(reader)) {
+      RevTree aTree = rw.parseTree(list.getOldId());
+      RevTree bTree = rw.parseTree(list.getNewId());
+      for (PatchListEntry e : list.getPatches()) {
+        if (isSmallModification(e)) {
+          warmIntraline(project, reader, aTree, bTree, b, e);
+        }
+      }
+    }
+  }
+
+  private static boolean isSmallModification(PatchListEntry e) {
+    switch (e.getChangeType()) {
+      case MODIFIED:
+      case COPIED:
+      case RENAMED:
+      case REWRITE:
+        break;
+      case ADDED:
+      case DELETED:
+      default:
+        return false;
+    }
+    long oldSize = e.getSize() - e.getSizeDelta();
+    return !Patch.COMMIT_MSG.equals(e.getNewName())
+        && e.getPatchType() == PatchType.UNIFIED
+        && !e.getEdits().isEmpty()
+        && Math.max(e.getSize(), oldSize) <= MAX_INTRALINE_SIZE;
+  }
+
+  private void warmIntraline(Project.NameKey project, ObjectReader reader,
+      RevTree aTree, RevTree bTree, ObjectId commit, PatchListEntry e)
+      throws IOException {
+    // Mirror PatchScriptBuilder, which looks up intraline diffs by the blobs
+    // on either side and the default whitespace preference.
+    String oldName = e.getOldName() != null ? e.getOldName() : e.getNewName();
+    ObjectId aId = blob(reader, aTree, oldName);
+    ObjectId bId = blob(reader, bTree, e.getNewName());
+    if (aId == null || bId == null) {
+      return;
+    }
+    patchListCache.getIntraLineDiff(
+        new IntraLineDiffKey(aId, bId, false),
+        IntraLineDiffArgs.create(
+            new Text(reader.open(aId, OBJ_BLOB)),
+            new Text(reader.open(bId, OBJ_BLOB)),
+            new ArrayList<Edit>(e.getEdits()),
+            project, commit, e.getNewName()));
+  }
+
+  private static ObjectId blob(ObjectReader reader, RevTree tree,
+      String path) throws IOException {
+    try (TreeWalk tw = TreeWalk.forPath(reader, path, tree)) {
+      if (tw == null || tw.getFileMode(0).getObjectType() != OBJ_BLOB) {
+        return null;
+      }
+      return tw.getObjectId(0);
+    }
+  }
+}
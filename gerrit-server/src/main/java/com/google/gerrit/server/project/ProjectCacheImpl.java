@@ -76,6 +76,9 @@ public class ProjectCacheImpl implements ProjectCache {
         bind(LifecycleListener.class)
           .annotatedWith(UniqueAnnotations.create())
           .to(ProjectCacheWarmer.class);
+        bind(LifecycleListener.class)
+          .annotatedWith(UniqueAnnotations.create())
+          .to(RulesCacheWarmer.class);
       }
     };
   }
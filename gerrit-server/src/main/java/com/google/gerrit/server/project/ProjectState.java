@@ -192,6 +192,11 @@ public class ProjectState {
 
   /** @return Construct a new PrologEnvironment for the calling thread. */
   public PrologEnvironment newPrologEnvironment() throws CompileException {
+    return envFactory.create(getPrologMachine());
+  }
+
+  /** @return machine with the rules of this project, loaded once. */
+  PrologMachineCopy getPrologMachine() throws CompileException {
     PrologMachineCopy pmc = rulesMachine;
     if (pmc == null) {
       pmc = rulesCache.loadMachine(
@@ -199,7 +204,7 @@ public class ProjectState {
           config.getRulesId());
       rulesMachine = pmc;
     }
-    return envFactory.create(pmc);
+    return pmc;
   }
 
   /**
@@ -0,0 +1,96 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.rules.RulesCache;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.googlecode.prolog_cafe.exceptions.CompileException;
+
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/** Compiles the {@code rules.pl} of all projects on startup. */
+@Singleton
+public class RulesCacheWarmer implements LifecycleListener {
+  private static final Logger log =
+      LoggerFactory.getLogger(RulesCacheWarmer.class);
+
+  private final Config config;
+  private final ProjectCache cache;
+  private final RulesCache rulesCache;
+
+  @Inject
+  RulesCacheWarmer(@GerritServerConfig Config config, ProjectCache cache,
+      RulesCache rulesCache) {
+    this.config = config;
+    this.cache = cache;
+    this.rulesCache = rulesCache;
+  }
+
+  @Override
+  public void start() {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    if (rulesCache.isProjectRulesEnabled()
+        && config.getBoolean("rules", null, "loadOnStartup", false)) {
+      final ThreadPoolExecutor pool =
+          new ScheduledThreadPoolExecutor(config.getInt("rules", null,
+              "loadThreads", cpus), new ThreadFactoryBuilder().setNameFormat(
+              "RulesCacheLoader-%d").build());
+
+      log.info("Loading project rules");
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          for (final Project.NameKey name : cache.all()) {
+            pool.execute(new Runnable() {
+              @Override
+              public void run() {
+                load(name);
+              }
+            });
+          }
+          pool.shutdown();
+        }
+      });
+    }
+  }
+
+  private void load(Project.NameKey name) {
+    ProjectState state = cache.get(name);
+    if (state == null || state.getConfig().getRulesId() == null) {
+      return;
+    }
+    try {
+      // Held by the cached project state, as if rules had been evaluated.
+      state.getPrologMachine();
+    } catch (CompileException e) {
+      log.warn("Cannot load rules of " + name, e);
+    }
+  }
+
+  @Override
+  public void stop() {
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Submit records of changes, as last evaluated by {@link SubmitRuleEvaluator}.
+ * <p>
+ * Entries are keyed by everything the records are computed from: the state of
+ * the change, the configuration of its project and all parent projects, which
+ * includes their {@code rules.pl}, and the user evaluating them. Updating any
+ * of these leads to a different key, so stale entries are never returned and
+ * simply age out of the cache.
+ */
+@Singleton
+public class SubmitRecordCache {
+  static final String CACHE_NAME = "submit_records";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class,
+            new TypeLiteral<List<SubmitRecord>>() {});
+        bind(SubmitRecordCache.class);
+      }
+    };
+  }
+
+  static class Key {
+    private final Change.Id change;
+    private final int rowVersion;
+    private final Timestamp lastUpdatedOn;
+    private final ObjectId metaRevision;
+    private final PatchSet.Id patchSet;
+    private final ImmutableList<ObjectId> configRevisions;
+    private final Account.Id user;
+    private final boolean fastEvalLabels;
+    private final boolean skipFilters;
+
+    Key(Change c, ObjectId metaRevision, PatchSet.Id patchSet,
+        ImmutableList<ObjectId> configRevisions, Account.Id user,
+        boolean fastEvalLabels, boolean skipFilters) {
+      this.change = c.getId();
+      this.rowVersion = c.getRowVersion();
+      this.lastUpdatedOn = c.getLastUpdatedOn();
+      this.metaRevision = metaRevision != null ? metaRevision.copy() : null;
+      this.patchSet = patchSet;
+      this.configRevisions = configRevisions;
+      this.user = user;
+      this.fastEvalLabels = fastEvalLabels;
+      this.skipFilters = skipFilters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof Key) {
+        Key k = (Key) o;
+        return change.equals(k.change)
+            && rowVersion == k.rowVersion
+            && Objects.equals(lastUpdatedOn, k.lastUpdatedOn)
+            && Objects.equals(metaRevision, k.metaRevision)
+            && patchSet.equals(k.patchSet)
+            && configRevisions.equals(k.configRevisions)
+            && user.equals(k.user)
+            && fastEvalLabels == k.fastEvalLabels
+            && skipFilters == k.skipFilters;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(change, rowVersion, lastUpdatedOn, metaRevision,
+          patchSet, configRevisions, user, fastEvalLabels, skipFilters);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("change", change)
+          .add("rowVersion", rowVersion)
+          .add("metaRevision", metaRevision)
+          .add("patchSet", patchSet)
+          .add("user", user)
+          .toString();
+    }
+  }
+
+  private final Cache<Key, List<SubmitRecord>> cache;
+
+  @Inject
+  SubmitRecordCache(
+      @Named(CACHE_NAME) Cache<Key, List<SubmitRecord>> cache) {
+    this.cache = cache;
+  }
+
+  List<SubmitRecord> getIfPresent(Key key) {
+    return cache.getIfPresent(key);
+  }
+
+  void put(Key key, List<SubmitRecord> records) {
+    cache.put(key, ImmutableList.copyOf(records));
+  }
+}
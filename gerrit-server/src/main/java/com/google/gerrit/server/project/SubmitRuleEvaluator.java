@@ -17,6 +17,7 @@ package com.google.gerrit.server.project;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.common.data.SubmitTypeRecord;
@@ -40,6 +41,7 @@ import com.googlecode.prolog_cafe.lang.SymbolTerm;
 import com.googlecode.prolog_cafe.lang.Term;
 import com.googlecode.prolog_cafe.lang.VariableTerm;
 
+import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,6 +100,7 @@ public class SubmitRuleEvaluator {
   private boolean skipFilters;
   private String rule;
   private boolean logErrors = true;
+  private boolean allowCache = true;
   private long reductionsConsumed;
 
   private Term submitRule;
@@ -175,6 +178,17 @@ public class SubmitRuleEvaluator {
     return this;
   }
 
+  /**
+   * @param allow whether records may be read from and stored in the
+   *     {@link SubmitRecordCache}. Submit enforcement should evaluate the
+   *     rules afresh rather than trust a cached result.
+   * @return this
+   */
+  public SubmitRuleEvaluator setAllowCache(boolean allow) {
+    allowCache = allow;
+    return this;
+  }
+
   /** @return Prolog reductions consumed during evaluation. */
   public long getReductionsConsumed() {
     return reductionsConsumed;
@@ -208,6 +222,15 @@ public class SubmitRuleEvaluator {
       }
     }
 
+    SubmitRecordCache.Key cacheKey = cacheKey();
+    if (cacheKey != null) {
+      List<SubmitRecord> cached =
+          cd.submitRecordCache().getIfPresent(cacheKey);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
     List<Term> results;
     try {
       results = evaluateImpl("locate_submit_rule", "can_submit",
@@ -227,7 +250,53 @@ public class SubmitRuleEvaluator {
             getProjectName()));
     }
 
-    return resultsToSubmitRecord(getSubmitRule(), results);
+    List<SubmitRecord> records =
+        resultsToSubmitRecord(getSubmitRule(), results);
+    if (cacheKey != null && !hasRuleError(records)) {
+      cd.submitRecordCache().put(cacheKey, records);
+    }
+    return records;
+  }
+
+  /**
+   * @return key of the submit records in the {@link SubmitRecordCache}, or
+   *     null if the records of this evaluation are not cached.
+   */
+  private SubmitRecordCache.Key cacheKey() {
+    // Custom rules are not cached, and callers wanting descriptive errors are
+    // inspecting the rules, so evaluate those every time.
+    CurrentUser user = control.getUser();
+    if (!allowCache || cd.submitRecordCache() == null || rule != null
+        || !logErrors || !user.isIdentifiedUser()) {
+      return null;
+    }
+    try {
+      initPatchSet();
+    } catch (OrmException e) {
+      return null;
+    }
+    ImmutableList.Builder<ObjectId> configRevisions = ImmutableList.builder();
+    for (ProjectState p
+        : control.getProjectControl().getProjectState().tree()) {
+      ObjectId rev = p.getConfig().getRevision();
+      if (rev == null) {
+        return null;
+      }
+      configRevisions.add(rev);
+    }
+    return new SubmitRecordCache.Key(control.getChange(),
+        control.getNotes().getRevision(), patchSet.getId(),
+        configRevisions.build(), user.getAccountId(), fastEvalLabels,
+        skipFilters);
+  }
+
+  private static boolean hasRuleError(List<SubmitRecord> records) {
+    for (SubmitRecord r : records) {
+      if (r.status == SubmitRecord.Status.RULE_ERROR) {
+        return true;
+      }
+    }
+    return false;
   }
 
   private List<SubmitRecord> cannotSubmitDraft() {
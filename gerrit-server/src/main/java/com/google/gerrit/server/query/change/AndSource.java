@@ -44,21 +44,25 @@ public class AndSource extends AndPredicate<ChangeData>
           int bi = b instanceof ChangeDataSource ? 0 : 1;
           int cmp = ai - bi;
 
-          if (cmp == 0) {
-            cmp = a.getCost() - b.getCost();
-          }
-
           if (cmp == 0 //
               && a instanceof ChangeDataSource //
               && b instanceof ChangeDataSource) {
+            // Every result of the driving source has to be loaded and matched
+            // against all other children, so prefer the source expected to
+            // return the fewest results.
             ChangeDataSource as = (ChangeDataSource) a;
             ChangeDataSource bs = (ChangeDataSource) b;
-            cmp = as.getCardinality() - bs.getCardinality();
+            cmp = Integer.compare(as.getCardinality(), bs.getCardinality());
 
+            if (cmp == 0) {
+              cmp = a.getCost() - b.getCost();
+            }
             if (cmp == 0) {
               cmp = (as.hasChange() ? 0 : 1)
                   - (bs.hasChange() ? 0 : 1);
             }
+          } else if (cmp == 0) {
+            cmp = a.getCost() - b.getCost();
           }
 
           return cmp;
@@ -159,25 +163,36 @@ public class AndSource extends AndPredicate<ChangeData>
       .transformAndConcat(new Function<List<ChangeData>, List<ChangeData>>() {
         @Override
         public List<ChangeData> apply(List<ChangeData> buffer) {
-          if (loadChange) {
-            try {
+          try {
+            if (loadChange) {
               ChangeData.ensureChangeLoaded(buffer);
-            } catch (OrmException e) {
-              throw new OrmRuntimeException(e);
             }
+            prepare(AndSource.this, buffer);
+          } catch (OrmException e) {
+            throw new OrmRuntimeException(e);
           }
           return buffer;
         }
       });
   }
 
-  private ChangeDataSource source() {
-    int minCost = Integer.MAX_VALUE;
+  private static void prepare(Predicate<ChangeData> p, List<ChangeData> cds)
+      throws OrmException {
+    if (p instanceof BatchMatchable) {
+      ((BatchMatchable) p).prepare(cds);
+    }
+    for (Predicate<ChangeData> c : p.getChildren()) {
+      prepare(c, cds);
+    }
+  }
+
+  /** @return the child source whose results are read and filtered. */
+  ChangeDataSource source() {
     Predicate<ChangeData> s = null;
     for (Predicate<ChangeData> p : getChildren()) {
-      if (p instanceof ChangeDataSource && p.getCost() < minCost) {
+      if (p instanceof ChangeDataSource
+          && (s == null || CMP.compare(p, s) < 0)) {
         s = p;
-        minCost = p.getCost();
       }
     }
     return (ChangeDataSource) s;
@@ -0,0 +1,30 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gwtorm.server.OrmException;
+
+import java.util.List;
+
+/**
+ * Predicate that can prepare for matching several changes at once.
+ * <p>
+ * {@link AndSource} passes each buffer of changes read from its source to
+ * {@link #prepare(List)} before matching the changes one at a time, so work
+ * can be shared between them.
+ */
+public interface BatchMatchable {
+  void prepare(List<ChangeData> cds) throws OrmException;
+}
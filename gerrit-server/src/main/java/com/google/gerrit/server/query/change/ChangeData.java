@@ -24,6 +24,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
@@ -63,6 +64,7 @@ import com.google.gerrit.server.patch.PatchListNotAvailableException;
 import com.google.gerrit.server.project.ChangeControl;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.SubmitRecordCache;
 import com.google.gerrit.server.project.SubmitRuleEvaluator;
 import com.google.gerrit.server.query.DataSource;
 import com.google.gwtorm.server.OrmException;
@@ -143,35 +145,27 @@ public class ChangeData {
 
   public static void ensureAllPatchSetsLoaded(Iterable<ChangeData> changes)
       throws OrmException {
-    ChangeData first = Iterables.getFirst(changes, null);
-    if (first == null) {
-      return;
-    } else if (first.notesMigration.readChanges()) {
-      for (ChangeData cd : changes) {
-        cd.patchSets();
+    new BatchLoader<PatchSet>() {
+      @Override
+      ResultSet<PatchSet> read(ChangeData cd) throws OrmException {
+        return cd.patchSets == null
+            ? cd.db.patchSets().byChange(cd.getId())
+            : null;
       }
-      return;
-    }
 
-    List<ResultSet<PatchSet>> results = new ArrayList<>(BATCH_SIZE);
-    for (List<ChangeData> batch : Iterables.partition(changes, BATCH_SIZE)) {
-      results.clear();
-      for (ChangeData cd : batch) {
-        if (cd.patchSets == null) {
-          results.add(cd.db.patchSets().byChange(cd.getId()));
-        } else {
-          results.add(null);
-        }
+      @Override
+      void set(ChangeData cd, ResultSet<PatchSet> result) {
+        cd.patchSets = result.toList();
       }
-      for (int i = 0; i < batch.size(); i++) {
-        ResultSet<PatchSet> result = results.get(i);
-        if (result != null) {
-          batch.get(i).patchSets = result.toList();
-        }
+
+      @Override
+      void loadFromNotes(ChangeData cd) throws OrmException {
+        cd.patchSets();
       }
-    }
+    }.load(changes);
   }
 
+
   public static void ensureCurrentPatchSetLoaded(Iterable<ChangeData> changes)
       throws OrmException {
     ChangeData first = Iterables.getFirst(changes, null);
@@ -200,68 +194,145 @@ public class ChangeData {
 
   public static void ensureCurrentApprovalsLoaded(Iterable<ChangeData> changes)
       throws OrmException {
-    ChangeData first = Iterables.getFirst(changes, null);
-    if (first == null) {
-      return;
-    } else if (first.notesMigration.readChanges()) {
-      for (ChangeData cd : changes) {
+    new BatchLoader<PatchSetApproval>() {
+      @Override
+      ResultSet<PatchSetApproval> read(ChangeData cd) throws OrmException {
+        return cd.currentApprovals == null
+            ? cd.db.patchSetApprovals().byPatchSet(
+                cd.change().currentPatchSetId())
+            : null;
+      }
+
+      @Override
+      void set(ChangeData cd, ResultSet<PatchSetApproval> result) {
+        cd.currentApprovals = sortApprovals(result);
+      }
+
+      @Override
+      void loadFromNotes(ChangeData cd) throws OrmException {
         cd.currentApprovals();
       }
-      return;
-    }
+    }.load(changes);
+  }
 
-    List<ResultSet<PatchSetApproval>> results = new ArrayList<>(BATCH_SIZE);
-    for (List<ChangeData> batch : Iterables.partition(changes, BATCH_SIZE)) {
-      results.clear();
-      for (ChangeData cd : batch) {
-        if (cd.currentApprovals == null) {
-          PatchSet.Id psId = cd.change().currentPatchSetId();
-          results.add(cd.db.patchSetApprovals().byPatchSet(psId));
-        } else {
-          results.add(null);
-        }
+
+  public static void ensureMessagesLoaded(Iterable<ChangeData> changes)
+      throws OrmException {
+    new BatchLoader<ChangeMessage>() {
+      @Override
+      ResultSet<ChangeMessage> read(ChangeData cd) throws OrmException {
+        return cd.messages == null
+            ? cd.db.changeMessages().byPatchSet(
+                cd.change().currentPatchSetId())
+            : null;
+      }
+
+      @Override
+      void set(ChangeData cd, ResultSet<ChangeMessage> result) {
+        cd.messages = result.toList();
+      }
+
+      @Override
+      void loadFromNotes(ChangeData cd) throws OrmException {
+        cd.messages();
       }
-      for (int i = 0; i < batch.size(); i++) {
-        ResultSet<PatchSetApproval> result = results.get(i);
-        if (result != null) {
-          batch.get(i).currentApprovals = sortApprovals(result);
+    }.load(changes);
+  }
+
+
+  public static void ensureAllApprovalsLoaded(Iterable<ChangeData> changes)
+      throws OrmException {
+    new BatchLoader<PatchSetApproval>() {
+      @Override
+      ResultSet<PatchSetApproval> read(ChangeData cd) throws OrmException {
+        return cd.allApprovals == null
+            ? cd.db.patchSetApprovals().byChange(cd.getId())
+            : null;
+      }
+
+      @Override
+      void set(ChangeData cd, ResultSet<PatchSetApproval> result) {
+        ImmutableListMultimap.Builder<PatchSet.Id, PatchSetApproval> b =
+            ImmutableListMultimap.builder();
+        for (PatchSetApproval psa : result) {
+          b.put(psa.getPatchSetId(), psa);
         }
+        cd.allApprovals = b.build();
       }
-    }
+
+      @Override
+      void loadFromNotes(ChangeData cd) throws OrmException {
+        cd.approvals();
+      }
+    }.load(changes);
   }
 
-  public static void ensureMessagesLoaded(Iterable<ChangeData> changes)
+
+  public static void ensureAllMessagesLoaded(Iterable<ChangeData> changes)
       throws OrmException {
-    ChangeData first = Iterables.getFirst(changes, null);
-    if (first == null) {
-      return;
-    } else if (first.notesMigration.readChanges()) {
-      for (ChangeData cd : changes) {
+    new BatchLoader<ChangeMessage>() {
+      @Override
+      ResultSet<ChangeMessage> read(ChangeData cd) throws OrmException {
+        return cd.messages == null
+            ? cd.db.changeMessages().byChange(cd.getId())
+            : null;
+      }
+
+      @Override
+      void set(ChangeData cd, ResultSet<ChangeMessage> result) {
+        cd.messages = ChangeNotes.MESSAGE_BY_TIME.sortedCopy(result);
+      }
+
+      @Override
+      void loadFromNotes(ChangeData cd) throws OrmException {
         cd.messages();
       }
-      return;
-    }
+    }.load(changes);
+  }
 
-    List<ResultSet<ChangeMessage>> results = new ArrayList<>(BATCH_SIZE);
-    for (List<ChangeData> batch : Iterables.partition(changes, BATCH_SIZE)) {
-      results.clear();
-      for (ChangeData cd : batch) {
-        if (cd.messages == null) {
-          PatchSet.Id psId = cd.change().currentPatchSetId();
-          results.add(cd.db.changeMessages().byPatchSet(psId));
-        } else {
-          results.add(null);
+  /**
+   * Loader of one field of many changes.
+   * <p>
+   * From ReviewDb, the reads of a batch of changes are all started before any
+   * of their results is used. From NoteDb, each change is loaded in turn.
+   */
+  private abstract static class BatchLoader<T> {
+    /** @return the started read of the field, or null if already loaded. */
+    @Nullable
+    abstract ResultSet<T> read(ChangeData cd) throws OrmException;
+
+    abstract void set(ChangeData cd, ResultSet<T> result);
+
+    abstract void loadFromNotes(ChangeData cd) throws OrmException;
+
+    void load(Iterable<ChangeData> changes) throws OrmException {
+      ChangeData first = Iterables.getFirst(changes, null);
+      if (first == null) {
+        return;
+      } else if (first.notesMigration.readChanges()) {
+        for (ChangeData cd : changes) {
+          loadFromNotes(cd);
         }
+        return;
       }
-      for (int i = 0; i < batch.size(); i++) {
-        ResultSet<ChangeMessage> result = results.get(i);
-        if (result != null) {
-          batch.get(i).messages = result.toList();
+
+      List<ResultSet<T>> results = new ArrayList<>(BATCH_SIZE);
+      for (List<ChangeData> batch : Iterables.partition(changes, BATCH_SIZE)) {
+        results.clear();
+        for (ChangeData cd : batch) {
+          results.add(read(cd));
+        }
+        for (int i = 0; i < batch.size(); i++) {
+          ResultSet<T> result = results.get(i);
+          if (result != null) {
+            set(batch.get(i), result);
+          }
         }
       }
     }
   }
 
+
   public static void ensureReviewedByLoadedForOpenChanges(
       Iterable<ChangeData> changes) throws OrmException {
     List<ChangeData> pending = new ArrayList<>();
@@ -302,7 +373,7 @@ public class ChangeData {
   public static ChangeData createForTest(Project.NameKey project, Change.Id id,
       int currentPatchSetId) {
     ChangeData cd = new ChangeData(null, null, null, null, null, null, null,
-        null, null, null, null, null, null, null, null, project, id);
+        null, null, null, null, null, null, null, null, null, project, id);
     cd.currentPatchSet = new PatchSet(new PatchSet.Id(id, currentPatchSetId));
     return cd;
   }
@@ -321,6 +392,7 @@ public class ChangeData {
   private final PatchListCache patchListCache;
   private final NotesMigration notesMigration;
   private final MergeabilityCache mergeabilityCache;
+  private final SubmitRecordCache submitRecordCache;
   private final StarredChangesUtil starredChangesUtil;
   private final Change.Id legacyId;
   private DataSource<ChangeData> returnedBySource;
@@ -368,6 +440,7 @@ public class ChangeData {
       PatchListCache patchListCache,
       NotesMigration notesMigration,
       MergeabilityCache mergeabilityCache,
+      SubmitRecordCache submitRecordCache,
       @Nullable StarredChangesUtil starredChangesUtil,
       @Assisted ReviewDb db,
       @Assisted Project.NameKey project,
@@ -386,6 +459,7 @@ public class ChangeData {
     this.patchListCache = patchListCache;
     this.notesMigration = notesMigration;
     this.mergeabilityCache = mergeabilityCache;
+    this.submitRecordCache = submitRecordCache;
     this.starredChangesUtil = starredChangesUtil;
     this.project = project;
     this.legacyId = id;
@@ -406,6 +480,7 @@ public class ChangeData {
       PatchListCache patchListCache,
       NotesMigration notesMigration,
       MergeabilityCache mergeabilityCache,
+      SubmitRecordCache submitRecordCache,
       @Nullable StarredChangesUtil starredChangesUtil,
       @Assisted ReviewDb db,
       @Assisted Change c) {
@@ -423,6 +498,7 @@ public class ChangeData {
     this.patchListCache = patchListCache;
     this.notesMigration = notesMigration;
     this.mergeabilityCache = mergeabilityCache;
+    this.submitRecordCache = submitRecordCache;
     this.starredChangesUtil = starredChangesUtil;
     legacyId = c.getId();
     change = c;
@@ -444,6 +520,7 @@ public class ChangeData {
       PatchListCache patchListCache,
       NotesMigration notesMigration,
       MergeabilityCache mergeabilityCache,
+      SubmitRecordCache submitRecordCache,
       @Nullable StarredChangesUtil starredChangesUtil,
       @Assisted ReviewDb db,
       @Assisted ChangeNotes cn) {
@@ -461,6 +538,7 @@ public class ChangeData {
     this.patchListCache = patchListCache;
     this.notesMigration = notesMigration;
     this.mergeabilityCache = mergeabilityCache;
+    this.submitRecordCache = submitRecordCache;
     this.starredChangesUtil = starredChangesUtil;
     legacyId = cn.getChangeId();
     change = cn.getChange();
@@ -483,6 +561,7 @@ public class ChangeData {
       PatchListCache patchListCache,
       NotesMigration notesMigration,
       MergeabilityCache mergeabilityCache,
+      SubmitRecordCache submitRecordCache,
       @Nullable StarredChangesUtil starredChangesUtil,
       @Assisted ReviewDb db,
       @Assisted ChangeControl c) {
@@ -500,6 +579,7 @@ public class ChangeData {
     this.patchListCache = patchListCache;
     this.notesMigration = notesMigration;
     this.mergeabilityCache = mergeabilityCache;
+    this.submitRecordCache = submitRecordCache;
     this.starredChangesUtil = starredChangesUtil;
     legacyId = c.getId();
     change = c.getChange();
@@ -523,6 +603,7 @@ public class ChangeData {
       PatchListCache patchListCache,
       NotesMigration notesMigration,
       MergeabilityCache mergeabilityCache,
+      SubmitRecordCache submitRecordCache,
       @Nullable StarredChangesUtil starredChangesUtil,
       @Assisted ReviewDb db,
       @Assisted Change.Id id) {
@@ -542,6 +623,7 @@ public class ChangeData {
     this.patchListCache = patchListCache;
     this.notesMigration = notesMigration;
     this.mergeabilityCache = mergeabilityCache;
+    this.submitRecordCache = submitRecordCache;
     this.starredChangesUtil = starredChangesUtil;
     this.legacyId = id;
     this.project = null;
@@ -551,6 +633,11 @@ public class ChangeData {
     return db;
   }
 
+  /** @return cache of submit records, or null if not available. */
+  public SubmitRecordCache submitRecordCache() {
+    return submitRecordCache;
+  }
+
   public boolean isFromSource(DataSource<ChangeData> s) {
     return s == returnedBySource;
   }
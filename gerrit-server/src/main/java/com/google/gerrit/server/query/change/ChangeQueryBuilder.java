@@ -23,6 +23,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.common.data.GroupReference;
 import com.google.gerrit.common.errors.NotSignedInException;
 import com.google.gerrit.extensions.common.AccountInfo;
@@ -177,6 +178,7 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
     final Provider<ListChildProjects> listChildProjects;
     final SubmitDryRun submitDryRun;
     final ConflictsCache conflictsCache;
+    final ListeningExecutorService conflictsExecutor;
     final TrackingFooters trackingFooters;
     final ChangeIndex index;
     final IndexConfig indexConfig;
@@ -211,6 +213,7 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
         ChangeIndexCollection indexes,
         SubmitDryRun submitDryRun,
         ConflictsCache conflictsCache,
+        @ConflictsExecutor ListeningExecutorService conflictsExecutor,
         TrackingFooters trackingFooters,
         IndexConfig indexConfig,
         Provider<ListMembers> listMembers,
@@ -221,8 +224,9 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
           changeDataFactory, fillArgs, plcUtil, accountResolver, groupBackend,
           allProjectsName, allUsersName, patchListCache, repoManager,
           projectCache, listChildProjects, submitDryRun, conflictsCache,
-          trackingFooters, indexes != null ? indexes.getSearchIndex() : null,
-          indexConfig, listMembers, starredChangesUtil,
+          conflictsExecutor, trackingFooters,
+          indexes != null ? indexes.getSearchIndex() : null, indexConfig,
+          listMembers, starredChangesUtil,
           cfg == null ? true : cfg.getBoolean("change", "allowDrafts", true));
     }
 
@@ -249,6 +253,7 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
         Provider<ListChildProjects> listChildProjects,
         SubmitDryRun submitDryRun,
         ConflictsCache conflictsCache,
+        ListeningExecutorService conflictsExecutor,
         TrackingFooters trackingFooters,
         ChangeIndex index,
         IndexConfig indexConfig,
@@ -277,6 +282,7 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
      this.listChildProjects = listChildProjects;
      this.submitDryRun = submitDryRun;
      this.conflictsCache = conflictsCache;
+     this.conflictsExecutor = conflictsExecutor;
      this.trackingFooters = trackingFooters;
      this.index = index;
      this.indexConfig = indexConfig;
@@ -292,7 +298,8 @@ public class ChangeQueryBuilder extends QueryBuilder<ChangeData> {
           changeDataFactory, fillArgs, plcUtil, accountResolver, groupBackend,
           allProjectsName, allUsersName, patchListCache, repoManager,
           projectCache, listChildProjects, submitDryRun,
-          conflictsCache, trackingFooters, index, indexConfig, listMembers,
+          conflictsCache, conflictsExecutor, trackingFooters, index,
+          indexConfig, listMembers,
           starredChangesUtil, allowsDrafts);
     }
 
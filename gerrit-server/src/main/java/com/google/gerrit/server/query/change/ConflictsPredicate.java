@@ -14,7 +14,11 @@
 
 package com.google.gerrit.server.query.change;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gerrit.common.data.SubmitTypeRecord;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.server.ReviewDb;
@@ -39,13 +43,22 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 class ConflictsPredicate extends OrPredicate<ChangeData> {
   private final String value;
@@ -84,68 +97,8 @@ class ConflictsPredicate extends OrPredicate<ChangeData> {
       predicatesForOneChange.add(or(or(filePredicates),
           new IsMergePredicate(args, value)));
 
-      predicatesForOneChange.add(new OperatorPredicate<ChangeData>(
-          ChangeQueryBuilder.FIELD_CONFLICTS, value) {
-
-        @Override
-        public boolean match(ChangeData object) throws OrmException {
-          Change otherChange = object.change();
-          if (otherChange == null) {
-            return false;
-          }
-          if (!otherChange.getDest().equals(c.getDest())) {
-            return false;
-          }
-          SubmitTypeRecord str = object.submitTypeRecord();
-          if (!str.isOk()) {
-            return false;
-          }
-          ObjectId other = ObjectId.fromString(
-              object.currentPatchSet().getRevision().get());
-          ConflictKey conflictsKey =
-              new ConflictKey(changeDataCache.getTestAgainst(), other, str.type,
-                  changeDataCache.getProjectState().isUseContentMerge());
-          Boolean conflicts = args.conflictsCache.getIfPresent(conflictsKey);
-          if (conflicts != null) {
-            return conflicts;
-          }
-          try (Repository repo =
-                args.repoManager.openRepository(otherChange.getProject());
-              CodeReviewRevWalk rw = CodeReviewCommit.newRevWalk(repo)) {
-            conflicts = !args.submitDryRun.run(
-                str.type, repo, rw, otherChange.getDest(),
-                changeDataCache.getTestAgainst(), other,
-                getAlreadyAccepted(repo, rw));
-            args.conflictsCache.put(conflictsKey, conflicts);
-            return conflicts;
-          } catch (IntegrationException | NoSuchProjectException
-              | IOException e) {
-            throw new IllegalStateException(e);
-          }
-        }
-
-        @Override
-        public int getCost() {
-          return 5;
-        }
-
-        private Set<RevCommit> getAlreadyAccepted(Repository repo, RevWalk rw)
-            throws IntegrationException {
-          try {
-            Set<RevCommit> accepted = new HashSet<>();
-            SubmitDryRun.addCommits(
-                changeDataCache.getAlreadyAccepted(repo), rw, accepted);
-            ObjectId tip = changeDataCache.getTestAgainst();
-            if (tip != null) {
-              accepted.add(rw.parseCommit(tip));
-            }
-            return accepted;
-          } catch (OrmException | IOException e) {
-            throw new IntegrationException(
-                "Failed to determine already accepted commits.", e);
-          }
-        }
-      });
+      predicatesForOneChange.add(
+          new CheckConflicts(args, value, c, files, changeDataCache));
       changePredicates.add(and(predicatesForOneChange));
     }
     return changePredicates;
@@ -159,21 +112,11 @@ class ConflictsPredicate extends OrPredicate<ChangeData> {
       if (ps.getParentCount() > 1) {
         String dest = c.getDest().get();
         Ref destBranch = repo.getRefDatabase().getRef(dest);
-        destBranch.getObjectId();
-        rw.setRevFilter(RevFilter.MERGE_BASE);
-        rw.markStart(rw.parseCommit(destBranch.getObjectId()));
-        rw.markStart(ps);
-        RevCommit base = rw.next();
+        RevCommit base = mergeBase(rw, destBranch.getObjectId(), ps);
         // TODO(zivkov): handle the case with multiple merge bases
 
         List<String> files = new ArrayList<>();
-        try (TreeWalk tw = new TreeWalk(repo)) {
-          if (base != null) {
-            tw.setFilter(TreeFilter.ANY_DIFF);
-            tw.addTree(base.getTree());
-          }
-          tw.addTree(ps.getTree());
-          tw.setRecursive(true);
+        try (TreeWalk tw = newMergeTreeWalk(rw, base, ps, null)) {
           while (tw.next()) {
             files.add(tw.getPathString());
           }
@@ -186,11 +129,226 @@ class ConflictsPredicate extends OrPredicate<ChangeData> {
     }
   }
 
+  private static RevCommit mergeBase(RevWalk rw, ObjectId branchTip,
+      RevCommit merge) throws IOException {
+    rw.reset();
+    rw.setRevFilter(RevFilter.MERGE_BASE);
+    rw.markStart(rw.parseCommit(branchTip));
+    rw.markStart(merge);
+    RevCommit base = rw.next();
+    rw.setRevFilter(RevFilter.ALL);
+    return base;
+  }
+
+  /**
+   * Walk the files a merge changes since its merge base with the branch.
+   *
+   * @param rw walk providing the reader.
+   * @param base merge base, or null to walk all files of the merge.
+   * @param merge the merge commit.
+   * @param paths if not null, only walk these files.
+   * @return tree walk over the files, in path order.
+   */
+  private static TreeWalk newMergeTreeWalk(RevWalk rw, RevCommit base,
+      RevCommit merge, Collection<String> paths) throws IOException {
+    TreeWalk tw = new TreeWalk(rw.getObjectReader());
+    TreeFilter filter = paths != null
+        ? PathFilterGroup.createFromStrings(paths)
+        : TreeFilter.ALL;
+    if (base != null) {
+      filter = AndTreeFilter.create(filter, TreeFilter.ANY_DIFF);
+      tw.addTree(base.getTree());
+    }
+    tw.setFilter(filter);
+    tw.addTree(merge.getTree());
+    tw.setRecursive(true);
+    return tw;
+  }
+
   @Override
   public String toString() {
     return ChangeQueryBuilder.FIELD_CONFLICTS + ":" + value;
   }
 
+  /**
+   * Checks whether other changes conflict with one change.
+   * <p>
+   * Changes of a batch are checked together: files are compared before any
+   * merge is attempted, sharing one repository and walk, and the remaining
+   * dry-run merges run on the {@link ConflictsExecutor}.
+   */
+  private static class CheckConflicts extends OperatorPredicate<ChangeData>
+      implements BatchMatchable {
+    private final Arguments args;
+    private final Change change;
+    private final Set<String> files;
+    private final ChangeDataCache changeDataCache;
+    private final Map<ConflictKey, Boolean> results =
+        new ConcurrentHashMap<>();
+    private final Set<ObjectId> disjoint = new HashSet<>();
+
+    CheckConflicts(Arguments args, String value, Change change,
+        List<String> files, ChangeDataCache changeDataCache) {
+      super(ChangeQueryBuilder.FIELD_CONFLICTS, value);
+      this.args = args;
+      this.change = change;
+      this.files = ImmutableSet.copyOf(files);
+      this.changeDataCache = changeDataCache;
+    }
+
+    @Override
+    public boolean match(ChangeData object) throws OrmException {
+      if (!isCandidate(object)) {
+        return false;
+      }
+      ConflictKey key = conflictKey(object);
+      if (key == null) {
+        return false;
+      }
+      Boolean conflicts = results.get(key);
+      if (conflicts == null) {
+        prepare(Collections.singletonList(object));
+        conflicts = results.get(key);
+      }
+      // Still unknown if the change does not touch any of the files.
+      return conflicts != null && conflicts;
+    }
+
+    @Override
+    public int getCost() {
+      return 5;
+    }
+
+    @Override
+    public void prepare(List<ChangeData> cds) throws OrmException {
+      List<ChangeData> candidates = new ArrayList<>(cds.size());
+      for (ChangeData cd : cds) {
+        if (isCandidate(cd)) {
+          candidates.add(cd);
+        }
+      }
+      if (candidates.isEmpty()) {
+        return;
+      }
+
+      try (Repository repo =
+          args.repoManager.openRepository(change.getProject())) {
+        Set<ConflictKey> toMerge = new LinkedHashSet<>();
+        try (RevWalk rw = new RevWalk(repo)) {
+          ObjectId branchTip = null;
+          for (ChangeData cd : candidates) {
+            ObjectId other = revision(cd);
+            RevCommit commit = rw.parseCommit(other);
+            if (commit.getParentCount() > 1 && branchTip == null) {
+              Ref ref = repo.getRefDatabase().exactRef(change.getDest().get());
+              branchTip = ref != null ? ref.getObjectId() : ObjectId.zeroId();
+            }
+            if (!touchesFiles(rw, branchTip, commit, cd)) {
+              disjoint.add(other);
+              continue;
+            }
+            ConflictKey key = conflictKey(cd);
+            if (key == null || results.containsKey(key)) {
+              continue;
+            }
+            Boolean conflicts = args.conflictsCache.getIfPresent(key);
+            if (conflicts != null) {
+              results.put(key, conflicts);
+            } else {
+              toMerge.add(key);
+            }
+          }
+        }
+        if (!toMerge.isEmpty()) {
+          dryRun(repo, changeDataCache.getAlreadyAccepted(repo), toMerge);
+        }
+      } catch (IOException e) {
+        throw new OrmException(e);
+      }
+    }
+
+    private boolean isCandidate(ChangeData cd) throws OrmException {
+      Change other = cd.change();
+      return other != null
+          && other.getDest().equals(change.getDest())
+          && !other.getId().equals(change.getId())
+          && !disjoint.contains(revision(cd));
+    }
+
+    private ConflictKey conflictKey(ChangeData cd) throws OrmException {
+      SubmitTypeRecord str = cd.submitTypeRecord();
+      if (!str.isOk()) {
+        return null;
+      }
+      return new ConflictKey(changeDataCache.getTestAgainst(), revision(cd),
+          str.type, changeDataCache.getProjectState().isUseContentMerge());
+    }
+
+    private boolean touchesFiles(RevWalk rw, ObjectId branchTip,
+        RevCommit commit, ChangeData cd) throws IOException, OrmException {
+      if (files.isEmpty()) {
+        return false;
+      }
+      if (commit.getParentCount() <= 1) {
+        return !Collections.disjoint(files, cd.currentFilePaths());
+      }
+      // Same files as for a merge being checked, see listFiles.
+      RevCommit base = !branchTip.equals(ObjectId.zeroId())
+          ? mergeBase(rw, branchTip, commit)
+          : null;
+      try (TreeWalk tw = newMergeTreeWalk(rw, base, commit, files)) {
+        return tw.next();
+      }
+    }
+
+    private void dryRun(final Repository repo,
+        final Iterable<ObjectId> alreadyAccepted, Set<ConflictKey> keys)
+        throws OrmException {
+      final ObjectId tip = changeDataCache.getTestAgainst();
+      List<ListenableFuture<Boolean>> futures = new ArrayList<>(keys.size());
+      for (final ConflictKey key : keys) {
+        futures.add(args.conflictsExecutor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws IntegrationException,
+              NoSuchProjectException, IOException {
+            try (CodeReviewRevWalk rw = CodeReviewCommit.newRevWalk(repo)) {
+              Set<RevCommit> accepted = new HashSet<>();
+              SubmitDryRun.addCommits(alreadyAccepted, rw, accepted);
+              if (tip != null) {
+                accepted.add(rw.parseCommit(tip));
+              }
+              boolean conflicts = !args.submitDryRun.run(
+                  key.getSubmitType(), repo, rw, change.getDest(), tip,
+                  key.getOtherCommit(), accepted);
+              args.conflictsCache.put(key, conflicts);
+              results.put(key, conflicts);
+              return conflicts;
+            }
+          }
+        }));
+      }
+
+      try {
+        // Keep the repository open until every merge is done.
+        Futures.successfulAsList(futures).get();
+        for (ListenableFuture<Boolean> f : futures) {
+          f.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new OrmException("Interrupted checking conflicts", e);
+      } catch (ExecutionException e) {
+        throw new OrmException(
+            "Cannot check conflicts with change " + change.getId(),
+            e.getCause());
+      }
+    }
+
+    private static ObjectId revision(ChangeData cd) throws OrmException {
+      return ObjectId.fromString(cd.currentPatchSet().getRevision().get());
+    }
+  }
+
   private static class ChangeDataCache {
     private final Change change;
     private final Provider<ReviewDb> db;
@@ -199,7 +357,7 @@ class ConflictsPredicate extends OrPredicate<ChangeData> {
 
     private ObjectId testAgainst;
     private ProjectState projectState;
-    private Iterable<ObjectId> alreadyAccepted;
+    private List<ObjectId> alreadyAccepted;
 
     ChangeDataCache(Change change, Provider<ReviewDb> db,
         ChangeData.Factory changeDataFactory, ProjectCache projectCache) {
@@ -230,9 +388,10 @@ class ConflictsPredicate extends OrPredicate<ChangeData> {
       return projectState;
     }
 
-    Iterable<ObjectId> getAlreadyAccepted(Repository repo) throws IOException {
+    List<ObjectId> getAlreadyAccepted(Repository repo) throws IOException {
       if (alreadyAccepted == null) {
-        alreadyAccepted = SubmitDryRun.getAlreadyAccepted(repo);
+        alreadyAccepted =
+            ImmutableList.copyOf(SubmitDryRun.getAlreadyAccepted(repo));
       }
       return alreadyAccepted;
     }
@@ -33,6 +33,7 @@ class HasDraftByLegacyPredicate extends OperatorPredicate<ChangeData> implements
     ChangeDataSource {
   private final Arguments args;
   private final Account.Id accountId;
+  private Set<Change.Id> ids;
 
   HasDraftByLegacyPredicate(Arguments args,
       Account.Id accountId) {
@@ -50,12 +51,7 @@ class HasDraftByLegacyPredicate extends OperatorPredicate<ChangeData> implements
 
   @Override
   public ResultSet<ChangeData> read() throws OrmException {
-    Set<Change.Id> ids = new HashSet<>();
-    for (PatchLineComment sc :
-        args.plcUtil.draftByAuthor(args.db.get(), accountId)) {
-      ids.add(sc.getKey().getParentKey().getParentKey().getParentKey());
-    }
-
+    Set<Change.Id> ids = ids();
     List<ChangeData> r = new ArrayList<>(ids.size());
     // TODO Don't load the changes directly from the database, but provide
     // project name + change ID to changeDataFactory, or delete this predicate.
@@ -70,9 +66,25 @@ class HasDraftByLegacyPredicate extends OperatorPredicate<ChangeData> implements
     return false;
   }
 
+  private Set<Change.Id> ids() throws OrmException {
+    if (ids == null) {
+      ids = new HashSet<>();
+      for (PatchLineComment sc :
+          args.plcUtil.draftByAuthor(args.db.get(), accountId)) {
+        ids.add(sc.getKey().getParentKey().getParentKey().getParentKey());
+      }
+    }
+    return ids;
+  }
+
   @Override
   public int getCardinality() {
-    return 20;
+    // The change IDs are needed by read() anyway, so this is exact for free.
+    try {
+      return ids().size();
+    } catch (OrmException e) {
+      return 20;
+    }
   }
 
   @Override
@@ -14,6 +14,7 @@
 
 package com.google.gerrit.server.query.change;
 
+import com.google.common.primitives.Ints;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.server.query.OrPredicate;
 import com.google.gerrit.server.query.Predicate;
@@ -68,12 +69,14 @@ public class OrSource extends OrPredicate<ChangeData> implements ChangeDataSourc
   @Override
   public int getCardinality() {
     if (cardinality < 0) {
-      cardinality = 0;
+      long n = 0;
       for (Predicate<ChangeData> p : getChildren()) {
         if (p instanceof ChangeDataSource) {
-          cardinality += ((ChangeDataSource) p).getCardinality();
+          n += ((ChangeDataSource) p).getCardinality();
         }
       }
+      // Estimates of large index queries may add up to more than an int.
+      cardinality = Ints.saturatedCast(n);
     }
     return cardinality;
   }
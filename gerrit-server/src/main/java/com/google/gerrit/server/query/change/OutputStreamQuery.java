@@ -90,6 +90,7 @@ public class OutputStreamQuery {
   private boolean includeDependencies;
   private boolean includeSubmitRecords;
   private boolean includeAllReviewers;
+  private boolean explain;
 
   private OutputStream outputStream = DisabledOutputStream.INSTANCE;
   private PrintWriter out;
@@ -172,6 +173,10 @@ public class OutputStreamQuery {
     includeAllReviewers = on;
   }
 
+  public void setExplain(boolean on) {
+    explain = on;
+  }
+
   public void setOutput(OutputStream out, OutputFormat fmt) {
     this.outputStream = out;
     this.outputFormat = fmt;
@@ -207,6 +212,9 @@ public class OutputStreamQuery {
 
         stats.rowCount = results.changes().size();
         stats.moreChanges = results.moreChanges();
+        if (explain) {
+          stats.plan = QueryPlan.describe(results.predicate());
+        }
         stats.runTimeMilliseconds =
             TimeUtil.nowMs() - stats.runTimeMilliseconds;
         show(stats);
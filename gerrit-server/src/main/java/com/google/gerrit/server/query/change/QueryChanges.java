@@ -14,6 +14,7 @@
 
 package com.google.gerrit.server.query.change;
 
+import com.google.common.primitives.Ints;
 import com.google.gerrit.extensions.client.ListChangesOption;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.restapi.AuthException;
@@ -21,6 +22,7 @@ import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.RestReadView;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
 import com.google.gerrit.server.change.ChangeJson;
+import com.google.gerrit.server.index.change.ChangeCursor;
 import com.google.gerrit.server.query.QueryParseException;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
@@ -58,11 +60,24 @@ public class QueryChanges implements RestReadView<TopLevelResource> {
     options.addAll(ListChangesOption.fromBits(Integer.parseInt(hex, 16)));
   }
 
-  @Option(name = "--start", aliases = {"-S"}, metaVar = "CNT", usage = "Number of changes to skip")
+  @Option(name = "--start", aliases = {"-S"}, metaVar = "CNT", usage = "Number of changes to skip, or continuation token from a previous page")
+  void setStart(String start) {
+    Integer n = Ints.tryParse(start);
+    if (n != null) {
+      setStart(n);
+    } else {
+      setSearchAfter(start);
+    }
+  }
+
   public void setStart(int start) {
     imp.setStart(start);
   }
 
+  public void setSearchAfter(String token) {
+    imp.setSearchAfter(token);
+  }
+
   @Inject
   QueryChanges(ChangeJson.Factory json,
       ChangeQueryBuilder qb,
@@ -119,13 +134,20 @@ public class QueryChanges implements RestReadView<TopLevelResource> {
     }
 
     int cnt = queries.size();
+    ChangeJson cjson = json.create(options);
+    imp.setRequestedFields(cjson.getRequestedFields());
     List<QueryResult> results = imp.queryChanges(qb.parse(queries));
-    List<List<ChangeInfo>> res = json.create(options)
-        .formatQueryResults(results);
+    List<List<ChangeInfo>> res = cjson.formatQueryResults(results);
     for (int n = 0; n < cnt; n++) {
       List<ChangeInfo> info = res.get(n);
-      if (results.get(n).moreChanges()) {
-        info.get(info.size() - 1)._moreChanges = true;
+      QueryResult result = results.get(n);
+      if (result.moreChanges()) {
+        ChangeInfo last = info.get(info.size() - 1);
+        last._moreChanges = true;
+        if (result.searchAfterSupported()) {
+          last._continue =
+              ChangeCursor.create(last.updated, last._number).encode();
+        }
       }
     }
     return res;
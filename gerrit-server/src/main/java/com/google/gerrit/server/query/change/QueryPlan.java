@@ -0,0 +1,74 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.server.index.change.IndexedChangeQuery;
+import com.google.gerrit.server.query.Predicate;
+
+/**
+ * Human-readable description of how a rewritten query is executed.
+ * <p>
+ * Each line is one node of the predicate tree, indented by its depth. Sources
+ * are annotated with their estimated number of results, and each
+ * {@link AndSource} names the child it reads from; its other children are only
+ * used to filter those results.
+ */
+public class QueryPlan {
+  public static String describe(Predicate<ChangeData> p) {
+    StringBuilder b = new StringBuilder();
+    describe(b, p, 0);
+    return b.toString();
+  }
+
+  private static void describe(StringBuilder b, Predicate<ChangeData> p,
+      int depth) {
+    b.append(Strings.repeat("  ", depth));
+    if (p instanceof IndexedChangeQuery) {
+      b.append("index ").append(p.getChild(0));
+      cardinality(b, (ChangeDataSource) p).append('\n');
+      return;
+    } else if (p instanceof AndSource) {
+      AndSource and = (AndSource) p;
+      b.append("and, reading from child ")
+          .append(and.getChildren().indexOf(and.source()));
+      cardinality(b, and).append('\n');
+    } else if (p instanceof OrSource) {
+      b.append("or");
+      cardinality(b, (ChangeDataSource) p).append('\n');
+    } else if (p instanceof ChangeDataSource) {
+      b.append("source ").append(p);
+      cardinality(b, (ChangeDataSource) p).append('\n');
+      return;
+    } else if (p.getChildCount() > 0) {
+      b.append(p.getClass().getSimpleName()).append('\n');
+    } else {
+      b.append("filter ").append(p).append('\n');
+      return;
+    }
+    for (Predicate<ChangeData> c : p.getChildren()) {
+      describe(b, c, depth + 1);
+    }
+  }
+
+  private static StringBuilder cardinality(StringBuilder b,
+      ChangeDataSource s) {
+    return b.append(" (estimated ").append(s.getCardinality())
+        .append(" results)");
+  }
+
+  private QueryPlan() {
+  }
+}
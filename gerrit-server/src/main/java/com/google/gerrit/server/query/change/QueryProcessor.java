@@ -59,6 +59,7 @@ public class QueryProcessor {
 
   private int limitFromCaller;
   private int start;
+  private String searchAfter;
   private boolean enforceVisibility = true;
   private Set<String> requestedFields;
 
@@ -96,6 +97,23 @@ public class QueryProcessor {
     return this;
   }
 
+  /**
+   * Continue after the last change of a previous page, rather than skipping
+   * over all changes up to it.
+   * <p>
+   * Unlike {@link #setStart(int)}, the cost of a page does not grow with the
+   * number of pages before it. Only supported for queries answered by the
+   * secondary index.
+   *
+   * @param token encoded {@link
+   *     com.google.gerrit.server.index.change.ChangeCursor} of the last change
+   *     of the previous page, or null to start from the first change.
+   */
+  public QueryProcessor setSearchAfter(String token) {
+    searchAfter = token;
+    return this;
+  }
+
   public QueryProcessor setRequestedFields(Set<String> fields) {
     requestedFields = fields;
     return this;
@@ -153,6 +171,7 @@ public class QueryProcessor {
     List<Integer> limits = new ArrayList<>(cnt);
     List<Predicate<ChangeData>> predicates = new ArrayList<>(cnt);
     List<ChangeDataSource> sources = new ArrayList<>(cnt);
+    List<Boolean> searchAfterSupported = new ArrayList<>(cnt);
     for (Predicate<ChangeData> q : queries) {
       int limit = getEffectiveLimit(q);
       limits.add(limit);
@@ -171,7 +190,8 @@ public class QueryProcessor {
       }
 
       QueryOptions opts = IndexedChangeQuery.createOptions(
-          indexConfig, start, limit + 1, getRequestedFields());
+          indexConfig, start, limit + 1, getRequestedFields())
+          .withSearchAfter(searchAfter);
       Predicate<ChangeData> s = rewriter.rewrite(q, opts);
       if (!(s instanceof ChangeDataSource)) {
         q = Predicate.and(open(), q);
@@ -180,6 +200,12 @@ public class QueryProcessor {
       if (!(s instanceof ChangeDataSource)) {
         throw new QueryParseException("invalid query: " + s);
       }
+      boolean fromIndex = readsFromIndex(s);
+      if (searchAfter != null && !fromIndex) {
+        throw new QueryParseException(
+            "continuation token not supported for query: " + q);
+      }
+      searchAfterSupported.add(fromIndex);
       if (enforceVisibility) {
         s = new AndSource(ImmutableList.of(s, visibleToMe), start);
       }
@@ -199,12 +225,28 @@ public class QueryProcessor {
           queryStrings != null ? queryStrings.get(i) : null,
           predicates.get(i),
           limits.get(i),
-          matches.get(i).toList()));
+          matches.get(i).toList(),
+          searchAfterSupported.get(i)));
     }
     context.close(); // only measure successful queries
     return out;
   }
 
+  /**
+   * @return whether results of {@code s} come from a single index query and so
+   *     honor {@link QueryOptions#searchAfter()}; other sources, such as an OR
+   *     of index and database queries, would ignore it.
+   */
+  private static boolean readsFromIndex(Predicate<ChangeData> s) {
+    if (s instanceof AndSource) {
+      // Only the child source actually read honors the options; a cheaper
+      // database source, e.g. a legacy has:draft, may drive the AndSource
+      // instead of an index query among the other children.
+      return ((AndSource) s).source() instanceof IndexedChangeQuery;
+    }
+    return s instanceof IndexedChangeQuery;
+  }
+
   private Set<String> getRequestedFields() {
     if (requestedFields != null) {
       return requestedFields;
@@ -24,7 +24,8 @@ import java.util.List;
 @AutoValue
 public abstract class QueryResult {
   static QueryResult create(@Nullable String query,
-      Predicate<ChangeData> predicate, int limit, List<ChangeData> changes) {
+      Predicate<ChangeData> predicate, int limit, List<ChangeData> changes,
+      boolean searchAfterSupported) {
     boolean moreChanges;
     if (changes.size() > limit) {
       moreChanges = true;
@@ -32,7 +33,8 @@ public abstract class QueryResult {
     } else {
       moreChanges = false;
     }
-    return new AutoValue_QueryResult(query, predicate, changes, moreChanges);
+    return new AutoValue_QueryResult(query, predicate, changes, moreChanges,
+        searchAfterSupported);
   }
 
   /**
@@ -56,4 +58,10 @@ public abstract class QueryResult {
    *     true if {@link #changes()} is empty.
    */
   public abstract boolean moreChanges();
+
+  /**
+   * @return whether the query could be continued after its last change with
+   *     {@link QueryProcessor#setSearchAfter(String)}.
+   */
+  public abstract boolean searchAfterSupported();
 }
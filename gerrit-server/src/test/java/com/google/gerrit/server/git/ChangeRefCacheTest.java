@@ -0,0 +1,228 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.extensions.common.AccountInfo;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.git.ChangeRefCache.ChangeRefs;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ChangeRefCacheTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("repo");
+
+  private InMemoryRepository repo;
+  private TestRepository<?> tr;
+  private ChangeRefCache cache;
+  private PatchSet.Id ps1;
+  private PatchSet.Id ps2;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("repo"));
+    tr = new TestRepository<>(repo);
+    cache = newCache();
+    ps1 = new PatchSet.Id(new Change.Id(1), 1);
+    ps2 = new PatchSet.Id(new Change.Id(1), 2);
+  }
+
+  @Test
+  public void load() throws Exception {
+    RevCommit c1 = tr.commit().create();
+    RevCommit c2 = tr.commit().create();
+    tr.update(ps1.toRefName(), c1);
+    tr.update(ps2.toRefName(), c2);
+    tr.update("refs/heads/master", c2);
+
+    ChangeRefs refs = new ChangeRefs();
+    refs.load(repo);
+    assertThat(refs.byCommit(c1)).containsExactly(ps1);
+    assertThat(refs.byCommit(c2)).containsExactly(ps2);
+    assertThat(refs.byChange(ps1.getParentKey())).containsExactly(ps1, ps2);
+    assertThat(refs.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void updateAfterLoad() throws Exception {
+    RevCommit c1 = tr.commit().create();
+    RevCommit c2 = tr.commit().create();
+    tr.update(ps1.toRefName(), c1);
+
+    ChangeRefs refs = new ChangeRefs();
+    refs.load(repo);
+    refs.update(ps2, c2);
+    assertThat(refs.byCommit(c2)).containsExactly(ps2);
+    assertThat(refs.byChange(ps1.getParentKey())).containsExactly(ps1, ps2);
+
+    refs.update(ps1, c2);
+    assertThat(refs.byCommit(c1)).isEmpty();
+    assertThat(refs.byCommit(c2)).containsExactly(ps1, ps2);
+
+    refs.update(ps1, null);
+    assertThat(refs.byCommit(c2)).containsExactly(ps2);
+    assertThat(refs.byChange(ps1.getParentKey())).containsExactly(ps2);
+    assertThat(refs.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void updateBeforeLoadIsReadByLoad() throws Exception {
+    RevCommit c1 = tr.commit().create();
+
+    ChangeRefs refs = new ChangeRefs();
+    refs.update(ps1, c1);
+    assertThat(refs.size()).isEqualTo(0);
+
+    tr.update(ps1.toRefName(), c1);
+    refs.load(repo);
+    assertThat(refs.byCommit(c1)).containsExactly(ps1);
+  }
+
+  @Test
+  public void updateDuringLoadIsAppliedAfterLoad() throws Exception {
+    RevCommit c1 = tr.commit().create();
+    final RevCommit c2 = tr.commit().create();
+    tr.update(ps1.toRefName(), c1);
+
+    // The event moving the ref to c2 is delivered while load is reading refs
+    // that still point to c1; it must be applied once load is done.
+    final AtomicBoolean loading = new AtomicBoolean();
+    final Thread[] updater = new Thread[1];
+    InMemoryRepository racy =
+        new InMemoryRepository(new DfsRepositoryDescription("repo")) {
+          @Override
+          public RefDatabase getRefDatabase() {
+            if (loading.getAndSet(false)) {
+              updater[0] = new Thread() {
+                @Override
+                public void run() {
+                  cache.onGitReferenceUpdated(new Event(ps1, c2));
+                }
+              };
+              updater[0].start();
+              while (updater[0].getState() != Thread.State.BLOCKED
+                  && updater[0].isAlive()) {
+                Thread.yield();
+              }
+            }
+            return repo.getRefDatabase();
+          }
+        };
+
+    loading.set(true);
+    ChangeRefs refs = cache.get(PROJECT, racy);
+    updater[0].join();
+    assertThat(refs.byCommit(c1)).isEmpty();
+    assertThat(refs.byCommit(c2)).containsExactly(ps1);
+  }
+
+  @Test
+  public void eventsKeepProjectCurrent() throws Exception {
+    RevCommit c1 = tr.commit().create();
+    tr.update(ps1.toRefName(), c1);
+    ChangeRefs refs = cache.get(PROJECT, repo);
+
+    cache.onGitReferenceUpdated(new Event(ps2, c1));
+    assertThat(cache.get(PROJECT, repo)).isSameAs(refs);
+    assertThat(refs.byCommit(c1)).containsExactly(ps1, ps2);
+  }
+
+  @Test
+  public void reloadWhenExpectedPatchSetIsMissing() throws Exception {
+    RevCommit c1 = tr.commit().create();
+    tr.update(ps1.toRefName(), c1);
+    ChangeRefs refs = cache.get(PROJECT, repo);
+
+    // Written without an event.
+    tr.update(ps2.toRefName(), c1);
+    assertThat(cache.get(PROJECT, repo).byCommit(c1)).containsExactly(ps1);
+
+    assertThat(cache.get(PROJECT, repo, ps1)).isSameAs(refs);
+
+    ChangeRefs reloaded = cache.get(PROJECT, repo, ps2);
+    assertThat(reloaded).isNotSameAs(refs);
+    assertThat(reloaded.byCommit(c1)).containsExactly(ps1, ps2);
+    assertThat(cache.get(PROJECT, repo, ps2)).isSameAs(reloaded);
+  }
+
+  private static ChangeRefCache newCache() {
+    return new ChangeRefCache(
+        CacheBuilder.newBuilder().<Project.NameKey, ChangeRefs> build());
+  }
+
+  private static class Event implements GitReferenceUpdatedListener.Event {
+    private final PatchSet.Id psId;
+    private final ObjectId newId;
+
+    private Event(PatchSet.Id psId, ObjectId newId) {
+      this.psId = psId;
+      this.newId = newId;
+    }
+
+    @Override
+    public String getProjectName() {
+      return PROJECT.get();
+    }
+
+    @Override
+    public String getRefName() {
+      return psId.toRefName();
+    }
+
+    @Override
+    public String getOldObjectId() {
+      return ObjectId.zeroId().name();
+    }
+
+    @Override
+    public String getNewObjectId() {
+      return newId.name();
+    }
+
+    @Override
+    public boolean isCreate() {
+      return false;
+    }
+
+    @Override
+    public boolean isDelete() {
+      return false;
+    }
+
+    @Override
+    public boolean isNonFastForward() {
+      return false;
+    }
+
+    @Override
+    public AccountInfo getUpdater() {
+      return null;
+    }
+  }
+}
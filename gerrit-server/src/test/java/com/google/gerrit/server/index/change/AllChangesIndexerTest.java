@@ -0,0 +1,94 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.collect.Range;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.testutil.GerritBaseTests;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class AllChangesIndexerTest extends GerritBaseTests {
+  @Test
+  public void smallProjectIsOneSlice() {
+    assertThat(AllChangesIndexer.slice(ids(1, 2, 3), 3))
+        .containsExactly(Range.<Integer> all());
+  }
+
+  @Test
+  public void sliceBoundaries() {
+    assertThat(AllChangesIndexer.slice(ids(5, 1, 9, 3, 7), 2))
+        .containsExactly(
+            Range.lessThan(5),
+            Range.closedOpen(5, 9),
+            Range.atLeast(9))
+        .inOrder();
+  }
+
+  @Test
+  public void sliceBoundariesWithSizeDividingChanges() {
+    assertThat(AllChangesIndexer.slice(ids(1, 2, 3, 4), 2))
+        .containsExactly(
+            Range.lessThan(3),
+            Range.atLeast(3))
+        .inOrder();
+  }
+
+  @Test
+  public void everyChangeInExactlyOneSlice() {
+    Set<Change.Id> ids = new HashSet<>();
+    for (int i = 1; i <= 1000; i += 3) {
+      ids.add(new Change.Id(i));
+    }
+    List<Range<Integer>> slices = AllChangesIndexer.slice(ids, 10);
+    assertThat(slices).hasSize(34);
+
+    // Also cover changes created after the project was scanned, including ones
+    // numbered between or beyond the scanned changes.
+    for (int i = -10; i <= 1100; i++) {
+      int n = 0;
+      for (Range<Integer> slice : slices) {
+        if (slice.contains(i)) {
+          n++;
+        }
+      }
+      assertWithMessage("slices containing change " + i).that(n).isEqualTo(1);
+    }
+    for (Range<Integer> slice : slices) {
+      int n = 0;
+      for (Change.Id id : ids) {
+        if (slice.contains(id.get())) {
+          n++;
+        }
+      }
+      assertThat(n).isAtMost(10);
+    }
+  }
+
+  private static Set<Change.Id> ids(int... ids) {
+    Set<Change.Id> result = new HashSet<>();
+    for (int id : ids) {
+      result.add(new Change.Id(id));
+    }
+    return result;
+  }
+}
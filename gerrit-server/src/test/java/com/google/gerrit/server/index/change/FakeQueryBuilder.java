@@ -30,7 +30,8 @@ public class FakeQueryBuilder extends ChangeQueryBuilder {
           FakeQueryBuilder.class),
         new ChangeQueryBuilder.Arguments(null, null, null, null, null, null,
           null, null, null, null, null, null, null, null, null, null, null,
-          null, null, null, indexes, null, null, null, null, null, null, null));
+          null, null, null, indexes, null, null, null, null, null, null, null,
+          null));
   }
 
   @Operator
@@ -17,9 +17,11 @@ package com.google.gerrit.server.ioutil;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readFixInt64;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readString;
 import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.readVarInt64;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeFixInt64;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeString;
 import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt32;
+import static com.google.gerrit.server.ioutil.BasicSerialization.writeVarInt64;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -105,6 +107,22 @@ public class BasicSerializationTest {
     assertOutput(b(0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff), out);
   }
 
+  @Test
+  public void testVarInt64() throws IOException {
+    ByteArrayOutputStream out;
+
+    out = new ByteArrayOutputStream();
+    writeVarInt64(out, 0xff);
+    assertOutput(b(0x80 | 0x7f, 0x01), out);
+
+    long[] values = {0L, 3L, 0xdeadbeefL, 0xc0ffee78deadbeefL, -1L};
+    for (long v : values) {
+      out = new ByteArrayOutputStream();
+      writeVarInt64(out, v);
+      assertEquals(v, readVarInt64(r(out.toByteArray())));
+    }
+  }
+
   @Test
   public void testReadString() throws IOException {
     assertNull(readString(r(b(0))));
@@ -111,6 +111,34 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
             .isEqualTo(tag);
   }
 
+  @Test
+  public void loadWithSharedWalk() throws Exception {
+    Change c1 = newChange();
+    ChangeUpdate update = newUpdate(c1, changeOwner);
+    update.setChangeMessage("first");
+    update.commit();
+    Change c2 = newChange();
+    update = newUpdate(c2, otherUser);
+    update.setChangeMessage("second");
+    update.commit();
+
+    ChangeNotes notes1;
+    ChangeNotes notes2;
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      notes1 = new ChangeNotes(args, c1).load(repo, walk);
+      notes2 = new ChangeNotes(args, c2).load(repo, walk);
+    }
+
+    assertThat(notes1.getRevision()).isEqualTo(newNotes(c1).getRevision());
+    assertThat(notes1.getChangeMessages()).hasSize(1);
+    assertThat(notes1.getChangeMessages().get(0).getMessage())
+        .isEqualTo("first");
+    assertThat(notes2.getRevision()).isEqualTo(newNotes(c2).getRevision());
+    assertThat(notes2.getChangeMessages()).hasSize(1);
+    assertThat(notes2.getChangeMessages().get(0).getMessage())
+        .isEqualTo("second");
+  }
+
   @Test
   public void tagApprovals() throws Exception {
     String tag1 = "jenkins";
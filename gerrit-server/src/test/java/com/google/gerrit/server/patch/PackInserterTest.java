@@ -0,0 +1,134 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+
+public class PackInserterTest extends LocalDiskRepositoryTestCase {
+  @Test
+  public void objectsAreWrittenAsOnePack() throws Exception {
+    FileRepository repo = createBareRepository();
+    ObjectId commit = insertCommit(repo);
+
+    assertReadable(repo, commit);
+    assertThat(repo.getObjectDatabase().getPacks()).hasSize(1);
+    assertThat(looseObjects(repo)).isEmpty();
+  }
+
+  @Test
+  public void objectsAreWrittenToDfsRepository() throws Exception {
+    InMemoryRepository repo =
+        new InMemoryRepository(new DfsRepositoryDescription("repo"));
+    ObjectId commit = insertCommit(repo);
+
+    assertReadable(repo, commit);
+  }
+
+  @Test
+  public void streamedObjectsAreWritten() throws Exception {
+    FileRepository repo = createBareRepository();
+    byte[] data = "streamed\n".getBytes(UTF_8);
+    ObjectId blob;
+    try (ObjectInserter dest = repo.newObjectInserter();
+        ObjectInserter ins = new PackInserter(dest)) {
+      blob = ins.insert(Constants.OBJ_BLOB, data.length,
+          new ByteArrayInputStream(data));
+      ins.flush();
+    }
+
+    try (ObjectReader reader = repo.newObjectReader()) {
+      assertThat(reader.open(blob).getCachedBytes()).isEqualTo(data);
+    }
+  }
+
+  @Test
+  public void flushWithoutObjectsWritesNoPack() throws Exception {
+    FileRepository repo = createBareRepository();
+    try (ObjectInserter dest = repo.newObjectInserter();
+        ObjectInserter ins = new PackInserter(dest)) {
+      ins.flush();
+    }
+
+    assertThat(repo.getObjectDatabase().getPacks()).isEmpty();
+  }
+
+  private static ObjectId insertCommit(Repository repo) throws Exception {
+    try (ObjectInserter dest = repo.newObjectInserter();
+        ObjectInserter ins = new PackInserter(dest)) {
+      // Large enough to need a multi-byte object header.
+      StringBuilder content = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+        content.append("line ").append(i).append('\n');
+      }
+      ObjectId blob = ins.insert(Constants.OBJ_BLOB,
+          content.toString().getBytes(UTF_8));
+      // Inserting the same object twice must not write it twice.
+      ins.insert(Constants.OBJ_BLOB, content.toString().getBytes(UTF_8));
+
+      TreeFormatter tree = new TreeFormatter();
+      tree.append("file", FileMode.REGULAR_FILE, blob);
+      CommitBuilder cb = new CommitBuilder();
+      PersonIdent ident = new PersonIdent("A U Thor", "author@example.com");
+      cb.setAuthor(ident);
+      cb.setCommitter(ident);
+      cb.setTreeId(ins.insert(tree));
+      cb.setMessage("Auto-merge\n");
+      ObjectId commit = ins.insert(cb);
+      ins.flush();
+      return commit;
+    }
+  }
+
+  private static void assertReadable(Repository repo, ObjectId commit)
+      throws Exception {
+    try (ObjectReader reader = repo.newObjectReader()) {
+      assertThat(reader.open(commit).getType())
+          .isEqualTo(Constants.OBJ_COMMIT);
+    }
+    assertThat(repo.resolve(commit.name() + ":file")).isNotNull();
+    assertThat(new String(repo.open(repo.resolve(commit.name() + ":file"))
+        .getCachedBytes(), UTF_8)).startsWith("line 0\n");
+  }
+
+  private static String[] looseObjects(FileRepository repo) {
+    File objects = repo.getObjectDatabase().getDirectory();
+    return objects.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.length() == 2;
+      }
+    });
+  }
+}
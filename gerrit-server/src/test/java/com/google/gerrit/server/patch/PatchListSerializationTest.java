@@ -0,0 +1,137 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.reviewdb.client.Patch;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.ReplaceEdit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.patch.FileHeader;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PatchListSerializationTest {
+  private static final ObjectId OLD_ID =
+      ObjectId.fromString("3b18e512dba79e4c8300dd08aeb37f8e728b8dad");
+  private static final ObjectId NEW_ID =
+      ObjectId.fromString("4b825dc642cb6eb9a060e54bf8d69288fbee4904");
+
+  @Test
+  public void patchListRoundTrip() throws Exception {
+    List<PatchListEntry> entries = new ArrayList<>();
+    entries.add(PatchListEntry.empty(Patch.COMMIT_MSG));
+    entries.add(entry(modify("src/main/java/Foo.java")));
+    entries.add(entry(modify("src/main/java/Foo\u00e9.java")));
+    entries.add(entry(modify("src/main/java/Fo\ud83d\ude00.java")));
+    entries.add(entry(modify("src/main/java/Fo\ud83d\ude01.java")));
+    entries.add(entry(modify("src/test/Bar.java")));
+    PatchList in = new PatchList(OLD_ID, NEW_ID, true,
+        entries.toArray(new PatchListEntry[entries.size()]));
+
+    PatchList out = roundTrip(in);
+    assertThat(out.getOldId()).isEqualTo(OLD_ID);
+    assertThat(out.getNewId()).isEqualTo(NEW_ID);
+    assertThat(out.isAgainstParent()).isTrue();
+    assertThat(out.getInsertions()).isEqualTo(in.getInsertions());
+    assertThat(out.getDeletions()).isEqualTo(in.getDeletions());
+    assertThat(out.getPatches()).hasSize(in.getPatches().size());
+    for (int i = 0; i < in.getPatches().size(); i++) {
+      PatchListEntry a = in.getPatches().get(i);
+      PatchListEntry b = out.getPatches().get(i);
+      assertThat(b.getNewName()).isEqualTo(a.getNewName());
+      assertThat(b.getOldName()).isEqualTo(a.getOldName());
+      assertThat(b.getChangeType()).isEqualTo(a.getChangeType());
+      assertThat(b.getPatchType()).isEqualTo(a.getPatchType());
+      assertThat(b.getHeaderLines()).isEqualTo(a.getHeaderLines());
+      assertThat(b.getEdits()).isEqualTo(a.getEdits());
+      assertThat(b.getSize()).isEqualTo(a.getSize());
+      assertThat(b.getSizeDelta()).isEqualTo(a.getSizeDelta());
+    }
+  }
+
+  @Test
+  public void combinedPatchListRoundTrip() throws Exception {
+    PatchList out = roundTrip(new PatchList(null, NEW_ID, false,
+        new PatchListEntry[] {PatchListEntry.empty(Patch.COMMIT_MSG)}));
+    assertThat(out.getOldId()).isNull();
+    assertThat(out.isAgainstParent()).isFalse();
+    assertThat(out.getPatches()).hasSize(1);
+  }
+
+  @Test
+  public void intraLineDiffRoundTrip() throws Exception {
+    List<Edit> inner = ImmutableList.of(new Edit(0, 3, 0, 4),
+        new Edit(10, 10, 11, 12));
+    List<Edit> edits = ImmutableList.of(
+        new Edit(1, 2, 1, 1),
+        new ReplaceEdit(5, 7, 4, 8, inner),
+        new Edit(20, 20, 22, 30));
+
+    IntraLineDiff out = roundTrip(new IntraLineDiff(edits));
+    assertThat(out.getStatus()).isEqualTo(IntraLineDiff.Status.EDIT_LIST);
+    assertThat(out.getEdits()).isEqualTo(edits);
+    assertThat(out.getEdits().get(1)).isInstanceOf(ReplaceEdit.class);
+    assertThat(((ReplaceEdit) out.getEdits().get(1)).getInternalEdits())
+        .isEqualTo(inner);
+
+    out = roundTrip(new IntraLineDiff(IntraLineDiff.Status.TIMEOUT));
+    assertThat(out.getStatus()).isEqualTo(IntraLineDiff.Status.TIMEOUT);
+    assertThat(out.getEdits()).isEmpty();
+  }
+
+  private static PatchListEntry entry(FileHeader hdr) {
+    return new PatchListEntry(hdr, hdr.toEditList(), 1234, -56);
+  }
+
+  private static FileHeader modify(String path) {
+    String patch = "diff --git a/" + path + " b/" + path + "\n"
+        + "index 3b18e51..4b825dc 100644\n"
+        + "--- a/" + path + "\n"
+        + "+++ b/" + path + "\n"
+        + "@@ -1,3 +1,4 @@\n"
+        + " a\n"
+        + "-b\n"
+        + "+c\n"
+        + "+d\n"
+        + " e\n";
+    org.eclipse.jgit.patch.Patch p = new org.eclipse.jgit.patch.Patch();
+    byte[] buf = patch.getBytes(UTF_8);
+    p.parse(buf, 0, buf.length);
+    return p.getFiles().get(0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(T value) throws Exception {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+      out.writeObject(value);
+    }
+    try (ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(buf.toByteArray()))) {
+      return (T) in.readObject();
+    }
+  }
+}
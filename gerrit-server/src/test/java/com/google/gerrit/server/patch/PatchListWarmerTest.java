@@ -0,0 +1,201 @@
+// Copyright (C) 2016 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.PatchSet;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.testutil.InMemoryRepositoryManager;
+import com.google.gerrit.testutil.TestChanges;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class PatchListWarmerTest {
+  private static final Project.NameKey PROJECT =
+      new Project.NameKey("project");
+  private static final Account.Id USER = new Account.Id(1);
+
+  private Config cfg;
+  private QueueingExecutor executor;
+  private RecordingPatchListCache cache;
+  private Change change;
+  private int nextPatchSet;
+
+  @Before
+  public void setUp() {
+    cfg = new Config();
+    cfg.setBoolean("cache", PatchListCacheImpl.INTRA_NAME, "enabled", false);
+    executor = new QueueingExecutor();
+    cache = new RecordingPatchListCache();
+    change = TestChanges.newChange(PROJECT, USER);
+  }
+
+  @Test
+  public void patchSetsBeyondQueueLimitAreDropped() {
+    cfg.setInt("cache", PatchListCacheImpl.FILE_NAME, "warmQueueLimit", 2);
+    PatchListWarmer warmer = newWarmer();
+
+    PatchSet ps1 = newPatchSet();
+    PatchSet ps2 = newPatchSet();
+    warmer.warm(change, ps1);
+    warmer.warm(change, ps2);
+    warmer.warm(change, newPatchSet());
+    assertThat(executor.tasks).hasSize(2);
+
+    executor.runAll();
+    assertThat(cache.warmed).containsExactly(id(ps1), id(ps2)).inOrder();
+  }
+
+  @Test
+  public void finishedPatchSetsMakeRoomInQueue() {
+    cfg.setInt("cache", PatchListCacheImpl.FILE_NAME, "warmQueueLimit", 1);
+    PatchListWarmer warmer = newWarmer();
+
+    PatchSet ps1 = newPatchSet();
+    warmer.warm(change, ps1);
+    warmer.warm(change, newPatchSet());
+    executor.runAll();
+
+    PatchSet ps3 = newPatchSet();
+    warmer.warm(change, ps3);
+    executor.runAll();
+    assertThat(cache.warmed).containsExactly(id(ps1), id(ps3)).inOrder();
+  }
+
+  @Test
+  public void rejectedPatchSetsMakeRoomInQueue() {
+    cfg.setInt("cache", PatchListCacheImpl.FILE_NAME, "warmQueueLimit", 1);
+    PatchListWarmer warmer = newWarmer();
+
+    executor.reject = true;
+    warmer.warm(change, newPatchSet());
+    warmer.warm(change, newPatchSet());
+
+    executor.reject = false;
+    PatchSet ps3 = newPatchSet();
+    warmer.warm(change, ps3);
+    executor.runAll();
+    assertThat(cache.warmed).containsExactly(id(ps3));
+  }
+
+  @Test
+  public void nothingWarmedWithoutWarmThreads() {
+    cfg.setInt("cache", PatchListCacheImpl.FILE_NAME, "warmThreads", 0);
+    PatchListWarmer warmer = newWarmer();
+
+    warmer.warm(change, newPatchSet());
+    assertThat(executor.tasks).isEmpty();
+  }
+
+  private PatchListWarmer newWarmer() {
+    return new PatchListWarmer(
+        new InMemoryRepositoryManager(), cache, executor, cfg);
+  }
+
+  private PatchSet newPatchSet() {
+    nextPatchSet++;
+    return TestChanges.newPatchSet(
+        new PatchSet.Id(change.getId(), nextPatchSet),
+        String.format("%040x", nextPatchSet), USER);
+  }
+
+  private static ObjectId id(PatchSet ps) {
+    return ObjectId.fromString(ps.getRevision().get());
+  }
+
+  private static class QueueingExecutor extends AbstractExecutorService {
+    final List<Runnable> tasks = new ArrayList<>();
+    boolean reject;
+
+    @Override
+    public void execute(Runnable task) {
+      if (reject) {
+        throw new RejectedExecutionException();
+      }
+      tasks.add(task);
+    }
+
+    void runAll() {
+      List<Runnable> toRun = new ArrayList<>(tasks);
+      tasks.clear();
+      for (Runnable task : toRun) {
+        task.run();
+      }
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return new ArrayList<>(tasks);
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return false;
+    }
+  }
+
+  private static class RecordingPatchListCache implements PatchListCache {
+    final List<ObjectId> warmed = new ArrayList<>();
+
+    @Override
+    public PatchList get(PatchListKey key, Project.NameKey project) {
+      warmed.add(key.getNewId());
+      // Intraline warming is disabled, so the list itself is not used.
+      return null;
+    }
+
+    @Override
+    public PatchList get(Change change, PatchSet patchSet) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ObjectId getOldId(Change change, PatchSet patchSet) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public IntraLineDiff getIntraLineDiff(IntraLineDiffKey key,
+        IntraLineDiffArgs args) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
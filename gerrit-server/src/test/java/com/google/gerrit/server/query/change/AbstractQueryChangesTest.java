@@ -64,12 +64,15 @@ import com.google.gerrit.server.change.ChangeTriplet;
 import com.google.gerrit.server.change.PatchSetInserter;
 import com.google.gerrit.server.git.BatchUpdate;
 import com.google.gerrit.server.git.validators.CommitValidators;
+import com.google.gerrit.server.index.change.ChangeCursor;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndexCollection;
 import com.google.gerrit.server.index.change.ChangeIndexer;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.project.ProjectControl;
 import com.google.gerrit.server.project.RefControl;
+import com.google.gerrit.server.query.Predicate;
+import com.google.gerrit.server.query.QueryParseException;
 import com.google.gerrit.server.schema.SchemaCreator;
 import com.google.gerrit.server.util.RequestContext;
 import com.google.gerrit.server.util.ThreadLocalRequestContext;
@@ -117,6 +120,7 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
   @Inject protected BatchUpdate.Factory updateFactory;
   @Inject protected ChangeInserter.Factory changeFactory;
   @Inject protected ChangeQueryBuilder queryBuilder;
+  @Inject protected ChangeQueryBuilder.Arguments queryArgs;
   @Inject protected GerritApi gApi;
   @Inject protected IdentifiedUser.GenericFactory userFactory;
   @Inject protected ChangeIndexCollection indexes;
@@ -735,6 +739,88 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery(newQuery("status:new limit:2").withStart(3));
   }
 
+  @Test
+  public void searchAfter() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      changes.add(insert(repo, newChange(repo)));
+    }
+
+    List<ChangeInfo> page = assertQuery(newQuery("status:new").withLimit(2),
+        changes.get(2), changes.get(1));
+    String token = page.get(1)._continue;
+    assertThat(token).isNotNull();
+    assertThat(queryProcessor.setLimit(2)
+        .queryChanges(queryBuilder.parse("status:new"))
+        .searchAfterSupported()).isTrue();
+    page = assertQuery(
+        newQuery("status:new").withLimit(2).withSearchAfter(token),
+        changes.get(0));
+    assertThat(page.get(0)._continue).isNull();
+
+    assertQuery(
+        newQuery("status:new").withLimit(2).withSearchAfter(token)
+            .withStart(1));
+    assertBadQuery(newQuery("status:new").withSearchAfter("bogus"));
+  }
+
+  @Test
+  public void searchAfterWithHasDraft() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Change change = insert(repo, newChange(repo));
+      DraftInput in = new DraftInput();
+      in.line = 1;
+      in.message = "draft " + i;
+      in.path = Patch.COMMIT_MSG;
+      gApi.changes().id(change.getId().get()).current().createDraft(in);
+      changes.add(change);
+    }
+    insert(repo, newChange(repo));
+
+    List<ChangeInfo> page = assertQuery(
+        newQuery("has:draft status:new").withLimit(2),
+        changes.get(2), changes.get(1));
+    String token = page.get(1)._continue;
+    assertThat(token).isNotNull();
+    assertQuery(
+        newQuery("has:draft status:new").withLimit(2).withSearchAfter(token),
+        changes.get(0));
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void noContinuationTokenForDatabaseQuery() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    for (int i = 0; i < 3; i++) {
+      Change change = insert(repo, newChange(repo));
+      DraftInput in = new DraftInput();
+      in.line = 1;
+      in.message = "draft " + i;
+      in.path = Patch.COMMIT_MSG;
+      gApi.changes().id(change.getId().get()).current().createDraft(in);
+    }
+
+    // Read from the database, like has:draft with schemas before draftby.
+    Predicate<ChangeData> hasDraft =
+        new HasDraftByLegacyPredicate(queryArgs, userId);
+    QueryResult result = queryProcessor.setLimit(2).queryChanges(hasDraft);
+    assertThat(result.changes()).hasSize(2);
+    assertThat(result.moreChanges()).isTrue();
+    assertThat(result.searchAfterSupported()).isFalse();
+
+    String token = ChangeCursor.create(TimeUtil.nowTs(), 1).encode();
+    try {
+      queryProcessor.setSearchAfter(token).queryChanges(hasDraft);
+      fail("expected QueryParseException for continuation token");
+    } catch (QueryParseException e) {
+      assertThat(e.getMessage())
+          .startsWith("continuation token not supported for query");
+    }
+  }
+
   @Test
   public void maxPages() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
@@ -1344,6 +1430,56 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery("conflicts:" + change4.getId().get());
   }
 
+  @Test
+  public void conflictsWithOtherPredicates() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    RevCommit commit1 = repo.parseBody(
+        repo.commit()
+            .add("file1", "contents1")
+            .add("dir/file2", "contents2")
+            .create());
+    RevCommit commit2 = repo.parseBody(
+        repo.commit()
+            .add("file1", "contents1 different")
+            .create());
+    RevCommit commit3 = repo.parseBody(
+        repo.commit()
+            .add("file1", "contents1")
+            .create());
+    RevCommit commit4 = repo.parseBody(
+        repo.commit()
+            .add("dir/file2", "contents2 different")
+            .create());
+    RevCommit commit5 = repo.parseBody(
+        repo.commit()
+            .add("dir/file2", "contents2 abandoned")
+            .create());
+    RevCommit commit6 = repo.parseBody(
+        repo.commit()
+            .add("file6", "contents6")
+            .create());
+    Change change1 = insert(repo, newChangeForCommit(repo, commit1));
+    Change change2 =
+        insert(repo, newChange(repo, commit2, null, null, "topic"));
+    Change change3 =
+        insert(repo, newChange(repo, commit3, null, null, "topic"));
+    Change change4 = insert(repo, newChangeForCommit(repo, commit4));
+    Change change5 = insert(repo,
+        newChange(repo, commit5, null, Change.Status.ABANDONED, null));
+    insert(repo, newChangeForCommit(repo, commit6));
+
+    // All candidates are checked in one batch. The dry run merging change3
+    // succeeds as it touches file1 with the same contents, the dry runs of
+    // the other changes touching the same files fail.
+    String conflicts = "conflicts:" + change1.getId().get();
+    assertQuery(conflicts, change5, change4, change2);
+    assertQuery(conflicts + " status:open", change4, change2);
+    assertQuery(conflicts + " topic:topic", change2);
+    assertQuery(conflicts + " file:dir/file2", change5, change4);
+    assertQuery(conflicts + " -file:dir/file2", change2);
+    assertQuery("-" + conflicts + " topic:topic", change3);
+  }
+
   @Test
   public void reviewedBy() throws Exception {
     resetTimeWithClockStep(2, MINUTES);
@@ -1506,6 +1642,57 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     cd.currentApprovals();
   }
 
+  @Test
+  public void prepopulateChangeAndChangedLines() throws Exception {
+    assume().that(notesMigration.readChanges()).isFalse();
+    TestRepository<Repo> repo = createProject("repo");
+    Change change = insert(repo, newChange(repo));
+
+    db = new DisabledReviewDb();
+    requestContext.setContext(newRequestContext(userId));
+    List<ChangeData> cds = queryProcessor
+        .setRequestedFields(ImmutableSet.of(
+            ChangeField.CHANGE.getName(),
+            ChangeField.ADDED.getName(),
+            ChangeField.DELETED.getName()))
+        .queryChanges(queryBuilder.parse(change.getId().toString()))
+        .changes();
+    assertThat(cds).hasSize(1);
+
+    ChangeData cd = cds.get(0);
+    assertThat(cd.change().getSubject()).isEqualTo(change.getSubject());
+    assertThat(cd.changedLines()).isNotNull();
+
+    exception.expect(DisabledReviewDb.Disabled.class);
+    cd.patchSets();
+  }
+
+  @Test
+  public void estimateCardinality() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    createProject("other");
+    Change change1 = insert(repo, newChange(repo));
+    insert(repo, newChange(repo));
+
+    ChangeDataSource s = (ChangeDataSource) queryProcessor
+        .queryChanges(queryBuilder.parse("status:new project:repo"))
+        .predicate();
+    // Estimates may include deleted documents for changes indexed more than
+    // once, so only check the lower bound.
+    assertThat(s.getCardinality()).isAtLeast(2);
+
+    s = (ChangeDataSource) queryProcessor
+        .queryChanges(queryBuilder.parse("status:new project:other"))
+        .predicate();
+    assertThat(s.getCardinality()).isEqualTo(0);
+
+    String plan = QueryPlan.describe(queryProcessor
+        .queryChanges(queryBuilder.parse(change1.getId().toString()))
+        .predicate());
+    assertThat(plan).contains("index ");
+    assertThat(plan).contains("estimated ");
+  }
+
   protected ChangeInserter newChange(TestRepository<Repo> repo)
       throws Exception {
     return newChange(repo, null, null, null, null);
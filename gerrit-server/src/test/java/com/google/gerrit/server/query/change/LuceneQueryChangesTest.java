@@ -14,24 +14,97 @@
 
 package com.google.gerrit.server.query.change;
 
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.testutil.InMemoryModule;
 import com.google.gerrit.testutil.InMemoryRepositoryManager.Repo;
+import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.util.Modules;
 
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.Test;
 
+import java.util.List;
+
 public class LuceneQueryChangesTest extends AbstractQueryChangesTest {
+  private static class ResultCountingMetricMaker extends DisabledMetricMaker {
+    private final Multiset<Object> results = ConcurrentHashMultiset.create();
+
+    @Override
+    public <F1> Counter1<F1> newCounter(String name, Description desc,
+        Field<F1> field1) {
+      if (!name.equals("index/lucene/change_results")) {
+        return super.newCounter(name, desc, field1);
+      }
+      return new Counter1<F1>() {
+        @Override
+        public void incrementBy(F1 source, long value) {
+          results.add(source, (int) value);
+        }
+
+        @Override
+        public void remove() {
+        }
+      };
+    }
+  }
+
+  private final ResultCountingMetricMaker metricMaker =
+      new ResultCountingMetricMaker();
+
   @Override
   protected Injector createInjector() {
     Config luceneConfig = new Config(config);
     InMemoryModule.setDefaults(luceneConfig);
     return Guice.createInjector(
-        new InMemoryModule(luceneConfig, notesMigration));
+        Modules.override(new InMemoryModule(luceneConfig, notesMigration))
+            .with(new AbstractModule() {
+              @Override
+              protected void configure() {
+                bind(MetricMaker.class).toInstance(metricMaker);
+              }
+            }));
+  }
+
+  @Test
+  public void restQueryReadFromDocValues() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChange(repo));
+    Change change2 = insert(repo, newChange(repo));
+    gApi.changes().id(change1.getId().get()).current()
+        .review(ReviewInput.approve());
+    gApi.accounts().self().starChange(change2.getId().toString());
+
+    metricMaker.results.clear();
+    List<ChangeInfo> infos = newQuery("status:new")
+        .withOptions(ListChangesOption.LABELS, ListChangesOption.REVIEWED)
+        .get();
+    assertThat(metricMaker.results.count("doc_values")).isEqualTo(2);
+    assertThat(metricMaker.results.count("stored_fields")).isEqualTo(0);
+
+    // Approving change 1 updated it after change 2.
+    assertThat(infos).hasSize(2);
+    assertThat(infos.get(0)._number).isEqualTo(change1.getId().get());
+    assertThat(infos.get(0).labels.get("Code-Review").approved).isNotNull();
+    assertThat(infos.get(0).starred).isNull();
+    assertThat(infos.get(1)._number).isEqualTo(change2.getId().get());
+    assertThat(infos.get(1).labels.get("Code-Review").approved).isNull();
+    assertThat(infos.get(1).starred).isTrue();
   }
 
   @Test
@@ -16,6 +16,7 @@ package com.google.gerrit.testutil;
 
 import static com.google.inject.Scopes.SINGLETON;
 
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.common.ChangeHooks;
 import com.google.gerrit.common.DisabledChangeHooks;
@@ -52,6 +53,8 @@ import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
 import com.google.gerrit.server.mail.SignedTokenEmailTokenVerifier;
 import com.google.gerrit.server.notedb.NotesMigration;
 import com.google.gerrit.server.patch.DiffExecutor;
+import com.google.gerrit.server.patch.DiffWarmingExecutor;
+import com.google.gerrit.server.query.change.ConflictsExecutor;
 import com.google.gerrit.server.schema.DataSourceType;
 import com.google.gerrit.server.schema.SchemaCreator;
 import com.google.gerrit.server.securestore.DefaultSecureStore;
@@ -224,6 +227,24 @@ public class InMemoryModule extends FactoryModule {
     return MoreExecutors.newDirectExecutorService();
   }
 
+  @Provides
+  @Singleton
+  @DiffWarmingExecutor
+  public ExecutorService createDiffWarmingExecutor() {
+    // Rejects all tasks: tests compute diffs when they are requested, instead
+    // of in the thread uploading the patch set.
+    ExecutorService executor = MoreExecutors.newDirectExecutorService();
+    executor.shutdown();
+    return executor;
+  }
+
+  @Provides
+  @Singleton
+  @ConflictsExecutor
+  public ListeningExecutorService createConflictsExecutor() {
+    return MoreExecutors.newDirectExecutorService();
+  }
+
   @Provides
   @Singleton
   InMemoryDatabase getInMemoryDatabase(SchemaCreator schemaCreator)
@@ -83,6 +83,11 @@ class Query extends SshCommand {
     processor.setIncludeSubmitRecords(on);
   }
 
+  @Option(name = "--explain", usage = "Include how the query was executed in the statistics")
+  void setExplain(boolean on) {
+    processor.setExplain(on);
+  }
+
   @Option(name = "--start", aliases = {"-S"}, usage = "Number of changes to skip")
   void setStart(int start) {
     processor.setStart(start);